@@ -43,6 +43,14 @@ public interface ApplicationConfiguration {
 
 	public Path getStartupDir();
 
+	/**
+	 * Returns the directory of the version of the application that is running, which is the
+	 * startup directory unless an update has been installed in its own directory.
+	 *
+	 * @return the directory of the version of the application that is running
+	 */
+	public Path getActiveVersionDir();
+
 	public Path getApplicationHomeDir();
 
 	public Path getUserPluginDir();
@@ -17,6 +17,7 @@
 package org.apache.taverna.configuration.app.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -58,8 +59,12 @@ public class ApplicationConfigurationImpl implements ApplicationConfiguration {
 	public static final String APP_STARTUP = "taverna.app.startup";
 	public static final String APPLICATION_PROFILE = "ApplicationProfile.xml";
 
+	/** Pointer to the active version of the application installed in the startup directory. */
+	private static final String ACTIVE_VERSION_FILE = "versions/active.properties";
+
 	private File startupDir;
 	private File homeDir;
+	private File activeVersionDir;
 
 	private ApplicationProfile applicationProfile;
 	private ApplicationProfile defaultApplicationProfile;
@@ -270,7 +275,7 @@ public class ApplicationConfigurationImpl implements ApplicationConfiguration {
 
 	public ApplicationProfile getDefaultApplicationProfile() {
 		if (defaultApplicationProfile == null) {
-			File applicationProfileFile = new File(getStartupDir().toFile(), APPLICATION_PROFILE);
+			File applicationProfileFile = new File(getActiveVersionDir().toFile(), APPLICATION_PROFILE);
 			if (applicationProfileFile.exists()) {
 				try {
 					JAXBContext jaxbContext = JAXBContext.newInstance(ApplicationProfile.class);
@@ -284,4 +289,43 @@ public class ApplicationConfigurationImpl implements ApplicationConfiguration {
 		return defaultApplicationProfile;
 	}
 
+	/**
+	 * Returns the directory of the running version of the application, which is the startup
+	 * directory unless an update has been installed in its own directory.
+	 * <p>
+	 * A version installed while the application is running is <code>pending</code> until the
+	 * next start, so the previous version is still running. Once started the version is
+	 * <code>booting</code> or <code>confirmed</code>, and after a rollback the pointer file names
+	 * the version that was rolled back to. The directory is read once, as the running version
+	 * doesn't change until the application is restarted.
+	 */
+	@Override
+	public synchronized Path getActiveVersionDir() {
+		if (activeVersionDir == null) {
+			activeVersionDir = readActiveVersionDir();
+		}
+		return activeVersionDir.toPath();
+	}
+
+	private File readActiveVersionDir() {
+		File startupDir = getStartupDir().toFile();
+		File activeVersionFile = new File(startupDir, ACTIVE_VERSION_FILE);
+		if (activeVersionFile.isFile()) {
+			Properties activeVersion = new Properties();
+			try (InputStream inputStream = new FileInputStream(activeVersionFile)) {
+				activeVersion.load(inputStream);
+			} catch (IOException e) {
+				logger.error("Could not read the active version from " + activeVersionFile, e);
+			}
+			String version = activeVersion.getProperty("version");
+			if ("pending".equals(activeVersion.getProperty("state"))) {
+				version = activeVersion.getProperty("previous");
+			}
+			if (version != null) {
+				return new File(activeVersionFile.getParentFile(), version);
+			}
+		}
+		return startupDir;
+	}
+
 }
@@ -19,13 +19,28 @@ package org.apache.taverna.configuration;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -38,69 +53,532 @@ import org.apache.log4j.Logger;
  * <br>
  * <p>A concrete version of this class needs to define the name,category,
  * UUID string and the set of default values.</p>
+ * <p>Changes are written behind: the configuration is stored once no property has changed for
+ * {@link #STORE_DELAY} milliseconds, or when {@link #flush()} is called. Several changes can be
+ * made as one batch using {@link #edit(Runnable)}. Pending changes are also stored when the JVM
+ * shuts down, or when {@link #shutdown()} is called.</p>
+ * <p>Listeners added with {@link #addChangeListener(ConfigurationChangeListener)} are told which
+ * properties have changed. Changes are delivered on a background thread after
+ * {@link #NOTIFY_DELAY} milliseconds, so a burst of changes results in one notification. If the
+ * {@link ConfigurationManager} is a {@link ConfigurationChangeListener} it is added as a listener
+ * when the configurable is constructed.</p>
+ * <p>System and site properties can be added beneath the user properties, see
+ * {@link ConfigurationLayer}. Reads use a flattened view of all the layers, which is updated for
+ * just the changed properties when a layer changes.</p>
  *
  * @author Stuart Owen
  *
  */
 public abstract class AbstractConfigurable implements Configurable {
 
-	private Map<String,String> propertyMap = new HashMap<String, String>();
+	private Map<String,String> propertyMap = new PropertyMap();
+
+	/** The user properties that have been set, rather than copied from the defaults. */
+	private final Set<String> userKeys = new HashSet<String>();
+
+	/** The system and site properties. */
+	private final Map<ConfigurationLayer, Map<String, String>> layerProperties = new EnumMap<ConfigurationLayer, Map<String, String>>(ConfigurationLayer.class);
+
+	/** The effective properties of all layers, or <code>null</code> if a property has changed. */
+	private volatile Map<String, String> snapshot;
+
+	/** The last effective properties, which are updated for the stale keys. */
+	private Map<String, String> effectiveProperties;
+
+	/** Properties that have changed since the effective properties were updated. */
+	private final Set<String> staleKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** Values parsed by the typed accessors, which are removed when the property changes. */
+	private final ConcurrentMap<String, ParsedProperty> parsedProperties = new ConcurrentHashMap<String, ParsedProperty>();
 
 	private static Logger logger = Logger.getLogger(AbstractConfigurable.class);
 
 	public static final String DELETED_VALUE_CODE = "~~DELETED~~";
 
+	private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h|d|)", Pattern.CASE_INSENSITIVE);
+
+	/** Milliseconds to wait after the last change before the configuration is stored. */
+	public static final long STORE_DELAY = 1000;
+
+	/** Milliseconds to collect changes for before listeners are notified. */
+	public static final long NOTIFY_DELAY = 100;
+
+	private static ScheduledThreadPoolExecutor storeExecutor;
+
+	/** Flushes the pending stores when the JVM shuts down, while there is a store executor. */
+	private static Thread shutdownHook;
+
+	private static final Set<AbstractConfigurable> pendingStores = new HashSet<AbstractConfigurable>();
+
 	private ConfigurationManager configurationManager;
 
+	private ScheduledFuture<?> scheduledStore;
+
+	/** True while the configuration is being loaded. */
+	private boolean populating;
+
+	private final List<ConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<ConfigurationChangeListener>();
+
+	/** Properties that have changed since listeners were last notified. */
+	private final Set<String> changedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private ScheduledFuture<?> scheduledNotification;
+
+	/** The depth of nested edits. */
+	private int editDepth;
+
+	private boolean modified;
+
 	public Set<String> getKeys() {
 		return getInternalPropertyMap().keySet();
 	}
 
 	/**
-	 * Constructs the AbstractConfigurable by either reading from a previously stored set of properties,
-	 * or by using the default values which results in them being stored for subsequent usage.
+	 * Constructs the AbstractConfigurable by reading a previously stored set of properties, or
+	 * else by using the default values. Nothing is stored until a property is changed.
 	 */
 	public AbstractConfigurable(ConfigurationManager configurationManager) {
 		this.configurationManager = configurationManager;
+		layerProperties.put(ConfigurationLayer.SYSTEM, Collections.<String, String>emptyMap());
+		layerProperties.put(ConfigurationLayer.SITE, Collections.<String, String>emptyMap());
+		populating = true;
 		try {
 			configurationManager.populate(this);
 		} catch (Exception e) {
 			logger.error("There was an error reading the properties for the Configurable:"+getFilePrefix(),e);
+		} finally {
+			populating = false;
 		}
+		if (configurationManager instanceof ConfigurationChangeListener) {
+			addChangeListener((ConfigurationChangeListener) configurationManager);
+		}
+	}
+
+	/**
+	 * Adds a listener that is notified when properties of this configurable change.
+	 *
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addChangeListener(ConfigurationChangeListener listener) {
+		changeListeners.add(listener);
 	}
 
-	public synchronized String getProperty(String key) {
-		String val = getInternalPropertyMap().get(key);
-		if (val==null) val=getDefaultProperty(key);
-		if (DELETED_VALUE_CODE.equals(val)) val=null;
-		return val;
+	public void removeChangeListener(ConfigurationChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	/**
+	 * Records that a property has changed, and schedules notifying the listeners unless the
+	 * configuration is being loaded or edited.
+	 */
+	private void propertyChanged(String key) {
+		if (!populating) {
+			changedKeys.add(key);
+			if (editDepth == 0) {
+				scheduleNotification();
+			}
+		}
+	}
+
+	private synchronized void scheduleNotification() {
+		if (scheduledNotification == null && !changedKeys.isEmpty()) {
+			scheduledNotification = getStoreExecutor().schedule(new Runnable() {
+				@Override
+				public void run() {
+					notifyChangeListeners();
+				}
+			}, NOTIFY_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void notifyChangeListeners() {
+		Set<String> keys;
+		synchronized (this) {
+			scheduledNotification = null;
+			keys = new HashSet<String>(changedKeys);
+			changedKeys.removeAll(keys);
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+		keys = Collections.unmodifiableSet(keys);
+		for (ConfigurationChangeListener listener : changeListeners) {
+			try {
+				listener.configurationChanged(this, keys);
+			} catch (RuntimeException e) {
+				logger.error("Error notifying listener of changes to "+getFilePrefix(),e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of the property from the highest {@link ConfigurationLayer} that sets it.
+	 * <br>
+	 * Reads don't lock: they use an immutable snapshot of the effective properties, which is
+	 * updated for the changed properties on the first read after a property changes.
+	 */
+	public String getProperty(String key) {
+		Map<String, String> properties = snapshot;
+		if (properties == null) {
+			properties = updateSnapshot();
+		}
+		return properties.get(key);
+	}
+
+	private synchronized Map<String, String> updateSnapshot() {
+		Map<String, String> properties = snapshot;
+		if (properties == null) {
+			Set<String> keys;
+			if (effectiveProperties == null) {
+				keys = new HashSet<String>(getDefaultPropertyMap().keySet());
+				for (Map<String, String> layer : layerProperties.values()) {
+					keys.addAll(layer.keySet());
+				}
+				keys.addAll(propertyMap.keySet());
+				staleKeys.clear();
+				effectiveProperties = new HashMap<String, String>();
+			} else {
+				keys = new HashSet<String>(staleKeys);
+				staleKeys.removeAll(keys);
+				effectiveProperties = new HashMap<String, String>(effectiveProperties);
+			}
+			for (String key : keys) {
+				String value = getEffectiveProperty(key);
+				if (value == null) {
+					effectiveProperties.remove(key);
+				} else {
+					effectiveProperties.put(key, value);
+				}
+			}
+			properties = Collections.unmodifiableMap(effectiveProperties);
+			snapshot = properties;
+			if (!staleKeys.isEmpty()) {
+				// changed while updating
+				snapshot = null;
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Returns the value of the property from the highest layer that sets it, or <code>null</code>
+	 * if it is not set or has been deleted.
+	 * <br>
+	 * A user property that has its default value only overrides the system and site properties if
+	 * it has been set, rather than copied from the defaults.
+	 */
+	private String getEffectiveProperty(String key) {
+		String defaultValue = getDefaultPropertyMap().get(key);
+		String value = propertyMap.get(key);
+		if (value == null || (value.equals(defaultValue) && !userKeys.contains(key))) {
+			value = layerProperties.get(ConfigurationLayer.SITE).get(key);
+			if (value == null) {
+				value = layerProperties.get(ConfigurationLayer.SYSTEM).get(key);
+				if (value == null) {
+					value = defaultValue;
+				}
+			}
+		}
+		return DELETED_VALUE_CODE.equals(value) ? null : value;
+	}
+
+	/**
+	 * Returns the properties set in a layer.
+	 *
+	 * @param layer
+	 *            the layer to return the properties of
+	 * @return the properties set in the layer
+	 */
+	public Map<String, String> getLayerProperties(ConfigurationLayer layer) {
+		switch (layer) {
+		case DEFAULT:
+			return getDefaultPropertyMap();
+		case USER:
+			return getInternalPropertyMap();
+		default:
+			return layerProperties.get(layer);
+		}
+	}
+
+	/**
+	 * Sets the properties of the system or site layer, which are not stored with the
+	 * configuration.
+	 * <br>
+	 * Only the effective values of the properties that differ from the previous layer properties
+	 * are recomputed, and listeners are told about those whose effective values have changed.
+	 *
+	 * @param layer
+	 *            {@link ConfigurationLayer#SYSTEM} or {@link ConfigurationLayer#SITE}
+	 * @param properties
+	 *            the properties of the layer
+	 */
+	public synchronized void setLayerProperties(ConfigurationLayer layer, Map<String, String> properties) {
+		if (layer == ConfigurationLayer.DEFAULT || layer == ConfigurationLayer.USER) {
+			throw new IllegalArgumentException("Can only set the properties of the system or site layer");
+		}
+		Map<String, String> oldProperties = layerProperties.get(layer);
+		Set<String> keys = new HashSet<String>(oldProperties.keySet());
+		keys.addAll(properties.keySet());
+		for (Iterator<String> iterator = keys.iterator(); iterator.hasNext();) {
+			String key = iterator.next();
+			String value = properties.get(key);
+			if (value == null ? oldProperties.get(key) == null : value.equals(oldProperties.get(key))) {
+				iterator.remove();
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+		Map<String, String> oldValues = getProperties(keys);
+		layerProperties.put(layer, Collections.unmodifiableMap(new HashMap<String, String>(properties)));
+		effectivePropertiesChanged(oldValues);
+	}
+
+	/**
+	 * Returns the user properties that have been set, rather than copied from the defaults. These
+	 * are stored even if they have their default value, so that they still override the system
+	 * and site properties.
+	 *
+	 * @return the keys of the user properties that have been set
+	 */
+	public synchronized Set<String> getUserKeys() {
+		return new HashSet<String>(userKeys);
+	}
+
+	/**
+	 * Sets which user properties have been set, rather than copied from the defaults. Used by the
+	 * {@link ConfigurationManager} when it loads the configuration.
+	 *
+	 * @param keys
+	 *            the keys of the user properties that have been set
+	 */
+	public synchronized void setUserKeys(Collection<String> keys) {
+		// the keys that are only in one of the sets
+		Set<String> toggledKeys = new HashSet<String>(userKeys);
+		toggledKeys.addAll(keys);
+		Set<String> unchangedKeys = new HashSet<String>(userKeys);
+		unchangedKeys.retainAll(keys);
+		toggledKeys.removeAll(unchangedKeys);
+		if (toggledKeys.isEmpty()) {
+			return;
+		}
+		Map<String, String> oldValues = getProperties(toggledKeys);
+		userKeys.clear();
+		userKeys.addAll(keys);
+		effectivePropertiesChanged(oldValues);
+	}
+
+	/**
+	 * Returns the effective values of the properties.
+	 */
+	private Map<String, String> getProperties(Collection<String> keys) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (String key : keys) {
+			values.put(key, getProperty(key));
+		}
+		return values;
+	}
+
+	/**
+	 * Recomputes the effective values of the properties after a change to the layers, and tells
+	 * the listeners about the properties whose effective values differ from the old values.
+	 */
+	private void effectivePropertiesChanged(Map<String, String> oldValues) {
+		staleKeys.addAll(oldValues.keySet());
+		snapshot = null;
+		for (Map.Entry<String, String> oldValue : oldValues.entrySet()) {
+			String key = oldValue.getKey();
+			parsedProperties.remove(key);
+			String value = getProperty(key);
+			if (value == null ? oldValue.getValue() != null : !value.equals(oldValue.getValue())) {
+				propertyChanged(key);
+			}
+		}
 	}
 
 	public String getDefaultProperty(String key) {
 		return getDefaultPropertyMap().get(key);
 	}
 
-	protected void store() {
+	/**
+	 * Schedules storing the configuration.
+	 * <p>
+	 * Nothing is stored while the configuration is being loaded, and changes made within an
+	 * {@link #edit(Runnable)} are stored when the outermost edit completes.
+	 */
+	protected synchronized void store() {
+		if (populating) {
+			return;
+		}
+		modified = true;
+		if (editDepth > 0) {
+			return;
+		}
+		if (scheduledStore != null) {
+			scheduledStore.cancel(false);
+		}
+		scheduledStore = getStoreExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, STORE_DELAY, TimeUnit.MILLISECONDS);
+		synchronized (pendingStores) {
+			pendingStores.add(this);
+		}
+	}
+
+	/**
+	 * Returns true if the configuration has changes that have not been stored yet.
+	 *
+	 * @return true if the configuration has changes that have not been stored yet
+	 */
+	public synchronized boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Stores any changes to the configuration that have not been stored yet.
+	 */
+	public synchronized void flush() {
+		if (scheduledStore != null) {
+			scheduledStore.cancel(false);
+			scheduledStore = null;
+		}
+		synchronized (pendingStores) {
+			pendingStores.remove(this);
+		}
+		if (modified && editDepth == 0 && configurationManager != null) {
+			modified = false;
+			try {
+				configurationManager.store(this);
+			} catch (Exception e) {
+				logger.error("There was an error storing the new configuration for: "+this.getFilePrefix(),e);
+			}
+		}
+	}
+
+	/**
+	 * Makes a batch of changes to the configuration, which are stored together.
+	 * <p>
+	 * If the edit throws an exception the properties are restored to their values before the
+	 * edit, and the exception is rethrown. Edits may be nested, in which case the changes are
+	 * stored, and listeners notified, when the outermost edit completes.
+	 *
+	 * @param edit
+	 *            changes the properties of this configurable
+	 */
+	public synchronized void edit(Runnable edit) {
+		Map<String, String> originalProperties = new HashMap<String, String>(propertyMap);
+		Set<String> originalUserKeys = new HashSet<String>(userKeys);
+		Set<String> originalChangedKeys = new HashSet<String>(changedKeys);
+		boolean originallyModified = modified;
+		editDepth++;
 		try {
-			configurationManager.store(this);
-		} catch (Exception e) {
-			logger.error("There was an error storing the new configuration for: "+this.getFilePrefix(),e);
+			edit.run();
+		} catch (RuntimeException | Error e) {
+			userKeys.clear();
+			userKeys.addAll(originalUserKeys);
+			propertyMap.clear();
+			propertyMap.putAll(originalProperties);
+			changedKeys.retainAll(originalChangedKeys);
+			modified = originallyModified;
+			throw e;
+		} finally {
+			editDepth--;
+		}
+		if (editDepth == 0) {
+			if (modified) {
+				store();
+			}
+			scheduleNotification();
 		}
 	}
 
-	public void clear() {
+	private static synchronized ScheduledThreadPoolExecutor getStoreExecutor() {
+		if (storeExecutor == null) {
+			storeExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Taverna configuration");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			storeExecutor.setRemoveOnCancelPolicy(true);
+			shutdownHook = new Thread("Taverna configuration flush") {
+				@Override
+				public void run() {
+					flushAll();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+		return storeExecutor;
+	}
+
+	/**
+	 * Stores the changes of every configurable that has changes waiting to be stored.
+	 */
+	public static void flushAll() {
+		List<AbstractConfigurable> configurables;
+		synchronized (pendingStores) {
+			configurables = new ArrayList<AbstractConfigurable>(pendingStores);
+		}
+		for (AbstractConfigurable configurable : configurables) {
+			configurable.flush();
+		}
+	}
+
+	/**
+	 * Stores all pending changes, then stops the background thread once any scheduled change
+	 * notifications have been delivered, and removes the JVM shutdown hook.
+	 * <p>
+	 * Called when the configuration manager stops, so that neither the thread nor the hook keep
+	 * the classes of a stopped bundle loaded. Configurables that change afterwards start a new
+	 * thread.
+	 */
+	public static void shutdown() {
+		// flushed outside the class lock, which store() takes while holding a configurable's lock
+		flushAll();
+		synchronized (AbstractConfigurable.class) {
+			if (storeExecutor != null) {
+				storeExecutor.shutdown();
+				storeExecutor = null;
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					// the JVM is already shutting down, so the hook flushes the changes
+				}
+				shutdownHook = null;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		userKeys.clear();
 		getInternalPropertyMap().clear();
 	}
 
 	public synchronized void setProperty(String key, String value) {
 		Object oldValue = getInternalPropertyMap().get(key);
+		boolean overridden = false;
 		if (value==null) {
 			deleteProperty(key);
 		}
+		else if (value.equals(oldValue) && !userKeys.contains(key)) {
+			// the value hasn't changed, but now overrides the system and site properties
+			Map<String, String> oldValues = getProperties(Collections.singleton(key));
+			userKeys.add(key);
+			effectivePropertiesChanged(oldValues);
+			overridden = true;
+		}
 		else {
 			getInternalPropertyMap().put(key,value);
+			userKeys.add(key);
 		}
-		if (value==null || !value.equals(oldValue)) {
+		if (value==null || !value.equals(oldValue) || overridden) {
 			store();
 		}
 	}
@@ -117,31 +595,156 @@ public abstract class AbstractConfigurable implements Configurable {
 	}
 
 
-	public void restoreDefaults() {
+	public synchronized void restoreDefaults() {
+		userKeys.clear();
 		propertyMap.clear();
 		propertyMap.putAll(getDefaultPropertyMap());
 		store();
 	}
 
-	public void deleteProperty(String key) {
-		if (getDefaultPropertyMap().containsKey(key)) {
+	public synchronized void deleteProperty(String key) {
+		if (getDefaultPropertyMap().containsKey(key)
+				|| layerProperties.get(ConfigurationLayer.SYSTEM).containsKey(key)
+				|| layerProperties.get(ConfigurationLayer.SITE).containsKey(key)) {
 			propertyMap.put(key, DELETED_VALUE_CODE);
+			userKeys.add(key);
 		}
 		else {
 			propertyMap.remove(key);
+			userKeys.remove(key);
 		}
 	}
 
+	/**
+	 * Returns the cached value parsed from the property value, or <code>null</code> if the
+	 * property has changed or was not parsed as the type.
+	 */
+	private ParsedProperty getParsedProperty(String key, String value, Class<?> type) {
+		ParsedProperty parsedProperty = parsedProperties.get(key);
+		if (parsedProperty != null && parsedProperty.type == type
+				&& parsedProperty.value.equals(value)) {
+			return parsedProperty;
+		}
+		return null;
+	}
+
+	private ParsedProperty putParsedProperty(String key, String value, Class<?> type,
+			Object parsedValue) {
+		ParsedProperty parsedProperty = new ParsedProperty(value, type, parsedValue);
+		parsedProperties.put(key, parsedProperty);
+		return parsedProperty;
+	}
+
+	/**
+	 * Returns the property as an int.
+	 * <br>
+	 * The parsed value is cached until the property changes.
+	 *
+	 * @return the property as an int, or the default value if the property is not set or is not
+	 *         an integer
+	 */
+	public int getPropertyInt(String key, int defaultValue) {
+		String value = getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		ParsedProperty parsedProperty = getParsedProperty(key, value, Integer.class);
+		if (parsedProperty == null) {
+			Integer intValue = null;
+			try {
+				intValue = Integer.valueOf(value.trim());
+			} catch (NumberFormatException e) {
+				logger.warn("The value of "+key+" in "+getFilePrefix()+" is not an integer: "+value);
+			}
+			parsedProperty = putParsedProperty(key, value, Integer.class, intValue);
+		}
+		return parsedProperty.parsedValue == null ? defaultValue : (Integer) parsedProperty.parsedValue;
+	}
+
+	/**
+	 * Returns the property as a boolean, which is true if the value is "true", ignoring case.
+	 * <br>
+	 * The parsed value is cached until the property changes.
+	 *
+	 * @return the property as a boolean, or the default value if the property is not set
+	 */
+	public boolean getPropertyBoolean(String key, boolean defaultValue) {
+		String value = getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		ParsedProperty parsedProperty = getParsedProperty(key, value, Boolean.class);
+		if (parsedProperty == null) {
+			parsedProperty = putParsedProperty(key, value, Boolean.class,
+					Boolean.valueOf(value.trim()));
+		}
+		return (Boolean) parsedProperty.parsedValue;
+	}
+
+	/**
+	 * Returns the property as a duration.
+	 * <br>
+	 * The value is a number of milliseconds, or a number followed by one of the units
+	 * <code>ms</code>, <code>s</code>, <code>m</code>, <code>h</code> or <code>d</code>, e.g.
+	 * <code>30s</code>. The parsed value is cached until the property changes.
+	 *
+	 * @param unit
+	 *            the unit to return the duration in
+	 * @return the property as a duration, or the default value if the property is not set or is
+	 *         not a duration
+	 */
+	public long getPropertyDuration(String key, TimeUnit unit, long defaultValue) {
+		String value = getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		ParsedProperty parsedProperty = getParsedProperty(key, value, TimeUnit.class);
+		if (parsedProperty == null) {
+			Long milliseconds = null;
+			Matcher matcher = DURATION_PATTERN.matcher(value.trim());
+			if (matcher.matches()) {
+				long duration = Long.parseLong(matcher.group(1));
+				String durationUnit = matcher.group(2).toLowerCase(Locale.ROOT);
+				if (durationUnit.equals("s")) {
+					milliseconds = TimeUnit.SECONDS.toMillis(duration);
+				} else if (durationUnit.equals("m")) {
+					milliseconds = TimeUnit.MINUTES.toMillis(duration);
+				} else if (durationUnit.equals("h")) {
+					milliseconds = TimeUnit.HOURS.toMillis(duration);
+				} else if (durationUnit.equals("d")) {
+					milliseconds = TimeUnit.DAYS.toMillis(duration);
+				} else {
+					milliseconds = duration;
+				}
+			} else {
+				logger.warn("The value of "+key+" in "+getFilePrefix()+" is not a duration: "+value);
+			}
+			parsedProperty = putParsedProperty(key, value, TimeUnit.class, milliseconds);
+		}
+		if (parsedProperty.parsedValue == null) {
+			return defaultValue;
+		}
+		return unit.convert((Long) parsedProperty.parsedValue, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * Returns an unmodifiable List<String> for the given key. Internally the value is stored as a single String, but converted to a list when calling this method.
 	 * <br>
 	 * The list is unmodifiable to prevent the mistake of trying <pre>getPropertyStringList(..).add("new element");</pre> which will not affect the stored
 	 * list. For the property to be updated this{@link #setPropertyStringList(String, List)} must be used.
+	 * <br>
+	 * The parsed list is cached until the property changes.
 	 */
+	@SuppressWarnings("unchecked")
 	public List<String> getPropertyStringList(String key) {
 		String value = getProperty(key);
 		if (value!=null) {
-			return Collections.unmodifiableList(fromListText(value));
+			ParsedProperty parsedProperty = getParsedProperty(key, value, List.class);
+			if (parsedProperty == null) {
+				parsedProperty = putParsedProperty(key, value, List.class,
+						Collections.unmodifiableList(fromListText(value)));
+			}
+			return (List<String>) parsedProperty.parsedValue;
 		}
 		else {
 			return null;
@@ -172,11 +775,24 @@ public abstract class AbstractConfigurable implements Configurable {
 	 * <br>
 	 * Within the file, the value is stored as a single Comma Separated Value
 	 */
-	public void setPropertyStringList(String key, List<String> value) {
-		setProperty(key, toListText(value));
+	public synchronized void setPropertyStringList(String key, List<String> value) {
+		String text = toListText(value);
+		setProperty(key, text);
+		putParsedProperty(key, text, List.class,
+				Collections.unmodifiableList(new ArrayList<String>(value)));
 	}
 
 	private String toListText(List<String> values) {
+		if (!needsQuoting(values)) {
+			StringBuilder text = new StringBuilder();
+			for (String value : values) {
+				if (text.length() > 0) {
+					text.append(',');
+				}
+				text.append(value);
+			}
+			return text.toString();
+		}
 		StringWriter writer = new StringWriter();
 		try(CSVPrinter csvWriter = new CSVPrinter(writer,CSVFormat.DEFAULT)) {
 			csvWriter.printRecord(values);
@@ -186,4 +802,143 @@ public abstract class AbstractConfigurable implements Configurable {
 		return writer.getBuffer().toString().trim();
 	}
 
+	/**
+	 * Returns true if any of the values would be quoted by the CSV printer, or if the list can
+	 * only be written as a quoted value.
+	 */
+	private boolean needsQuoting(List<String> values) {
+		for (String value : values) {
+			if (value.isEmpty() || value.charAt(0) <= '#' || value.charAt(0) > '~'
+					|| value.charAt(value.length() - 1) <= ' ') {
+				return true;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The user properties, which discards the snapshot whenever a property is changed.
+	 */
+	private class PropertyMap extends AbstractMap<String, String> {
+
+		private final Map<String, String> properties = new HashMap<String, String>();
+
+		@Override
+		public String get(Object key) {
+			return properties.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return properties.containsKey(key);
+		}
+
+		@Override
+		public String put(String key, String value) {
+			String oldValue = properties.put(key, value);
+			if (oldValue == null ? value != null : !oldValue.equals(value)) {
+				changed(key);
+			}
+			return oldValue;
+		}
+
+		@Override
+		public String remove(Object key) {
+			boolean contained = properties.containsKey(key);
+			String oldValue = properties.remove(key);
+			if (contained) {
+				changed(key);
+			}
+			return oldValue;
+		}
+
+		@Override
+		public void clear() {
+			Set<String> keys = new HashSet<String>(properties.keySet());
+			properties.clear();
+			staleKeys.addAll(keys);
+			snapshot = null;
+			parsedProperties.clear();
+			for (String key : keys) {
+				propertyChanged(key);
+			}
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					final Iterator<Entry<String, String>> iterator = properties.entrySet().iterator();
+					return new Iterator<Entry<String, String>>() {
+						private Entry<String, String> current;
+
+						@Override
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							final Entry<String, String> entry = iterator.next();
+							current = entry;
+							return new SimpleEntry<String, String>(entry) {
+								@Override
+								public String setValue(String value) {
+									super.setValue(value);
+									String oldValue = entry.setValue(value);
+									changed(entry.getKey());
+									return oldValue;
+								}
+							};
+						}
+
+						@Override
+						public void remove() {
+							iterator.remove();
+							changed(current.getKey());
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return properties.size();
+				}
+			};
+		}
+
+		private void changed(Object key) {
+			staleKeys.add((String) key);
+			snapshot = null;
+			parsedProperties.remove(key);
+			propertyChanged((String) key);
+		}
+
+	}
+
+	/**
+	 * A property value and the value parsed from it.
+	 */
+	private static class ParsedProperty {
+
+		private final String value;
+		private final Class<?> type;
+		/** <code>null</code> if the value couldn't be parsed. */
+		private final Object parsedValue;
+
+		ParsedProperty(String value, Class<?> type, Object parsedValue) {
+			this.value = value;
+			this.type = type;
+			this.parsedValue = parsedValue;
+		}
+
+	}
+
 }
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration;
+
+import java.util.Set;
+
+/**
+ * Listener for changes to the properties of a {@link Configurable}.
+ *
+ * @see AbstractConfigurable#addChangeListener(ConfigurationChangeListener)
+ */
+public interface ConfigurationChangeListener {
+
+	/**
+	 * Called when properties of the configurable have changed.
+	 * <p>
+	 * Changes made in quick succession are delivered together, on a background thread.
+	 *
+	 * @param configurable
+	 *            the configurable whose properties have changed
+	 * @param changedKeys
+	 *            the keys of the changed properties
+	 */
+	public void configurationChanged(Configurable configurable, Set<String> changedKeys);
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration;
+
+/**
+ * A layer of configuration properties. A property in a layer overrides the same property in the
+ * layers before it, so user properties override site properties, which override system
+ * properties, which override the defaults.
+ *
+ * @see AbstractConfigurable#setLayerProperties(ConfigurationLayer, java.util.Map)
+ */
+public enum ConfigurationLayer {
+
+	/** The default properties of the configurable. */
+	DEFAULT,
+
+	/** Properties for all users of an installation. */
+	SYSTEM,
+
+	/** Properties shared by the installations at a site. */
+	SITE,
+
+	/** Properties set by the user, which are the properties that are stored. */
+	USER
+
+}
@@ -23,6 +23,15 @@ package org.apache.taverna.configuration;
  */
 public interface ConfigurationManager {
 
+	public static final String EVENT_TOPIC_ROOT = "org/apache/taverna/configuration/ConfigurationManager/";
+	/**
+	 * Topic of the event posted when properties of a {@link Configurable} change. The event has
+	 * the {@link #CONFIGURABLE_UUID} of the configurable and the {@link #CHANGED_KEYS}.
+	 */
+	public static final String CONFIGURATION_CHANGED = EVENT_TOPIC_ROOT + "CONFIGURATION_CHANGED";
+	public static final String CONFIGURABLE_UUID = "uuid";
+	public static final String CHANGED_KEYS = "changedKeys";
+
 	/**
 	 * Write out the properties configuration to disk based on the UUID of the
 	 * {@link Configurable}
@@ -16,6 +16,8 @@
  */
 package org.apache.taverna.configuration.proxy;
 
+import java.net.ProxySelector;
+
 import org.apache.taverna.configuration.Configurable;
 
 /**
@@ -72,4 +74,14 @@ public interface HttpProxyConfiguration extends Configurable {
 	 */
 	public void changeProxySettings();
 
+	/**
+	 * Returns a ProxySelector for the proxy settings.
+	 * <p>
+	 * The selector is updated when the proxy settings change, so it can be kept rather than
+	 * fetched for each connection.
+	 *
+	 * @return a ProxySelector for the proxy settings
+	 */
+	public ProxySelector getProxySelector();
+
 }
\ No newline at end of file
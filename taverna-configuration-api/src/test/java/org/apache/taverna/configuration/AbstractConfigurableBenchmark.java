@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of contended reads of configuration properties with the previous
+ * synchronized implementation of {@link AbstractConfigurable#getProperty(String)}.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.taverna.configuration.AbstractConfigurableBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class AbstractConfigurableBenchmark {
+
+	private DummyConfigurable configurable;
+
+	private SynchronizedConfigurable synchronizedConfigurable;
+
+	@Setup
+	public void setUp() {
+		configurable = new DummyConfigurable(new ConfigurationManager() {
+			@Override
+			public void store(Configurable configurable) throws Exception {
+			}
+
+			@Override
+			public void populate(Configurable configurable) throws Exception {
+			}
+		});
+		configurable.setProperty("colour", "red");
+		configurable.deleteProperty("name");
+		synchronizedConfigurable = new SynchronizedConfigurable(configurable.getDefaultPropertyMap(),
+				configurable.getInternalPropertyMap());
+	}
+
+	@Benchmark
+	public String snapshotSetProperty() {
+		return configurable.getProperty("colour");
+	}
+
+	@Benchmark
+	public String snapshotDefaultProperty() {
+		return configurable.getProperty("name");
+	}
+
+	@Benchmark
+	public String synchronizedSetProperty() {
+		return synchronizedConfigurable.getProperty("colour");
+	}
+
+	@Benchmark
+	public String synchronizedDefaultProperty() {
+		return synchronizedConfigurable.getProperty("name");
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(AbstractConfigurableBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+	/**
+	 * The synchronized read path that AbstractConfigurable used before snapshots.
+	 */
+	private static class SynchronizedConfigurable {
+
+		private final Map<String, String> defaultPropertyMap;
+		private final Map<String, String> propertyMap;
+
+		SynchronizedConfigurable(Map<String, String> defaultPropertyMap,
+				Map<String, String> propertyMap) {
+			this.defaultPropertyMap = new HashMap<String, String>(defaultPropertyMap);
+			this.propertyMap = new HashMap<String, String>(propertyMap);
+		}
+
+		synchronized String getProperty(String key) {
+			String val = propertyMap.get(key);
+			if (val == null) val = defaultPropertyMap.get(key);
+			if (AbstractConfigurable.DELETED_VALUE_CODE.equals(val)) val = null;
+			return val;
+		}
+
+	}
+
+}
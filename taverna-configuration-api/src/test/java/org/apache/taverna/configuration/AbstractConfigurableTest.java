@@ -17,16 +17,25 @@
 package org.apache.taverna.configuration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.taverna.configuration.AbstractConfigurable;
 import org.apache.taverna.configuration.Configurable;
@@ -230,6 +239,228 @@ public class AbstractConfigurableTest {
 
 	}
 
+	@Test
+	public void testInternalMapChangesVisible() {
+		assertEquals("Should be blue","blue",dummyConfigurable.getProperty("colour"));
+		dummyConfigurable.getInternalPropertyMap().put("colour", "red");
+		assertEquals("Should be red","red",dummyConfigurable.getProperty("colour"));
+		dummyConfigurable.getInternalPropertyMap().put("colour", AbstractConfigurable.DELETED_VALUE_CODE);
+		assertNull("Should be null",dummyConfigurable.getProperty("colour"));
+		dummyConfigurable.getInternalPropertyMap().keySet().remove("colour");
+		assertEquals("Should be blue","blue",dummyConfigurable.getProperty("colour"));
+	}
+
+	@Test
+	public void testListCached() {
+		AbstractConfigurable c = dummyConfigurable;
+		c.setProperty("list", "a,b");
+		c.setProperty("other", "c,d");
+		List<String> list = c.getPropertyStringList("list");
+		List<String> other = c.getPropertyStringList("other");
+		assertSame("parsed list should be cached", list, c.getPropertyStringList("list"));
+
+		c.setProperty("list", "a,b,c");
+		assertEquals("there should be 3 items", 3, c.getPropertyStringList("list").size());
+		assertSame("unchanged property should still be cached", other, c.getPropertyStringList("other"));
+
+		c.setPropertyStringList("list", Arrays.asList("x", "y,z", " w"));
+		assertEquals(Arrays.asList("x", "y,z", " w"), c.getPropertyStringList("list"));
+		c.setPropertyStringList("list", Arrays.asList("x", "y"));
+		assertEquals("x,y", c.getProperty("list"));
+	}
+
+	@Test
+	public void testTypedProperties() {
+		AbstractConfigurable c = dummyConfigurable;
+		c.setProperty("int", " 42");
+		c.setProperty("bool", "TRUE");
+		c.setProperty("notInt", "forty two");
+		assertEquals(42, c.getPropertyInt("int", 0));
+		assertEquals(7, c.getPropertyInt("notInt", 7));
+		assertEquals(7, c.getPropertyInt("missing", 7));
+		assertTrue(c.getPropertyBoolean("bool", false));
+		assertFalse(c.getPropertyBoolean("name", true));
+		assertTrue(c.getPropertyBoolean("missing", true));
+
+		c.setProperty("int", "43");
+		assertEquals(43, c.getPropertyInt("int", 0));
+		c.getInternalPropertyMap().put("int", "44");
+		assertEquals(44, c.getPropertyInt("int", 0));
+	}
+
+	@Test
+	public void testDurationProperty() {
+		AbstractConfigurable c = dummyConfigurable;
+		c.setProperty("plain", "1500");
+		c.setProperty("seconds", "30s");
+		c.setProperty("minutes", "2 M");
+		c.setProperty("days", "1d");
+		c.setProperty("invalid", "soon");
+		assertEquals(1500, c.getPropertyDuration("plain", TimeUnit.MILLISECONDS, 0));
+		assertEquals(30, c.getPropertyDuration("seconds", TimeUnit.SECONDS, 0));
+		assertEquals(120, c.getPropertyDuration("minutes", TimeUnit.SECONDS, 0));
+		assertEquals(24, c.getPropertyDuration("days", TimeUnit.HOURS, 0));
+		assertEquals(5, c.getPropertyDuration("invalid", TimeUnit.SECONDS, 5));
+	}
+
+	@Test
+	public void testChangeListener() throws Exception {
+		CountingConfigurationManager countingManager = new CountingConfigurationManager();
+		countingManager.properties.put("colour", "red");
+		final DummyConfigurable c = new DummyConfigurable(countingManager);
+		BlockingQueue<Set<String>> notifications = addNotificationQueue(c);
+		c.setProperty("colour", "red");
+
+		// holding the lock stops the notification being sent between the changes
+		synchronized (c) {
+			c.setProperty("colour", "green");
+			c.setProperty("size", "large");
+			c.setProperty("colour", "blue");
+		}
+		assertEquals("changes should be delivered together, and setting the same value should not notify",
+				new HashSet<String>(Arrays.asList("colour", "size")), nextNotification(notifications));
+
+		c.edit(new Runnable() {
+			@Override
+			public void run() {
+				c.setProperty("name", "fred");
+				c.deleteProperty("size");
+			}
+		});
+		assertEquals(new HashSet<String>(Arrays.asList("name", "size")),
+				nextNotification(notifications));
+		assertTrue(notifications.isEmpty());
+	}
+
+	@Test
+	public void testPopulateDoesNotStore() throws Exception {
+		CountingConfigurationManager countingManager = new CountingConfigurationManager();
+		countingManager.properties.put("colour", "red");
+		countingManager.properties.put("size", "large");
+		DummyConfigurable c = new DummyConfigurable(countingManager);
+		assertEquals("red", c.getProperty("colour"));
+		c.flush();
+		assertEquals("there should be no stores while loading", 0, countingManager.stores);
+	}
+
+	@Test
+	public void testChangesStoredTogether() throws Exception {
+		CountingConfigurationManager countingManager = new CountingConfigurationManager();
+		DummyConfigurable c = new DummyConfigurable(countingManager);
+		c.setProperty("colour", "red");
+		c.setProperty("colour", "green");
+		c.setProperty("size", "large");
+		assertEquals("changes should not be stored immediately", 0, countingManager.stores);
+		c.flush();
+		assertEquals(1, countingManager.stores);
+		assertEquals("green", countingManager.properties.get("colour"));
+		c.flush();
+		assertEquals("there should be nothing left to store", 1, countingManager.stores);
+
+		c.setProperty("colour", "blue");
+		long deadline = System.currentTimeMillis() + AbstractConfigurable.STORE_DELAY * 10;
+		while (countingManager.stores < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals("changes should be stored after a delay", 2, countingManager.stores);
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		CountingConfigurationManager countingManager = new CountingConfigurationManager();
+		DummyConfigurable c = new DummyConfigurable(countingManager);
+		c.setProperty("colour", "red");
+		AbstractConfigurable.shutdown();
+		assertEquals("pending changes should be stored", 1, countingManager.stores);
+		assertEquals("red", countingManager.properties.get("colour"));
+
+		c.setProperty("colour", "green");
+		long deadline = System.currentTimeMillis() + AbstractConfigurable.STORE_DELAY * 10;
+		while (countingManager.stores < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals("changes after a shutdown should still be stored", 2, countingManager.stores);
+	}
+
+	@Test
+	public void testEdit() throws Exception {
+		CountingConfigurationManager countingManager = new CountingConfigurationManager();
+		final DummyConfigurable c = new DummyConfigurable(countingManager);
+		c.edit(new Runnable() {
+			@Override
+			public void run() {
+				c.setProperty("colour", "red");
+				c.setProperty("size", "large");
+				c.flush();
+			}
+		});
+		assertEquals("edits should not be stored until complete", 0, countingManager.stores);
+		c.flush();
+		assertEquals(1, countingManager.stores);
+
+		try {
+			c.edit(new Runnable() {
+				@Override
+				public void run() {
+					c.setProperty("colour", "green");
+					throw new IllegalStateException();
+				}
+			});
+		} catch (IllegalStateException e) {
+		}
+		assertEquals("failed edit should be rolled back", "red", c.getProperty("colour"));
+		c.flush();
+		assertEquals("failed edit should not be stored", 1, countingManager.stores);
+	}
+
+	@Test
+	public void testLayers() throws Exception {
+		final DummyConfigurable c = new DummyConfigurable(new CountingConfigurationManager());
+		Map<String, String> system = new HashMap<String, String>();
+		system.put("colour", "red");
+		system.put("size", "large");
+		c.setLayerProperties(ConfigurationLayer.SYSTEM, system);
+		Map<String, String> site = new HashMap<String, String>();
+		site.put("colour", "green");
+		c.setLayerProperties(ConfigurationLayer.SITE, site);
+
+		assertEquals("site should override system", "green", c.getProperty("colour"));
+		assertEquals("system should override default", "large", c.getProperty("size"));
+		assertEquals("default should be used", "john", c.getProperty("name"));
+		c.setProperty("colour", "purple");
+		assertEquals("user should override site", "purple", c.getProperty("colour"));
+		c.restoreDefaults();
+		assertEquals("restored default should not override site", "green", c.getProperty("colour"));
+		c.setProperty("colour", "blue");
+		assertEquals("user set to default should override site", "blue", c.getProperty("colour"));
+		assertTrue(c.getUserKeys().contains("colour"));
+		c.restoreDefaults();
+		assertEquals("green", c.getProperty("colour"));
+		c.deleteProperty("size");
+		assertNull("user should be able to delete system property", c.getProperty("size"));
+
+		BlockingQueue<Set<String>> notifications = addNotificationQueue(c);
+		// notifications are delivered in order, so once this one arrives the earlier ones have too
+		c.setProperty("marker", "true");
+		Set<String> changedKeys;
+		do {
+			changedKeys = nextNotification(notifications);
+		} while (!changedKeys.contains("marker"));
+		system.put("colour", "yellow");
+		system.put("size", "small");
+		c.setLayerProperties(ConfigurationLayer.SYSTEM, system);
+		assertEquals("system change should be hidden by site", "green", c.getProperty("colour"));
+		c.setLayerProperties(ConfigurationLayer.SITE, new HashMap<String, String>());
+		assertEquals("yellow", c.getProperty("colour"));
+		assertEquals("only effective changes should be notified",
+				new HashSet<String>(Arrays.asList("colour")), nextNotification(notifications));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testSetUserLayer() throws Exception {
+		dummyConfigurable.setLayerProperties(ConfigurationLayer.USER, new HashMap<String, String>());
+	}
+
 	@Test(expected=UnsupportedOperationException.class)
 	public void testUnmodifiable() throws Exception {
 
@@ -240,4 +471,50 @@ public class AbstractConfigurableTest {
 
 	}
 
+	/**
+	 * Returns a queue that receives the keys of each change notification from the configurable.
+	 */
+	private static BlockingQueue<Set<String>> addNotificationQueue(AbstractConfigurable configurable) {
+		final BlockingQueue<Set<String>> notifications = new LinkedBlockingQueue<Set<String>>();
+		configurable.addChangeListener(new ConfigurationChangeListener() {
+			@Override
+			public void configurationChanged(Configurable configurable, Set<String> changedKeys) {
+				notifications.add(changedKeys);
+			}
+		});
+		return notifications;
+	}
+
+	/**
+	 * Waits for the next change notification.
+	 */
+	private static Set<String> nextNotification(BlockingQueue<Set<String>> notifications)
+			throws InterruptedException {
+		Set<String> changedKeys = notifications.poll(AbstractConfigurable.NOTIFY_DELAY * 50,
+				TimeUnit.MILLISECONDS);
+		assertNotNull("listeners should have been notified", changedKeys);
+		return changedKeys;
+	}
+
+	private static class CountingConfigurationManager implements ConfigurationManager {
+
+		private Map<String, String> properties = new HashMap<String, String>();
+		private volatile int stores;
+
+		@Override
+		public void store(Configurable configurable) throws Exception {
+			properties = new HashMap<String, String>(configurable.getInternalPropertyMap());
+			stores++;
+		}
+
+		@Override
+		public void populate(Configurable configurable) throws Exception {
+			configurable.clear();
+			for (Entry<String, String> entry : properties.entrySet()) {
+				configurable.setProperty(entry.getKey(), entry.getValue());
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration.impl;
+
+import java.io.File;
+
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+
+/**
+ * Watches the config directory and reloads configurables when their config files are changed.
+ */
+class ConfigurationDirectoryWatcher extends FileAlterationListenerAdaptor {
+
+	private final ConfigurationManagerImpl configurationManager;
+
+	private final FileAlterationMonitor monitor;
+
+	ConfigurationDirectoryWatcher(ConfigurationManagerImpl configurationManager, File directory,
+			long interval) {
+		this.configurationManager = configurationManager;
+		FileAlterationObserver observer = new FileAlterationObserver(directory,
+				FileFilterUtils.suffixFileFilter(".config"));
+		observer.addListener(this);
+		monitor = new FileAlterationMonitor(interval);
+		monitor.addObserver(observer);
+	}
+
+	void start() throws Exception {
+		monitor.start();
+	}
+
+	void stop() throws Exception {
+		monitor.stop();
+	}
+
+	@Override
+	public void onFileCreate(File file) {
+		configurationManager.reload(file);
+	}
+
+	@Override
+	public void onFileChange(File file) {
+		configurationManager.reload(file);
+	}
+
+	@Override
+	public void onFileDelete(File file) {
+		configurationManager.reload(file);
+	}
+
+}
@@ -16,29 +16,101 @@
  */
 package org.apache.taverna.configuration.impl;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 import org.apache.log4j.Logger;
+import org.apache.taverna.configuration.AbstractConfigurable;
 import org.apache.taverna.configuration.Configurable;
+import org.apache.taverna.configuration.ConfigurationChangeListener;
+import org.apache.taverna.configuration.ConfigurationLayer;
 import org.apache.taverna.configuration.ConfigurationManager;
 import org.apache.taverna.configuration.app.ApplicationConfiguration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
 
 /**
  * Handles the configuration for a {@link Configurable} object
+ * <p>
+ * Configuration files are written to a temporary file that is moved over the previous file, so a
+ * crash while storing leaves either the old or the new configuration. A CRC32 checksum is written
+ * as a comment on the last line of each file. A file whose checksum doesn't match is moved aside
+ * to <code>.corrupt</code> and the defaults are used. Files without a checksum line, e.g. edited
+ * by hand, are read as they are.
+ * <p>
+ * Changes to configurables are posted to the {@link EventAdmin}, if there is one, as
+ * {@link ConfigurationManager#CONFIGURATION_CHANGED} events.
+ * <p>
+ * Once started, the config directory is watched for files changed by other tools. The
+ * configurable for a changed file is reloaded, unless the file content is the same as when this
+ * manager last read or wrote it.
+ * <p>
+ * Config files with the same name in the system config directory, by default the
+ * <code>conf</code> directory of the installation, and the site config directory are read into the
+ * {@link ConfigurationLayer#SYSTEM} and {@link ConfigurationLayer#SITE} layers of an
+ * {@link AbstractConfigurable}. These files are only read, and are not watched.
  *
  * @author Ian Dunlop
  * @author Stuart Owen
  */
-public class ConfigurationManagerImpl implements ConfigurationManager {
+public class ConfigurationManagerImpl implements ConfigurationManager, ConfigurationChangeListener {
 
 	private static final Logger logger = Logger.getLogger(ConfigurationManagerImpl.class);
 
+	private static final String CHECKSUM_PREFIX = "#CRC32=";
+
+	/**
+	 * When configuration files are forced to disk.
+	 */
+	public enum FsyncPolicy {
+		/** Leave writing to disk to the operating system. */
+		NEVER,
+		/** Force the file contents to disk before moving it into place. */
+		FILE,
+		/** Also force the directory to disk after the move, so the move itself is durable. */
+		ALWAYS
+	}
+
 	private File baseConfigLocation;
 
+	private File systemConfigLocation;
+
+	private File siteConfigLocation;
+
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.FILE;
+
+	private volatile EventAdmin eventAdmin;
+
+	private long watchInterval = 10000;
+
+	private ConfigurationDirectoryWatcher directoryWatcher;
+
+	/** The configurables populated from each config file. */
+	private final Map<String, Configurable> configurables = new ConcurrentHashMap<String, Configurable>();
+
+	/** SHA-256 hashes of config file contents when they were last read or written. */
+	private final Map<String, byte[]> contentHashes = new ConcurrentHashMap<String, byte[]>();
+
 	public ConfigurationManagerImpl(ApplicationConfiguration applicationConfiguration) {
 		File home = applicationConfiguration.getApplicationHomeDir().toFile();
 		File config = new File(home,"conf");
@@ -46,13 +118,20 @@ public class ConfigurationManagerImpl implements ConfigurationManager {
 			config.mkdir();
 		}
 		setBaseConfigLocation(config);
+		Path startupDir = applicationConfiguration.getStartupDir();
+		if (startupDir != null) {
+			File systemConfig = startupDir.resolve(ApplicationConfiguration.CONF_DIR).toFile();
+			if (!systemConfig.getAbsoluteFile().equals(config.getAbsoluteFile())) {
+				setSystemConfigLocation(systemConfig);
+			}
+		}
 	}
 
 	/**
 	 * Write out the properties configuration to disk based on the UUID of the
 	 * {@link Configurable}
 	 * <br>
-	 * Default values are not stored within the file, but only those that have been changed or deleted.
+	 * Default values are not stored within the file, but only those that have been set, changed or deleted.
 	 *
 	 * @param configurable
 	 * @throws Exception
@@ -60,26 +139,49 @@ public class ConfigurationManagerImpl implements ConfigurationManager {
 	@Override
 	public void store(Configurable configurable) throws Exception {
 		try {
-
-			Map<String, String> propertyMap = configurable.getInternalPropertyMap();
 			Properties props = new Properties();
-		    for (String key : propertyMap.keySet()) {
-		    	if (!propertyMap.get(key).equals(configurable.getDefaultProperty(key))) {
-		    		props.put(key, propertyMap.get(key));
-		    	}
-		    }
+			props.putAll(getStoredProperties(configurable));
 			File configFile = new File(baseConfigLocation,generateFilename(configurable));
 			logger.info("Storing configuration for "+configurable.getFilePrefix()+" to "+configFile.getAbsolutePath());
-			props.store(new FileOutputStream(configFile), "");
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			props.store(content, "");
+			byte[] fileContent = addChecksum(content.toByteArray());
+			// record the hash first, so the directory watcher ignores this write
+			contentHashes.put(configFile.getName(), hash(fileContent));
+			write(configFile.toPath(), fileContent);
 		} catch (Exception e) {
 			throw new Exception("Configuration storage failed: " + e);
 		}
 	}
 
-
+	/**
+	 * Returns the properties of the configurable that are stored, which are those that don't have
+	 * their default value, and those that have been set to their default value so that they
+	 * override the system and site properties.
+	 */
+	protected Map<String, String> getStoredProperties(Configurable configurable) {
+		Map<String, String> storedProperties = new HashMap<String, String>();
+		synchronized (configurable) {
+			Set<String> userKeys = Collections.emptySet();
+			if (configurable instanceof AbstractConfigurable) {
+				userKeys = ((AbstractConfigurable) configurable).getUserKeys();
+			}
+			Map<String, String> propertyMap = configurable.getInternalPropertyMap();
+			for (String key : propertyMap.keySet()) {
+				if (userKeys.contains(key)
+						|| !propertyMap.get(key).equals(configurable.getDefaultProperty(key))) {
+					storedProperties.put(key, propertyMap.get(key));
+				}
+			}
+		}
+		return storedProperties;
+	}
 
 	/**
 	 * Loads the configuration details from disk or from memory and populates the provided Configurable
+	 * <br>
+	 * The properties are set directly in the internal property map, so loading doesn't cause the
+	 * configuration to be stored again.
 	 *
 	 * @param configurable
 	 * @return
@@ -90,31 +192,370 @@ public class ConfigurationManagerImpl implements ConfigurationManager {
 	public void populate(Configurable configurable)
 			throws Exception {
 		try {
+			populateLayers(configurable);
 			File configFile = new File(baseConfigLocation,generateFilename(configurable));
+			configurables.put(configFile.getName(), configurable);
 			if (configFile.exists()) {
-				Properties props = new Properties();
-				props.load(new FileInputStream(configFile));
-				configurable.clear();
-				for (Object key : props.keySet()) {
-					configurable.setProperty(key.toString(), props.getProperty(key.toString()));
-				}
+				setProperties(configurable, readProperties(configFile));
 			}
 			else {
-				logger.info("Config file for "+configurable.getFilePrefix()+" not yet created. Creating with default values.");
-				configurable.restoreDefaults();
-				store(configurable);
+				logger.info("Config file for "+configurable.getFilePrefix()+" not yet created. Using default values.");
+				setDefaults(configurable);
 			}
 
 		} catch (Exception e) {
 			logger.error("There was a error reading the configuration file for "+configurable.getFilePrefix()+", using defaults",e);
-			configurable.restoreDefaults();
+			setDefaults(configurable);
+		}
+	}
+
+	/**
+	 * Sets the system and site layers of the configurable from the config files in the system and
+	 * site config directories.
+	 */
+	protected void populateLayers(Configurable configurable) {
+		if (configurable instanceof AbstractConfigurable) {
+			AbstractConfigurable abstractConfigurable = (AbstractConfigurable) configurable;
+			abstractConfigurable.setLayerProperties(ConfigurationLayer.SYSTEM,
+					readLayer(systemConfigLocation, configurable));
+			abstractConfigurable.setLayerProperties(ConfigurationLayer.SITE,
+					readLayer(siteConfigLocation, configurable));
+		}
+	}
+
+	/**
+	 * Reads the properties for the configurable from a config file in a layer directory. The
+	 * directory may be shared or read only, so a corrupt file is ignored rather than moved aside.
+	 */
+	private Map<String, String> readLayer(File configLocation, Configurable configurable) {
+		Map<String, String> properties = new HashMap<String, String>();
+		if (configLocation != null) {
+			File configFile = new File(configLocation, generateFilename(configurable));
+			if (configFile.isFile()) {
+				try {
+					byte[] content = Files.readAllBytes(configFile.toPath());
+					if (isChecksumValid(content)) {
+						Properties props = new Properties();
+						props.load(new ByteArrayInputStream(content));
+						for (String key : props.stringPropertyNames()) {
+							properties.put(key, props.getProperty(key));
+						}
+					} else {
+						logger.warn(String.format("Checksum of %1$s does not match, ignoring it", configFile));
+					}
+				} catch (IOException e) {
+					logger.error("There was a error reading the configuration file "+configFile,e);
+				}
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Reloads the configurable for a config file that has been changed outside of this
+	 * configuration manager.
+	 * <p>
+	 * Nothing is reloaded if no configurable has been populated from the file, or if the file
+	 * content is the same as when it was last read or written. Only properties whose values have
+	 * changed are updated, so listeners are only told about those properties. If the file has been
+	 * deleted the defaults are used.
+	 * <p>
+	 * If the configurable has changes that have not been stored yet the file is not reloaded, as
+	 * that would lose the changes; the file is overwritten when the changes are stored.
+	 *
+	 * @param configFile
+	 *            the config file that has changed
+	 */
+	void reload(File configFile) {
+		Configurable configurable = configurables.get(configFile.getName());
+		if (configurable == null) {
+			return;
+		}
+		// holding the lock stops changes being made between checking for them and reloading
+		synchronized (configurable) {
+			try {
+				if (configFile.exists()) {
+					byte[] hash = contentHashes.get(configFile.getName());
+					if (hash != null && Arrays.equals(hash, hash(Files.readAllBytes(configFile.toPath())))) {
+						return;
+					}
+					if (isModified(configurable)) {
+						logger.warn("Not reloading configuration for "+configurable.getFilePrefix()+" from "+configFile.getAbsolutePath()+" as it has changes that have not been stored");
+						return;
+					}
+					logger.info("Reloading configuration for "+configurable.getFilePrefix()+" from "+configFile.getAbsolutePath());
+					setProperties(configurable, readProperties(configFile));
+				} else if (contentHashes.remove(configFile.getName()) != null) {
+					if (isModified(configurable)) {
+						logger.warn("Config file for "+configurable.getFilePrefix()+" deleted, but not using default values as it has changes that have not been stored");
+						return;
+					}
+					logger.info("Config file for "+configurable.getFilePrefix()+" deleted. Using default values.");
+					setDefaults(configurable);
+				}
+			} catch (IOException e) {
+				logger.error("There was a error reloading the configuration file for "+configurable.getFilePrefix(),e);
+			}
+		}
+	}
+
+	private static boolean isModified(Configurable configurable) {
+		return configurable instanceof AbstractConfigurable
+				&& ((AbstractConfigurable) configurable).isModified();
+	}
+
+	/**
+	 * Returns the default properties of the configurable overridden by the stored properties, as
+	 * default values are not stored.
+	 */
+	private Map<String, String> withDefaults(Configurable configurable,
+			Map<String, String> storedProperties) {
+		Map<String, String> properties = new HashMap<String, String>(configurable.getDefaultPropertyMap());
+		properties.putAll(storedProperties);
+		return properties;
+	}
+
+	/**
+	 * Reads the properties from a config file, recording the hash of its content. A file whose
+	 * checksum doesn't match is moved aside.
+	 */
+	protected Map<String, String> readProperties(File configFile) throws IOException {
+		byte[] content = Files.readAllBytes(configFile.toPath());
+		if (!isChecksumValid(content)) {
+			Path corruptFile = configFile.toPath().resolveSibling(configFile.getName() + ".corrupt");
+			Files.move(configFile.toPath(), corruptFile, StandardCopyOption.REPLACE_EXISTING);
+			contentHashes.remove(configFile.getName());
+			throw new IOException(String.format("Checksum of %1$s does not match, moved to %2$s",
+					configFile, corruptFile));
+		}
+		contentHashes.put(configFile.getName(), hash(content));
+		Properties props = new Properties();
+		props.load(new ByteArrayInputStream(content));
+		Map<String, String> properties = new HashMap<String, String>();
+		for (String key : props.stringPropertyNames()) {
+			properties.put(key, props.getProperty(key));
+		}
+		return properties;
+	}
+
+	/**
+	 * Changes the internal properties of the configurable to its defaults overridden by the stored
+	 * properties, only changing properties whose values are different. The stored properties are
+	 * recorded as having been set, so they override the system and site properties even if they
+	 * have their default values.
+	 */
+	protected void setProperties(Configurable configurable, Map<String, String> storedProperties) {
+		Map<String, String> properties = withDefaults(configurable, storedProperties);
+		synchronized (configurable) {
+			Map<String, String> propertyMap = configurable.getInternalPropertyMap();
+			propertyMap.keySet().retainAll(properties.keySet());
+			propertyMap.putAll(properties);
+			if (configurable instanceof AbstractConfigurable) {
+				((AbstractConfigurable) configurable).setUserKeys(storedProperties.keySet());
+			}
+		}
+	}
+
+	private static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the content followed by a checksum line.
+	 */
+	private static byte[] addChecksum(byte[] content) {
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		byte[] checksumLine = String.format("%1$s%2$08x\n", CHECKSUM_PREFIX, checksum.getValue())
+				.getBytes(ISO_8859_1);
+		byte[] fileContent = Arrays.copyOf(content, content.length + checksumLine.length);
+		System.arraycopy(checksumLine, 0, fileContent, content.length, checksumLine.length);
+		return fileContent;
+	}
+
+	/**
+	 * Writes the content to a temporary file, and moves it over the file, forcing it to disk as
+	 * set by the {@link FsyncPolicy}.
+	 */
+	protected void write(Path file, byte[] content) throws IOException {
+		Path tempFile = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (fsyncPolicy != FsyncPolicy.NEVER) {
+					channel.force(true);
+				}
+			}
+			Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+				try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+					directory.force(true);
+				} catch (IOException e) {
+					// not all platforms can force a directory to disk
+					logger.debug("Unable to force " + file.getParent() + " to disk", e);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Returns false if the content ends with a checksum line that doesn't match the content before
+	 * it.
+	 */
+	static boolean isChecksumValid(byte[] content) {
+		int end = content.length;
+		while (end > 0 && (content[end - 1] == '\n' || content[end - 1] == '\r')) {
+			end--;
 		}
+		int lineStart = end;
+		while (lineStart > 0 && content[lineStart - 1] != '\n' && content[lineStart - 1] != '\r') {
+			lineStart--;
+		}
+		String lastLine = new String(content, lineStart, end - lineStart, ISO_8859_1);
+		if (!lastLine.startsWith(CHECKSUM_PREFIX)) {
+			return true;
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(content, 0, lineStart);
+		return String.format("%1$08x", checksum.getValue()).equalsIgnoreCase(
+				lastLine.substring(CHECKSUM_PREFIX.length()).trim());
+	}
+
+	protected void setDefaults(Configurable configurable) {
+		setProperties(configurable, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Starts watching the config directory for changes made outside of this configuration
+	 * manager.
+	 */
+	public void start() {
+		if (watchInterval > 0 && directoryWatcher == null) {
+			directoryWatcher = new ConfigurationDirectoryWatcher(this, baseConfigLocation, watchInterval);
+			try {
+				directoryWatcher.start();
+			} catch (Exception e) {
+				logger.warn("Error watching configuration directory " + baseConfigLocation, e);
+				directoryWatcher = null;
+			}
+		}
+	}
+
+	/**
+	 * Stops watching the config directory, stores any pending configuration changes and stops the
+	 * thread that stores them.
+	 */
+	public void stop() {
+		if (directoryWatcher != null) {
+			try {
+				directoryWatcher.stop();
+			} catch (Exception e) {
+				logger.warn("Error stopping watch on configuration directory " + baseConfigLocation, e);
+			}
+			directoryWatcher = null;
+		}
+		AbstractConfigurable.shutdown();
+	}
+
+	/**
+	 * Sets how often, in milliseconds, the config directory is checked for changes. If the
+	 * interval is zero the directory is not watched.
+	 *
+	 * @param watchInterval
+	 *            milliseconds between checks for changes
+	 */
+	public void setWatchInterval(long watchInterval) {
+		this.watchInterval = watchInterval;
 	}
 
 	protected String generateFilename(Configurable configurable) {
 		return configurable.getFilePrefix()+"-"+configurable.getUUID() + ".config";
 	}
 
+	@Override
+	public void configurationChanged(Configurable configurable, Set<String> changedKeys) {
+		EventAdmin eventAdmin = this.eventAdmin;
+		if (eventAdmin != null) {
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put(CONFIGURABLE_UUID, configurable.getUUID());
+			properties.put(CHANGED_KEYS, changedKeys);
+			eventAdmin.postEvent(new Event(CONFIGURATION_CHANGED, properties));
+		}
+	}
+
+	/**
+	 * Sets the event admin that changes to configurables are posted to.
+	 * <p>
+	 * The event admin service is optional, so this is called when the service is bound rather than
+	 * injected, as an unbound optional service proxy waits for a service before failing.
+	 *
+	 * @param eventAdmin
+	 *            the event admin
+	 */
+	public void setEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = eventAdmin;
+	}
+
+	/**
+	 * Stops posting changes when the event admin service is unbound.
+	 */
+	public void unsetEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = null;
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/**
+	 * Sets when configuration files are forced to disk. The default is {@link FsyncPolicy#FILE}.
+	 *
+	 * @param fsyncPolicy
+	 *            when configuration files are forced to disk
+	 */
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	public File getSystemConfigLocation() {
+		return systemConfigLocation;
+	}
+
+	/**
+	 * Sets the directory of config files for all users of the installation.
+	 *
+	 * @param systemConfigLocation
+	 *            the system config directory, or <code>null</code> for no system layer
+	 */
+	public void setSystemConfigLocation(File systemConfigLocation) {
+		this.systemConfigLocation = systemConfigLocation;
+	}
+
+	public File getSiteConfigLocation() {
+		return siteConfigLocation;
+	}
+
+	/**
+	 * Sets the directory of config files shared by the installations at a site, e.g. on a
+	 * network file system.
+	 *
+	 * @param siteConfigLocation
+	 *            the site config directory, or <code>null</code> for no site layer
+	 */
+	public void setSiteConfigLocation(File siteConfigLocation) {
+		this.siteConfigLocation = siteConfigLocation;
+	}
+
 	public boolean isBaseLocationSet() {
 		return baseConfigLocation!=null;
 	}
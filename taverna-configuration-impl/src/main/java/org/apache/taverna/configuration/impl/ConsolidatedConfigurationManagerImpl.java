@@ -0,0 +1,324 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.apache.taverna.configuration.Configurable;
+import org.apache.taverna.configuration.app.ApplicationConfiguration;
+
+/**
+ * Handles the configuration for {@link Configurable} objects, keeping the configuration of all the
+ * configurables in a single store file.
+ * <p>
+ * The store is read once, when the first configurable is populated, and is rewritten atomically
+ * whenever a configurable is stored. Several configurables can be stored together with
+ * {@link #store(Collection)}, so either all or none of the changes are written; see that method
+ * for how to use it.
+ * <p>
+ * The store file is binary: a header, the number of configurables, then for each configurable
+ * its name and its stored properties, followed by a CRC32 checksum of everything before it. A
+ * store whose checksum doesn't match is moved aside to <code>.corrupt</code> and the defaults are
+ * used.
+ * <p>
+ * If there is no store file when it is first read, any <code>.config</code> files written by
+ * {@link ConfigurationManagerImpl} are imported into it and renamed to
+ * <code>.config.migrated</code>.
+ * <p>
+ * As the store is not meant to be edited by hand, the config directory is not watched for
+ * changes. The system and site layers are still read from config files.
+ */
+public class ConsolidatedConfigurationManagerImpl extends ConfigurationManagerImpl {
+
+	private static final Logger logger = Logger.getLogger(ConsolidatedConfigurationManagerImpl.class);
+
+	static final String STORE_FILE_NAME = "configuration.store";
+
+	static final String MIGRATED_SUFFIX = ".migrated";
+
+	private static final int MAGIC = 0x54435346;
+
+	private static final int VERSION = 1;
+
+	/** The stored properties of each configurable, or <code>null</code> if not yet read. */
+	private Map<String, Map<String, String>> storedProperties;
+
+	public ConsolidatedConfigurationManagerImpl(ApplicationConfiguration applicationConfiguration) {
+		super(applicationConfiguration);
+	}
+
+	/**
+	 * Write out the configuration of the configurable to the store file.
+	 * <br>
+	 * Default values are not stored, but only those that have been changed or deleted.
+	 *
+	 * @param configurable
+	 * @throws Exception
+	 */
+	@Override
+	public void store(Configurable configurable) throws Exception {
+		store(Collections.singleton(configurable));
+	}
+
+	/**
+	 * Writes out the configuration of the configurables to the store file in a single atomic
+	 * write, so either the changes to all of the configurables are stored or none are.
+	 * <p>
+	 * Configurables store themselves one at a time, some time after they change. Code that
+	 * changes settings which must stay consistent across several configurables, such as applying
+	 * a preferences dialog, makes its changes and then calls this method with those
+	 * configurables, so a crash can't leave only some of the changes stored. The configurables'
+	 * own delayed stores then write the same values again.
+	 * <p>
+	 * The properties of each configurable are copied while holding that configurable's lock, and
+	 * before taking this manager's lock, as a configurable holds its own lock while it stores
+	 * itself.
+	 *
+	 * @param configurables
+	 *            the configurables to store
+	 * @throws Exception
+	 *             if the store can't be written
+	 */
+	public void store(Collection<? extends Configurable> configurables) throws Exception {
+		Map<String, Map<String, String>> changedProperties = new HashMap<String, Map<String, String>>();
+		for (Configurable configurable : configurables) {
+			changedProperties.put(generateName(configurable), getStoredProperties(configurable));
+		}
+		synchronized (this) {
+			try {
+				Map<String, Map<String, String>> properties = new TreeMap<String, Map<String, String>>(
+						getStoredProperties());
+				properties.putAll(changedProperties);
+				File storeFile = getStoreFile();
+				logger.info("Storing configuration for " + configurables.size()
+						+ " configurables to " + storeFile.getAbsolutePath());
+				write(storeFile.toPath(), encode(properties));
+				storedProperties = properties;
+			} catch (Exception e) {
+				throw new Exception("Configuration storage failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Populates the configurable with its properties from the store, or with its defaults if it
+	 * has not been stored.
+	 *
+	 * @param configurable
+	 * @throws Exception
+	 */
+	@Override
+	public void populate(Configurable configurable) throws Exception {
+		populateLayers(configurable);
+		Map<String, String> properties;
+		try {
+			properties = getStoredProperties().get(generateName(configurable));
+		} catch (Exception e) {
+			logger.error("There was a error reading the configuration store for "
+					+ configurable.getFilePrefix() + ", using defaults", e);
+			properties = null;
+		}
+		if (properties == null) {
+			logger.info("Configuration for " + configurable.getFilePrefix()
+					+ " not yet stored. Using default values.");
+			setDefaults(configurable);
+		} else {
+			setProperties(configurable, properties);
+		}
+	}
+
+	/**
+	 * The store is not watched for changes, so does nothing.
+	 */
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	File getStoreFile() throws Exception {
+		return new File(getBaseConfigLocation(), STORE_FILE_NAME);
+	}
+
+	/**
+	 * Returns the stored properties of all configurables, reading the store file, or migrating
+	 * the config files, the first time it is called.
+	 */
+	private synchronized Map<String, Map<String, String>> getStoredProperties() throws Exception {
+		if (storedProperties == null) {
+			File storeFile = getStoreFile();
+			if (storeFile.exists()) {
+				storedProperties = read(storeFile);
+			} else {
+				storedProperties = migrate();
+			}
+		}
+		return storedProperties;
+	}
+
+	/**
+	 * Reads the store file. A file whose checksum doesn't match is moved aside and an empty store
+	 * is returned.
+	 */
+	private Map<String, Map<String, String>> read(File storeFile) throws IOException {
+		byte[] content = Files.readAllBytes(storeFile.toPath());
+		try {
+			return decode(content);
+		} catch (IOException e) {
+			Path corruptFile = storeFile.toPath().resolveSibling(storeFile.getName() + ".corrupt");
+			Files.move(storeFile.toPath(), corruptFile, StandardCopyOption.REPLACE_EXISTING);
+			logger.error(String.format("Configuration store %1$s is corrupt, moved to %2$s",
+					storeFile, corruptFile), e);
+			return new TreeMap<String, Map<String, String>>();
+		}
+	}
+
+	/**
+	 * Imports the config files in the config directory into a new store file, and renames the
+	 * config files so they are not imported again.
+	 */
+	private Map<String, Map<String, String>> migrate() throws Exception {
+		Map<String, Map<String, String>> properties = new TreeMap<String, Map<String, String>>();
+		File[] configFiles = getBaseConfigLocation().listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(".config");
+			}
+		});
+		if (configFiles == null || configFiles.length == 0) {
+			return properties;
+		}
+		for (File configFile : configFiles) {
+			String name = configFile.getName();
+			try {
+				properties.put(name.substring(0, name.length() - ".config".length()),
+						readProperties(configFile));
+			} catch (IOException e) {
+				logger.error("There was a error migrating the configuration file " + configFile, e);
+			}
+		}
+		File storeFile = getStoreFile();
+		logger.info("Migrating " + properties.size() + " configuration files to "
+				+ storeFile.getAbsolutePath());
+		write(storeFile.toPath(), encode(properties));
+		for (File configFile : configFiles) {
+			if (configFile.exists()) {
+				Files.move(configFile.toPath(),
+						configFile.toPath().resolveSibling(configFile.getName() + MIGRATED_SUFFIX),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		return properties;
+	}
+
+	private String generateName(Configurable configurable) {
+		return configurable.getFilePrefix() + "-" + configurable.getUUID();
+	}
+
+	static byte[] encode(Map<String, Map<String, String>> properties) throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(content);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(properties.size());
+		for (Map.Entry<String, Map<String, String>> configurable : properties.entrySet()) {
+			writeString(out, configurable.getKey());
+			out.writeInt(configurable.getValue().size());
+			for (Map.Entry<String, String> property : configurable.getValue().entrySet()) {
+				writeString(out, property.getKey());
+				writeString(out, property.getValue());
+			}
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(content.toByteArray());
+		out.writeLong(checksum.getValue());
+		out.flush();
+		return content.toByteArray();
+	}
+
+	static Map<String, Map<String, String>> decode(byte[] content) throws IOException {
+		if (content.length < 8) {
+			throw new IOException("Configuration store is truncated");
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(content, 0, content.length - 8);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a configuration store");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported configuration store version %1$d",
+					version));
+		}
+		DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(
+				Arrays.copyOfRange(content, content.length - 8, content.length)));
+		if (trailer.readLong() != checksum.getValue()) {
+			throw new IOException("Configuration store checksum does not match");
+		}
+		Map<String, Map<String, String>> properties = new TreeMap<String, Map<String, String>>();
+		int configurables = in.readInt();
+		for (int i = 0; i < configurables; i++) {
+			String name = readString(in);
+			int size = in.readInt();
+			Map<String, String> configurableProperties = new HashMap<String, String>();
+			for (int j = 0; j < size; j++) {
+				configurableProperties.put(readString(in), readString(in));
+			}
+			properties.put(name, configurableProperties);
+		}
+		return properties;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) {
+			throw new IOException("Configuration store is truncated");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+}
@@ -16,13 +16,17 @@
  */
 package org.apache.taverna.configuration.proxy.impl;
 
+import java.net.ProxySelector;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 //import org.apache.axis.AxisProperties;
 import org.apache.log4j.Logger;
 import org.apache.taverna.configuration.AbstractConfigurable;
+import org.apache.taverna.configuration.Configurable;
+import org.apache.taverna.configuration.ConfigurationChangeListener;
 import org.apache.taverna.configuration.ConfigurationManager;
 import org.apache.taverna.configuration.proxy.HttpProxyConfiguration;
 
@@ -45,15 +49,24 @@ public class HttpProxyConfigurationImpl extends AbstractConfigurable implements
 	 */
 	private Properties originalSystemSettings;
 
+	private final HttpProxySelector proxySelector = new HttpProxySelector();
+
 	private static Logger logger = Logger.getLogger(HttpProxyConfigurationImpl.class);
 
 	/**
 	 * Read the original System settings. Read the configuration file and set
-	 * the proxy settings accordingly.
+	 * the proxy settings accordingly. The proxy settings are changed again
+	 * whenever the configuration changes.
 	 */
 	private HttpProxyConfigurationImpl(ConfigurationManager configurationManager) {
 		super(configurationManager);
 		changeProxySettings();
+		addChangeListener(new ConfigurationChangeListener() {
+			@Override
+			public void configurationChanged(Configurable configurable, Set<String> changedKeys) {
+				changeProxySettings();
+			}
+		});
 	}
 
 	/**
@@ -93,12 +106,19 @@ public class HttpProxyConfigurationImpl extends AbstractConfigurable implements
 			changeSystemProperty(PROXY_PASSWORD, getProperty(TAVERNA_PROXY_PASSWORD));
 			changeSystemProperty(NON_PROXY_HOSTS, getProperty(TAVERNA_NON_PROXY_HOSTS));
 		}
+		proxySelector.configure(System.getProperty(PROXY_HOST), System.getProperty(PROXY_PORT),
+				System.getProperty(NON_PROXY_HOSTS));
 		logger.info(PROXY_HOST + " is " + System.getProperty(PROXY_HOST));
 		logger.info(PROXY_PORT + " is " + System.getProperty(PROXY_PORT));
 		logger.info(PROXY_USER + " is " + System.getProperty(PROXY_USER));
 		logger.info(NON_PROXY_HOSTS + " is " + System.getProperty(NON_PROXY_HOSTS));
 	}
 
+	@Override
+	public ProxySelector getProxySelector() {
+		return proxySelector;
+	}
+
 	/**
 	 * Change the specified System property to the given value. If the value is
 	 * null then the property is cleared.
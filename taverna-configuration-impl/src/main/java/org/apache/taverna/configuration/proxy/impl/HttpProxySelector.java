@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration.proxy.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ProxySelector} for the HTTP proxy configuration.
+ * <p>
+ * The non-proxy hosts, in the format of the <code>http.nonProxyHosts</code> system property, are
+ * compiled when the selector is configured: hosts are found in a hash set, patterns starting with
+ * a <code>*</code> in a trie of reversed host names, and patterns ending with a <code>*</code> in
+ * a trie of host names. Selecting a proxy is then a single pass over the host name.
+ * <p>
+ * Only <code>http</code> URIs use the configured proxy, as with the <code>http.proxyHost</code>
+ * system property. Other URIs are passed to the default {@link ProxySelector}.
+ */
+class HttpProxySelector extends ProxySelector {
+
+	private static final Logger logger = Logger.getLogger(HttpProxySelector.class);
+
+	/** The non-proxy hosts used by the JDK when <code>http.nonProxyHosts</code> is not set. */
+	static final String DEFAULT_NON_PROXY_HOSTS = "localhost|127.*|[::1]|0.0.0.0|[::0]";
+
+	private static final List<Proxy> NO_PROXY = Collections.singletonList(Proxy.NO_PROXY);
+
+	private volatile Settings settings = new Settings(NO_PROXY, new NonProxyHosts(""));
+
+	/**
+	 * Sets the proxy to use for <code>http</code> URIs.
+	 *
+	 * @param host
+	 *            the proxy host, or <code>null</code> or empty for no proxy
+	 * @param port
+	 *            the proxy port, which is 80 if <code>null</code> or not a number
+	 * @param nonProxyHosts
+	 *            the hosts to connect to directly, separated by <code>|</code>
+	 */
+	void configure(String host, String port, String nonProxyHosts) {
+		List<Proxy> proxies = NO_PROXY;
+		if (host != null && !host.trim().isEmpty()) {
+			int portNumber = 80;
+			if (port != null && !port.trim().isEmpty()) {
+				try {
+					portNumber = Integer.parseInt(port.trim());
+				} catch (NumberFormatException e) {
+					logger.warn(String.format("Invalid proxy port %1$s, using %2$d", port, portNumber));
+				}
+			}
+			proxies = Collections.singletonList(new Proxy(Proxy.Type.HTTP,
+					InetSocketAddress.createUnresolved(host.trim(), portNumber)));
+		}
+		if (nonProxyHosts == null || nonProxyHosts.trim().isEmpty()) {
+			nonProxyHosts = DEFAULT_NON_PROXY_HOSTS;
+		}
+		settings = new Settings(proxies, new NonProxyHosts(nonProxyHosts));
+	}
+
+	@Override
+	public List<Proxy> select(URI uri) {
+		if (uri == null) {
+			throw new IllegalArgumentException("URI can't be null");
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme())) {
+			ProxySelector defaultSelector = ProxySelector.getDefault();
+			if (defaultSelector == null || defaultSelector == this) {
+				return NO_PROXY;
+			}
+			return defaultSelector.select(uri);
+		}
+		Settings settings = this.settings;
+		String host = uri.getHost();
+		if (settings.proxies == NO_PROXY || host == null || settings.nonProxyHosts.matches(host)) {
+			return NO_PROXY;
+		}
+		return settings.proxies;
+	}
+
+	@Override
+	public void connectFailed(URI uri, SocketAddress address, IOException e) {
+		logger.warn(String.format("Connection to proxy %1$s for %2$s failed", address, uri), e);
+	}
+
+	/**
+	 * The proxies and non-proxy hosts, which are replaced together.
+	 */
+	private static class Settings {
+
+		private final List<Proxy> proxies;
+		private final NonProxyHosts nonProxyHosts;
+
+		Settings(List<Proxy> proxies, NonProxyHosts nonProxyHosts) {
+			this.proxies = proxies;
+			this.nonProxyHosts = nonProxyHosts;
+		}
+
+	}
+
+	/**
+	 * Compiled non-proxy host patterns.
+	 */
+	static class NonProxyHosts {
+
+		private final Set<String> hosts = new HashSet<String>();
+		private final Trie suffixes = new Trie();
+		private final Trie prefixes = new Trie();
+		/** Patterns with a <code>*</code> in the middle, or <code>null</code> if there are none. */
+		private Pattern otherPatterns;
+		private boolean matchAll;
+
+		NonProxyHosts(String nonProxyHosts) {
+			List<String> others = new ArrayList<String>();
+			for (String pattern : nonProxyHosts.split("\\|")) {
+				pattern = pattern.trim().toLowerCase(Locale.ROOT);
+				int wildcard = pattern.indexOf('*');
+				if (pattern.isEmpty()) {
+					continue;
+				} else if (pattern.equals("*")) {
+					matchAll = true;
+				} else if (wildcard < 0) {
+					hosts.add(pattern);
+				} else if (wildcard == 0 && pattern.indexOf('*', 1) < 0) {
+					suffixes.add(pattern.substring(1), true);
+				} else if (wildcard == pattern.length() - 1) {
+					prefixes.add(pattern.substring(0, wildcard), false);
+				} else {
+					StringBuilder regex = new StringBuilder();
+					for (String part : pattern.split("\\*", -1)) {
+						if (regex.length() > 0) {
+							regex.append(".*");
+						}
+						regex.append(Pattern.quote(part));
+					}
+					others.add(regex.toString());
+				}
+			}
+			if (!others.isEmpty()) {
+				StringBuilder regex = new StringBuilder();
+				for (String other : others) {
+					if (regex.length() > 0) {
+						regex.append('|');
+					}
+					regex.append("(?:").append(other).append(')');
+				}
+				otherPatterns = Pattern.compile(regex.toString());
+			}
+		}
+
+		boolean matches(String host) {
+			if (matchAll) {
+				return true;
+			}
+			host = host.toLowerCase(Locale.ROOT);
+			return hosts.contains(host) || suffixes.matches(host, true)
+					|| prefixes.matches(host, false)
+					|| (otherPatterns != null && otherPatterns.matcher(host).matches());
+		}
+
+	}
+
+	/**
+	 * A character trie of host name prefixes, or of reversed host name suffixes.
+	 */
+	private static class Trie {
+
+		private final Map<Character, Trie> children = new HashMap<Character, Trie>();
+		private boolean terminal;
+
+		void add(String value, boolean reversed) {
+			Trie node = this;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(reversed ? value.length() - 1 - i : i);
+				Trie child = node.children.get(c);
+				if (child == null) {
+					child = new Trie();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+			node.terminal = true;
+		}
+
+		/**
+		 * Returns true if a value in the trie is a prefix, or if reversed a suffix, of the host.
+		 */
+		boolean matches(String host, boolean reversed) {
+			Trie node = this;
+			for (int i = 0; i < host.length() && !node.terminal; i++) {
+				node = node.children.get(host.charAt(reversed ? host.length() - 1 - i : i));
+				if (node == null) {
+					return false;
+				}
+			}
+			return node.terminal;
+		}
+
+	}
+
+}
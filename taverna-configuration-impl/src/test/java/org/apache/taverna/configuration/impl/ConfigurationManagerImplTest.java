@@ -18,22 +18,33 @@ package org.apache.taverna.configuration.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.taverna.configuration.AbstractConfigurable;
 import org.apache.taverna.configuration.Configurable;
+import org.apache.taverna.configuration.ConfigurationChangeListener;
+import org.apache.taverna.configuration.ConfigurationManager;
 import org.apache.taverna.configuration.DummyConfigurable;
 import org.apache.taverna.configuration.app.ApplicationConfiguration;
 import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
 import org.junit.Before;
 import org.junit.Test;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
 
 public class ConfigurationManagerImplTest {
 
@@ -69,6 +80,10 @@ public class ConfigurationManagerImplTest {
 				return null;
 			}
 
+			public Path getActiveVersionDir() {
+				return null;
+			}
+
 			public Path getUserPluginDir() {
 				return null;
 			}
@@ -171,6 +186,179 @@ public class ConfigurationManagerImplTest {
 				AbstractConfigurable.DELETED_VALUE_CODE, props.getProperty("name"));
 	}
 
+	@Test
+	public void testPopulateDoesNotStore() throws Exception {
+		Configurable conf = dummyConfigurable;
+		manager.populate(conf);
+		assertFalse("populating should not create the config file", configFile.exists());
+		assertEquals("name should equal john", "john", conf.getProperty("name"));
+	}
+
+	@Test
+	public void testChecksum() throws Exception {
+		Configurable conf = dummyConfigurable;
+		conf.setProperty("country", "france");
+		manager.store(conf);
+		byte[] content = Files.readAllBytes(configFile.toPath());
+		assertTrue("stored file should have a valid checksum",
+				ConfigurationManagerImpl.isChecksumValid(content));
+		assertEquals("there should be no temporary files left", 1,
+				configFile.getParentFile().list().length);
+
+		// change a value without updating the checksum
+		String text = new String(content, "ISO-8859-1").replace("france", "spain");
+		Files.write(configFile.toPath(), text.getBytes("ISO-8859-1"));
+		manager.populate(conf);
+		assertEquals("defaults should be used if the checksum doesn't match", null,
+				conf.getProperty("country"));
+		assertTrue("corrupt file should be kept",
+				new File(configFile.getPath() + ".corrupt").exists());
+	}
+
+	@Test
+	public void testNoChecksum() throws Exception {
+		Configurable conf = dummyConfigurable;
+		Files.write(configFile.toPath(), "country=spain\n".getBytes("ISO-8859-1"));
+		manager.populate(conf);
+		assertEquals("files without a checksum should be read", "spain",
+				conf.getProperty("country"));
+	}
+
+	@Test
+	public void testChangeEvent() throws Exception {
+		final BlockingQueue<Event> events = new LinkedBlockingQueue<Event>();
+		manager.setEventAdmin(new EventAdmin() {
+			@Override
+			public void postEvent(Event event) {
+				events.add(event);
+			}
+
+			@Override
+			public void sendEvent(Event event) {
+				events.add(event);
+			}
+		});
+		DummyConfigurable conf = new DummyConfigurable(manager);
+		conf.setProperty("country", "france");
+		Event event = events.poll(AbstractConfigurable.NOTIFY_DELAY * 50, TimeUnit.MILLISECONDS);
+		assertNotNull("an event should have been posted", event);
+		assertEquals(ConfigurationManager.CONFIGURATION_CHANGED, event.getTopic());
+		assertEquals("cheese", event.getProperty(ConfigurationManager.CONFIGURABLE_UUID));
+		assertEquals(Collections.singleton("country"),
+				event.getProperty(ConfigurationManager.CHANGED_KEYS));
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		DummyConfigurable conf = new DummyConfigurable(manager);
+		final BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<Set<String>>();
+		conf.addChangeListener(new ConfigurationChangeListener() {
+			@Override
+			public void configurationChanged(Configurable configurable, Set<String> changedKeys) {
+				changes.add(changedKeys);
+			}
+		});
+		conf.setProperty("country", "france");
+		conf.flush();
+		assertEquals(Collections.singleton("country"), nextChange(changes));
+
+		manager.reload(configFile);
+		assertEquals("france", conf.getProperty("country"));
+
+		Files.write(configFile.toPath(), "country=france\ncolour=red\n".getBytes("ISO-8859-1"));
+		manager.reload(configFile);
+		assertEquals("red", conf.getProperty("colour"));
+		// changes are notified in order, so this also shows the first reload changed nothing
+		assertEquals("only the changed property should be reported",
+				Collections.singleton("colour"), nextChange(changes));
+	}
+
+	@Test
+	public void testReloadKeepsUnstoredChanges() throws Exception {
+		DummyConfigurable conf = new DummyConfigurable(manager);
+		conf.setProperty("country", "france");
+		conf.flush();
+		conf.setProperty("colour", "purple");
+
+		Files.write(configFile.toPath(), "country=spain\n".getBytes("ISO-8859-1"));
+		manager.reload(configFile);
+		assertEquals("unstored changes should not be lost", "purple", conf.getProperty("colour"));
+		assertEquals("france", conf.getProperty("country"));
+
+		conf.flush();
+		Properties props = new Properties();
+		props.load(new FileInputStream(configFile));
+		assertEquals("purple", props.getProperty("colour"));
+		manager.reload(configFile);
+		assertEquals("purple", conf.getProperty("colour"));
+
+		Files.write(configFile.toPath(), "country=spain\n".getBytes("ISO-8859-1"));
+		manager.reload(configFile);
+		assertEquals("stored changes can be reloaded", "spain", conf.getProperty("country"));
+	}
+
+	@Test
+	public void testWatchDirectory() throws Exception {
+		DummyConfigurable conf = new DummyConfigurable(manager);
+		manager.setWatchInterval(50);
+		manager.start();
+		try {
+			Files.write(configFile.toPath(), "colour=green\n".getBytes("ISO-8859-1"));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!"green".equals(conf.getProperty("colour"))
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals("green", conf.getProperty("colour"));
+		} finally {
+			manager.stop();
+		}
+	}
+
+	@Test
+	public void testLayers() throws Exception {
+		File systemDir = Files.createTempDirectory("system").toFile();
+		File siteDir = Files.createTempDirectory("site").toFile();
+		Files.write(new File(systemDir, configFile.getName()).toPath(),
+				"colour=red\nsize=large\n".getBytes("ISO-8859-1"));
+		Files.write(new File(siteDir, configFile.getName()).toPath(),
+				"colour=green\n".getBytes("ISO-8859-1"));
+		Files.write(configFile.toPath(), "name=fred\n".getBytes("ISO-8859-1"));
+		manager.setSystemConfigLocation(systemDir);
+		manager.setSiteConfigLocation(siteDir);
+
+		DummyConfigurable conf = new DummyConfigurable(manager);
+		assertEquals("green", conf.getProperty("colour"));
+		assertEquals("large", conf.getProperty("size"));
+		assertEquals("fred", conf.getProperty("name"));
+		manager.store(conf);
+		Properties props = new Properties();
+		props.load(new FileInputStream(configFile));
+		assertFalse("layer properties should not be stored", props.containsKey("size"));
+		assertFalse("defaults should not be stored", props.containsKey("colour"));
+
+		conf.setProperty("colour", "blue");
+		assertEquals("user set to default should override site", "blue", conf.getProperty("colour"));
+		manager.store(conf);
+		props.load(new FileInputStream(configFile));
+		assertEquals("user set to default should be stored", "blue", props.getProperty("colour"));
+		DummyConfigurable reread = new DummyConfigurable(manager);
+		assertEquals("user set to default should still override site when read", "blue",
+				reread.getProperty("colour"));
+	}
+
+	/**
+	 * Waits for the next change notification.
+	 */
+	private static Set<String> nextChange(BlockingQueue<Set<String>> changes)
+			throws InterruptedException {
+		Set<String> changedKeys = changes.poll(AbstractConfigurable.NOTIFY_DELAY * 50,
+				TimeUnit.MILLISECONDS);
+		assertNotNull("listeners should have been notified", changedKeys);
+		return changedKeys;
+	}
+
 	@Test
 	public void testFilename() {
 		assertTrue(configFile.getAbsolutePath().endsWith("dummyPrefix-cheese.config"));
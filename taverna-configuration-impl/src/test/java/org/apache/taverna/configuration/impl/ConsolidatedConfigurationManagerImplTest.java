@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.taverna.configuration.Configurable;
+import org.apache.taverna.configuration.ConfigurationManager;
+import org.apache.taverna.configuration.DummyConfigurable;
+import org.apache.taverna.configuration.app.ApplicationConfiguration;
+import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConsolidatedConfigurationManagerImplTest {
+
+	private File configDir;
+
+	private ApplicationConfiguration applicationConfiguration;
+
+	private ConsolidatedConfigurationManagerImpl manager;
+
+	@Before
+	public void setup() throws Exception {
+		File f = new File(System.getProperty("java.io.tmpdir"));
+		File configTestsDir = new File(f, "configTests");
+		if (!configTestsDir.exists())
+			configTestsDir.mkdir();
+		final File d = new File(configTestsDir, UUID.randomUUID().toString());
+		d.mkdir();
+		configDir = new File(d, "conf");
+		applicationConfiguration = new ApplicationConfiguration() {
+			public Path getApplicationHomeDir() {
+				return d.toPath();
+			}
+
+			public String getName() {
+				return null;
+			}
+
+			public String getTitle() {
+				return null;
+			}
+
+			public Path getStartupDir() {
+				return null;
+			}
+
+			public Path getActiveVersionDir() {
+				return null;
+			}
+
+			public Path getUserPluginDir() {
+				return null;
+			}
+
+			public Path getSystemPluginDir() {
+				return null;
+			}
+
+			public Path getLogFile() {
+				return null;
+			}
+
+			public Path getLogDir() {
+				return null;
+			}
+
+			public Properties getProperties() {
+				return null;
+			}
+
+			@Override
+			public ApplicationProfile getApplicationProfile() {
+				return null;
+			}
+		};
+		manager = new ConsolidatedConfigurationManagerImpl(applicationConfiguration);
+	}
+
+	@Test
+	public void testStore() throws Exception {
+		Configurable conf = new DummyConfigurable(manager);
+		assertFalse("populating should not create the store",
+				new File(configDir, ConsolidatedConfigurationManagerImpl.STORE_FILE_NAME).exists());
+		conf.setProperty("country", "france");
+		conf.deleteProperty("name");
+		manager.store(conf);
+		assertEquals("only the store file should be written", 1, configDir.list().length);
+
+		Configurable reread = new DummyConfigurable(
+				new ConsolidatedConfigurationManagerImpl(applicationConfiguration));
+		assertEquals("france", reread.getProperty("country"));
+		assertNull("deleted default should stay deleted", reread.getProperty("name"));
+		assertEquals("blue", reread.getProperty("colour"));
+	}
+
+	@Test
+	public void testStoreSeveral() throws Exception {
+		Configurable first = new DummyConfigurable(manager);
+		Configurable second = new OtherConfigurable(manager);
+		first.setProperty("country", "france");
+		second.setProperty("country", "spain");
+		manager.store(Arrays.asList(first, second));
+
+		ConfigurationManager rereadManager = new ConsolidatedConfigurationManagerImpl(
+				applicationConfiguration);
+		assertEquals("france", new DummyConfigurable(rereadManager).getProperty("country"));
+		assertEquals("spain", new OtherConfigurable(rereadManager).getProperty("country"));
+	}
+
+	@Test
+	public void testStoreWhileConfigurableStores() throws Exception {
+		final Configurable conf = new DummyConfigurable(manager);
+		conf.setProperty("country", "france");
+		final CountDownLatch locked = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// a configurable holds its own lock while it stores itself
+			Future<?> flush = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					synchronized (conf) {
+						locked.countDown();
+						Thread.sleep(100);
+						manager.store(conf);
+					}
+					return null;
+				}
+			});
+			locked.await();
+			Future<?> store = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					manager.store(Arrays.asList(conf));
+					return null;
+				}
+			});
+			// times out if the stores deadlock
+			store.get(5, TimeUnit.SECONDS);
+			flush.get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals("france", new DummyConfigurable(new ConsolidatedConfigurationManagerImpl(
+				applicationConfiguration)).getProperty("country"));
+	}
+
+	@Test
+	public void testMigrate() throws Exception {
+		File configFile = new File(configDir, "dummyPrefix-cheese.config");
+		Files.write(configFile.toPath(), "country=spain\n".getBytes("ISO-8859-1"));
+		Configurable conf = new DummyConfigurable(manager);
+		assertEquals("config file should be migrated", "spain", conf.getProperty("country"));
+		assertEquals("john", conf.getProperty("name"));
+		assertTrue("store should be written",
+				new File(configDir, ConsolidatedConfigurationManagerImpl.STORE_FILE_NAME).exists());
+		assertFalse("config file should be renamed", configFile.exists());
+		assertTrue(new File(configFile.getPath()
+				+ ConsolidatedConfigurationManagerImpl.MIGRATED_SUFFIX).exists());
+
+		Configurable reread = new DummyConfigurable(
+				new ConsolidatedConfigurationManagerImpl(applicationConfiguration));
+		assertEquals("spain", reread.getProperty("country"));
+	}
+
+	@Test
+	public void testCorruptStore() throws Exception {
+		Configurable conf = new DummyConfigurable(manager);
+		conf.setProperty("country", "france");
+		manager.store(conf);
+		File storeFile = new File(configDir, ConsolidatedConfigurationManagerImpl.STORE_FILE_NAME);
+		byte[] content = Files.readAllBytes(storeFile.toPath());
+		String text = new String(content, "ISO-8859-1").replace("france", "spain");
+		Files.write(storeFile.toPath(), text.getBytes("ISO-8859-1"));
+
+		Configurable reread = new DummyConfigurable(
+				new ConsolidatedConfigurationManagerImpl(applicationConfiguration));
+		assertNull("defaults should be used if the checksum doesn't match",
+				reread.getProperty("country"));
+		assertTrue("corrupt store should be kept",
+				new File(storeFile.getPath() + ".corrupt").exists());
+	}
+
+	private static class OtherConfigurable extends DummyConfigurable {
+
+		public OtherConfigurable(ConfigurationManager configurationManager) {
+			super(configurationManager);
+		}
+
+		@Override
+		public String getUUID() {
+			return "other";
+		}
+
+	}
+
+}
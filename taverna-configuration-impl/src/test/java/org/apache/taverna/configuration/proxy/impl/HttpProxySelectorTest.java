@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.configuration.proxy.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HttpProxySelectorTest {
+
+	@Test
+	public void testNoProxy() {
+		HttpProxySelector selector = new HttpProxySelector();
+		assertEquals(Proxy.NO_PROXY, selector.select(URI.create("http://example.com/")).get(0));
+		selector.configure("", "8080", "");
+		assertEquals(Proxy.NO_PROXY, selector.select(URI.create("http://example.com/")).get(0));
+	}
+
+	@Test
+	public void testProxy() {
+		HttpProxySelector selector = new HttpProxySelector();
+		selector.configure("proxy.example.com", "8080", "*.internal.example.com|localhost");
+		List<Proxy> proxies = selector.select(URI.create("http://www.example.com/"));
+		assertEquals(1, proxies.size());
+		assertEquals(Proxy.Type.HTTP, proxies.get(0).type());
+		InetSocketAddress address = (InetSocketAddress) proxies.get(0).address();
+		assertEquals("proxy.example.com", address.getHostString());
+		assertEquals(8080, address.getPort());
+		assertEquals(Proxy.NO_PROXY,
+				selector.select(URI.create("http://repo.INTERNAL.example.com/")).get(0));
+		assertEquals(Proxy.NO_PROXY, selector.select(URI.create("http://localhost:8080/")).get(0));
+
+		selector.configure("proxy.example.com", "invalid", null);
+		address = (InetSocketAddress) selector.select(URI.create("http://www.example.com/"))
+				.get(0).address();
+		assertEquals("invalid port should use the default", 80, address.getPort());
+		assertEquals("default non-proxy hosts should be used", Proxy.NO_PROXY,
+				selector.select(URI.create("http://127.0.0.1/")).get(0));
+	}
+
+	@Test
+	public void testNonProxyHosts() {
+		HttpProxySelector.NonProxyHosts nonProxyHosts = new HttpProxySelector.NonProxyHosts(
+				"localhost| *.example.com |192.168.*|build*.example.org|[::1]");
+		assertTrue(nonProxyHosts.matches("localhost"));
+		assertTrue(nonProxyHosts.matches("LocalHost"));
+		assertTrue(nonProxyHosts.matches("www.example.com"));
+		assertFalse(nonProxyHosts.matches("example.com"));
+		assertFalse(nonProxyHosts.matches("www.example.com.evil.org"));
+		assertTrue(nonProxyHosts.matches("192.168.1.1"));
+		assertFalse(nonProxyHosts.matches("10.192.168.1"));
+		assertTrue(nonProxyHosts.matches("build01.example.org"));
+		assertFalse(nonProxyHosts.matches("www.example.org"));
+		assertTrue(nonProxyHosts.matches("[::1]"));
+		assertFalse(nonProxyHosts.matches("localhost2"));
+
+		assertTrue(new HttpProxySelector.NonProxyHosts("*").matches("www.example.com"));
+		assertFalse(new HttpProxySelector.NonProxyHosts("").matches("www.example.com"));
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download;
+
+/**
+ * Receives progress updates for an asynchronous download.
+ * <p>
+ * Updates are sent from the thread doing the download, so listeners should return quickly.
+ */
+public interface DownloadListener {
+
+	/**
+	 * Called when more of the file has been downloaded.
+	 * <p>
+	 * The number of bytes downloaded can go down if the download has to start again, e.g. from a
+	 * different mirror.
+	 *
+	 * @param bytesDownloaded
+	 *            the number of bytes of the file downloaded so far
+	 * @param totalBytes
+	 *            the size of the file, or -1 if the size is not known
+	 */
+	public void progress(long bytesDownloaded, long totalBytes);
+
+}
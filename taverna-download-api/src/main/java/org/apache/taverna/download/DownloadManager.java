@@ -18,6 +18,8 @@ package org.apache.taverna.download;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Download Manager for handling file download and checking the integrity of the download.
@@ -76,6 +78,59 @@ public interface DownloadManager {
 	public void download(URI source, Path destination, String digestAlgorithm)
 			throws DownloadException;
 
+	/**
+	 * Downloads a file from a URL with a priority and checks the integrity of the download by
+	 * downloading and verifying the a checksum using the specified algorithm.
+	 * <p>
+	 * The checksum source is calculated in the same way as for
+	 * {@link #download(URI, Path, String)}. Downloads that don't specify a priority have
+	 * {@link DownloadPriority#NORMAL NORMAL} priority.
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use
+	 * @param priority
+	 *            the priority of the download
+	 * @throws DownloadException
+	 *             if
+	 *             <ul>
+	 *             <li>the source does not exist</li> <li>the digest source does not exist</li> <li>
+	 *             the source cannot be downloaded</li> <li>the destination cannot be written to
+	 *             </li> <li>the destination is not a file</li> <li>the checksums do no match</li>
+	 *             </ul>
+	 */
+	public void download(URI source, Path destination, String digestAlgorithm,
+			DownloadPriority priority) throws DownloadException;
+
+	/**
+	 * Downloads a file from a URL if it has changed since it was last downloaded to the
+	 * destination, and checks the integrity of the download in the same way as
+	 * {@link #download(URI, Path, String)}.
+	 * <p>
+	 * The <code>ETag</code> and <code>Last-Modified</code> validators of the previous download
+	 * are sent in a conditional request, so an unchanged file, and its checksum, are not
+	 * downloaded again. Sources that don't support conditional requests are always downloaded.
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use, or <code>null</code> to not check the download
+	 * @param priority
+	 *            the priority of the download
+	 * @return <code>true</code> if the file was downloaded, <code>false</code> if the
+	 *         destination is already up to date
+	 * @throws DownloadException
+	 *             if the file cannot be downloaded, as for
+	 *             {@link #download(URI, Path, String, DownloadPriority)}
+	 */
+	public boolean downloadIfModified(URI source, Path destination, String digestAlgorithm,
+			DownloadPriority priority) throws DownloadException;
+
 	/**
 	 * Downloads a file from a URL and checks the integrity of the download by downloading and
 	 * verifying the a checksum using the specified algorithm.
@@ -108,4 +163,142 @@ public interface DownloadManager {
 	public void download(URI source, Path destination, String digestAlgorithm, URI digestSource)
 			throws DownloadException;
 
+	/**
+	 * Downloads a file from a URL and checks the integrity of the download against a digest that
+	 * is already known, e.g. from an application profile or plugin site, so no checksum file needs
+	 * to be downloaded.
+	 * <p>
+	 * This has a different name from the <code>download</code> methods, as a <code>null</code>
+	 * digest would be ambiguous with a <code>null</code> digest source or priority.
+	 * <p>
+	 * Every implementation is required to support the following standard algorithms:
+	 * <ul>
+	 * <li>MD5</li>
+	 * <li>SHA-1</li>
+	 * <li>SHA-256</li>
+	 * </ul>
+	 * <p>
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use
+	 * @param digest
+	 *            the expected hex encoded digest of the file
+	 * @throws DownloadException
+	 *             if
+	 *             <ul>
+	 *             <li>the source does not exist</li> <li>the source cannot be downloaded</li> <li>
+	 *             the destination cannot be written to</li> <li>the destination is not a file</li>
+	 *             <li>the checksums do no match</li>
+	 *             </ul>
+	 */
+	public void downloadWithDigest(URI source, Path destination, String digestAlgorithm,
+			String digest) throws DownloadException;
+
+	/**
+	 * Downloads a file from a URL with a priority and checks the integrity of the download against
+	 * a digest that is already known.
+	 * <p>
+	 * Downloads that don't specify a priority have {@link DownloadPriority#NORMAL NORMAL}
+	 * priority.
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use
+	 * @param digest
+	 *            the expected hex encoded digest of the file
+	 * @param priority
+	 *            the priority of the download
+	 * @throws DownloadException
+	 *             if
+	 *             <ul>
+	 *             <li>the source does not exist</li> <li>the source cannot be downloaded</li> <li>
+	 *             the destination cannot be written to</li> <li>the destination is not a file</li>
+	 *             <li>the checksums do no match</li>
+	 *             </ul>
+	 */
+	public void downloadWithDigest(URI source, Path destination, String digestAlgorithm,
+			String digest, DownloadPriority priority) throws DownloadException;
+
+	/**
+	 * Starts downloading a file from a URL in the background and checks the integrity of the
+	 * download by downloading and verifying the a checksum using the specified algorithm.
+	 * <p>
+	 * The checksum source is calculated in the same way as for
+	 * {@link #download(URI, Path, String)}. If the digest algorithm is <code>null</code> the
+	 * integrity of the download is not checked.
+	 * <p>
+	 * The returned future completes with the destination when the download has finished, or
+	 * exceptionally with a {@link DownloadException} if the download fails. Cancelling the future
+	 * stops the download.
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use, may be <code>null</code>
+	 * @param priority
+	 *            the priority of the download
+	 * @param listener
+	 *            the listener to send progress updates to, may be <code>null</code>
+	 * @return a future for the downloaded file
+	 */
+	public CompletableFuture<Path> downloadAsync(URI source, Path destination,
+			String digestAlgorithm, DownloadPriority priority, DownloadListener listener);
+
+	/**
+	 * Starts downloading a file from a URL in the background and checks the integrity of the
+	 * download against a digest that is already known.
+	 * <p>
+	 * The returned future completes with the destination when the download has finished, or
+	 * exceptionally with a {@link DownloadException} if the download fails. Cancelling the future
+	 * stops the download.
+	 *
+	 * @param source
+	 *            the file to download
+	 * @param destination
+	 *            the file to write to
+	 * @param digestAlgorithm
+	 *            the digest algorithm to use
+	 * @param digest
+	 *            the expected hex encoded digest of the file
+	 * @param priority
+	 *            the priority of the download
+	 * @param listener
+	 *            the listener to send progress updates to, may be <code>null</code>
+	 * @return a future for the downloaded file
+	 */
+	public CompletableFuture<Path> downloadAsync(URI source, Path destination,
+			String digestAlgorithm, String digest, DownloadPriority priority,
+			DownloadListener listener);
+
+	/**
+	 * Sets the mirrors of a site.
+	 * <p>
+	 * Files below the site are downloaded from the site or one of its mirrors, whichever has been
+	 * responding fastest, and from the next mirror if a download fails. The digest is checked
+	 * whichever mirror the file is downloaded from.
+	 *
+	 * @param site
+	 *            the URI of the site
+	 * @param mirrors
+	 *            the URIs of the mirrors of the site, may be empty
+	 */
+	public void setMirrors(URI site, List<URI> mirrors);
+
+	/**
+	 * Returns a snapshot of the download metrics for each host that files have been downloaded
+	 * from.
+	 *
+	 * @return a snapshot of the download metrics for each host
+	 */
+	public List<DownloadMetrics> getMetrics();
+
 }
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download;
+
+/**
+ * A snapshot of the download metrics for one host.
+ * <p>
+ * Times are totals in milliseconds over all downloads from the host. DNS and connect times are
+ * only incurred when a new connection is opened.
+ */
+public class DownloadMetrics {
+
+	private final String host;
+	private final long downloads;
+	private final long failures;
+	private final long retries;
+	private final long cacheHits;
+	private final long cacheMisses;
+	private final long bytes;
+	private final long dnsTime;
+	private final long connectTime;
+	private final long timeToFirstByte;
+	private final long transferTime;
+	private final long digestTime;
+
+	public DownloadMetrics(String host, long downloads, long failures, long retries,
+			long cacheHits, long cacheMisses, long bytes, long dnsTime, long connectTime,
+			long timeToFirstByte, long transferTime, long digestTime) {
+		this.host = host;
+		this.downloads = downloads;
+		this.failures = failures;
+		this.retries = retries;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.bytes = bytes;
+		this.dnsTime = dnsTime;
+		this.connectTime = connectTime;
+		this.timeToFirstByte = timeToFirstByte;
+		this.transferTime = transferTime;
+		this.digestTime = digestTime;
+	}
+
+	/**
+	 * Returns the host the metrics are for, e.g. <code>https://www.example.com</code>, or the
+	 * scheme for sources without a host, e.g. <code>file</code>.
+	 *
+	 * @return the host the metrics are for
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the number of downloads, including failed downloads.
+	 *
+	 * @return the number of downloads
+	 */
+	public long getDownloads() {
+		return downloads;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns the number of times a partial download had to be restarted from the beginning.
+	 *
+	 * @return the number of restarted downloads
+	 */
+	public long getRetries() {
+		return retries;
+	}
+
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the number of bytes transferred from the host.
+	 *
+	 * @return the number of bytes transferred from the host
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getDnsTime() {
+		return dnsTime;
+	}
+
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Returns the total time from sending requests until the response headers were received.
+	 *
+	 * @return the total time to first byte in milliseconds
+	 */
+	public long getTimeToFirstByte() {
+		return timeToFirstByte;
+	}
+
+	public long getTransferTime() {
+		return transferTime;
+	}
+
+	public long getDigestTime() {
+		return digestTime;
+	}
+
+	/**
+	 * Returns the average throughput while transferring content from the host.
+	 *
+	 * @return the average throughput in bytes per second
+	 */
+	public long getThroughput() {
+		return transferTime == 0 ? 0 : bytes * 1000 / transferTime;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%1$s: %2$d downloads, %3$d failures, %4$d retries, %5$d cache hits, %6$d bytes, %7$d bytes/s",
+				host, downloads, failures, retries, cacheHits, bytes, getThroughput());
+	}
+
+}
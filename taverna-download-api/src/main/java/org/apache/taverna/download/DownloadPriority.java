@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download;
+
+/**
+ * The priority of a download, used to decide which downloads go first when downloads compete
+ * for connections or bandwidth.
+ */
+public enum DownloadPriority {
+
+	/** A download that a user is waiting for, e.g. installing a plugin. */
+	INTERACTIVE,
+
+	/** The priority of downloads that don't specify a priority. */
+	NORMAL,
+
+	/** A download that no one is waiting for, e.g. checking for updates. */
+	BACKGROUND;
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A local content-addressed store of downloaded files.
+ * <p>
+ * Files are stored under their verified digest, so the same content downloaded from different
+ * URIs, or to different destinations, is only fetched once. The least recently used files are
+ * removed when the cache grows beyond its maximum size.
+ * <p>
+ * Only the index of cached files is locked, so files are copied into and out of the cache
+ * concurrently. A cached file may be evicted while it is being copied out, in which case the
+ * copy fails and the file is treated as not cached.
+ */
+class ArtifactCache {
+
+	private static final Logger logger = Logger.getLogger(ArtifactCache.class);
+
+	private final Path directory;
+	private final long maxSize;
+
+	/** Cached files in least recently used order, with their sizes. */
+	private Map<Path, Long> entries;
+	private long size;
+
+	ArtifactCache(Path directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Copies the cached file with the digest to the destination.
+	 *
+	 * @return <code>true</code> if the file was in the cache
+	 */
+	boolean get(String digestAlgorithm, String digest, Path destination) {
+		Path file = getFile(digestAlgorithm, digest);
+		synchronized (this) {
+			// get rather than containsKey, to mark the file as recently used
+			if (getEntries().get(file) == null) {
+				return false;
+			}
+		}
+		try {
+			Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return true;
+		} catch (IOException e) {
+			logger.warn("Error reading " + file + " from download cache", e);
+			synchronized (this) {
+				remove(file);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the cached file with the digest, e.g. because its content no longer matches the
+	 * digest.
+	 */
+	synchronized void remove(String digestAlgorithm, String digest) {
+		Path file = getFile(digestAlgorithm, digest);
+		remove(file);
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Error removing " + file + " from download cache", e);
+		}
+	}
+
+	/**
+	 * Adds a file that has been verified to have the digest to the cache.
+	 */
+	void put(String digestAlgorithm, String digest, URI source, Path file) {
+		Path cacheFile = getFile(digestAlgorithm, digest);
+		synchronized (this) {
+			if (getEntries().containsKey(cacheFile)) {
+				return;
+			}
+		}
+		try {
+			Files.createDirectories(cacheFile.getParent());
+			// temporary files start with a dot, so aren't read as cached files
+			Path tempFile = Files.createTempFile(cacheFile.getParent(), "." + digest, ".tmp");
+			try {
+				Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING);
+				long fileSize = Files.size(tempFile);
+				synchronized (this) {
+					if (entries.containsKey(cacheFile)) {
+						// added while copying
+						return;
+					}
+					Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
+					entries.put(cacheFile, fileSize);
+					size += fileSize;
+					logger.debug(String.format("Cached %1$s as %2$s", source, cacheFile));
+					evict();
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (IOException e) {
+			logger.warn("Error adding " + source + " to download cache", e);
+		}
+	}
+
+	private Path getFile(String digestAlgorithm, String digest) {
+		String algorithm = digestAlgorithm.toLowerCase(Locale.ROOT).replaceAll("-", "");
+		return directory.resolve(algorithm).resolve(digest.toLowerCase(Locale.ROOT));
+	}
+
+	private void evict() {
+		Iterator<Entry<Path, Long>> iterator = entries.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry<Path, Long> entry = iterator.next();
+			try {
+				Files.deleteIfExists(entry.getKey());
+			} catch (IOException e) {
+				logger.warn("Error removing " + entry.getKey() + " from download cache", e);
+			}
+			size -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	private void remove(Path file) {
+		Long fileSize = entries.remove(file);
+		if (fileSize != null) {
+			size -= fileSize;
+		}
+	}
+
+	/**
+	 * Returns the cached files, reading them from the cache directory ordered by last use the first
+	 * time the cache is accessed.
+	 */
+	private Map<Path, Long> getEntries() {
+		if (entries == null) {
+			entries = new LinkedHashMap<Path, Long>(16, 0.75f, true);
+			size = 0;
+			final Map<Path, Long> lastUsed = new LinkedHashMap<Path, Long>();
+			if (Files.isDirectory(directory)) {
+				try (DirectoryStream<Path> algorithms = Files.newDirectoryStream(directory)) {
+					for (Path algorithm : algorithms) {
+						if (!Files.isDirectory(algorithm)) {
+							continue;
+						}
+						try (DirectoryStream<Path> files = Files.newDirectoryStream(algorithm)) {
+							for (Path file : files) {
+								if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) {
+									lastUsed.put(file, Files.getLastModifiedTime(file).toMillis());
+								}
+							}
+						}
+					}
+				} catch (IOException e) {
+					logger.warn("Error reading download cache " + directory, e);
+				}
+			}
+			List<Path> files = new ArrayList<Path>(lastUsed.keySet());
+			Collections.sort(files, new Comparator<Path>() {
+				@Override
+				public int compare(Path file1, Path file2) {
+					return Long.compare(lastUsed.get(file1), lastUsed.get(file2));
+				}
+			});
+			for (Path file : files) {
+				try {
+					long fileSize = Files.size(file);
+					entries.put(file, fileSize);
+					size += fileSize;
+				} catch (IOException e) {
+					logger.warn("Error reading " + file + " in download cache", e);
+				}
+			}
+			evict();
+		}
+		return entries;
+	}
+
+}
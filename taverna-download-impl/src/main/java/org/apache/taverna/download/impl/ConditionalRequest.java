@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.log4j.Logger;
+
+/**
+ * The validators of a previous download of a source, used to only download the source again if it
+ * has been modified.
+ * <p>
+ * The <code>ETag</code> and <code>Last-Modified</code> headers that the server sent with the
+ * download are kept next to the destination in a hidden <code>.validators</code> file. They are
+ * only used if the destination still exists and was downloaded from the same source.
+ */
+class ConditionalRequest {
+
+	private static final String SOURCE = "source";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "last-modified";
+
+	private static final Logger logger = Logger.getLogger(ConditionalRequest.class);
+
+	private final URI source;
+	private final Path destination;
+	private final Path metadataFile;
+
+	private String eTag;
+	private String lastModified;
+	private boolean notModified;
+
+	ConditionalRequest(URI source, Path destination) {
+		this.source = source;
+		this.destination = destination;
+		metadataFile = destination.resolveSibling("." + destination.getFileName() + ".validators");
+		readMetadata();
+	}
+
+	/**
+	 * Returns <code>true</code> if there are validators for the content of the destination.
+	 *
+	 * @return <code>true</code> if there are validators for the content of the destination
+	 */
+	boolean hasValidators() {
+		return (eTag != null || lastModified != null) && Files.isRegularFile(destination);
+	}
+
+	/**
+	 * Adds <code>If-None-Match</code> and <code>If-Modified-Since</code> headers for the
+	 * validators to the request.
+	 */
+	void addHeaders(Request request) {
+		if (!hasValidators()) {
+			return;
+		}
+		if (eTag != null) {
+			request.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+		}
+		if (lastModified != null) {
+			request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+	}
+
+	/**
+	 * Forgets the validators, so that the request is unconditional.
+	 */
+	void clear() {
+		eTag = null;
+		lastModified = null;
+	}
+
+	/**
+	 * Records that the server responded that the source has not been modified.
+	 */
+	void setNotModified() {
+		notModified = true;
+	}
+
+	boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Remembers the validators of a response with the new content of the source.
+	 */
+	void setValidators(HttpResponse response) {
+		Header eTagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+		Header lastModifiedHeader = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		eTag = eTagHeader == null ? null : eTagHeader.getValue();
+		lastModified = lastModifiedHeader == null ? null : lastModifiedHeader.getValue();
+	}
+
+	/**
+	 * Saves the validators for the content that has been downloaded to the destination.
+	 */
+	void save() {
+		try {
+			if (eTag == null && lastModified == null) {
+				Files.deleteIfExists(metadataFile);
+				return;
+			}
+			Properties properties = new Properties();
+			properties.setProperty(SOURCE, source.toString());
+			if (eTag != null) {
+				properties.setProperty(ETAG, eTag);
+			}
+			if (lastModified != null) {
+				properties.setProperty(LAST_MODIFIED, lastModified);
+			}
+			try (OutputStream out = Files.newOutputStream(metadataFile)) {
+				properties.store(out, "");
+			}
+		} catch (IOException e) {
+			logger.warn("Error writing download validators " + metadataFile, e);
+		}
+	}
+
+	private void readMetadata() {
+		if (!Files.isRegularFile(metadataFile)) {
+			return;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(metadataFile)) {
+			properties.load(in);
+		} catch (IOException e) {
+			logger.warn("Error reading download validators " + metadataFile, e);
+			return;
+		}
+		if (source.toString().equals(properties.getProperty(SOURCE))) {
+			eTag = properties.getProperty(ETAG);
+			lastModified = properties.getProperty(LAST_MODIFIED);
+		}
+	}
+
+}
@@ -17,39 +17,163 @@
 package org.apache.taverna.download.impl;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.fluent.Executor;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.util.EntityUtils;
 import org.apache.http.util.VersionInfo;
 import org.apache.log4j.Logger;
+import org.apache.taverna.configuration.app.ApplicationConfiguration;
+import org.apache.taverna.configuration.proxy.HttpProxyConfiguration;
 import org.apache.taverna.download.DownloadException;
+import org.apache.taverna.download.DownloadListener;
 import org.apache.taverna.download.DownloadManager;
+import org.apache.taverna.download.DownloadMetrics;
+import org.apache.taverna.download.DownloadPriority;
 
 /**
  *
  */
 public class DownloadManagerImpl implements DownloadManager {
 
-	CloseableHttpClient httpclient = HttpClients.createDefault();
-
 	private static final int TIMEOUT = Integer.getInteger("taverna.download.timeout.seconds", 30) * 1000;
 
+	/**
+	 * Hard link <code>file:</code> sources instead of copying them, e.g. for mirrors on the same
+	 * file system. Only safe if the mirror files are replaced rather than modified in place.
+	 */
+	private static final boolean LINK_FILES = Boolean.getBoolean("taverna.download.file.link");
+
+	private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+
+	private static final long CACHE_SIZE = Long.getLong("taverna.download.cache.size.mb", 512) * 1024 * 1024;
+
+	private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("taverna.download.host.connections", 2);
+
+	/** The global bandwidth limit for HTTP downloads, or 0 for no limit. */
+	private static final long MAX_BYTES_PER_SECOND = Long.getLong("taverna.download.bandwidth.kb", 0) * 1024;
+
+	/** The number of threads for asynchronous downloads. */
+	private static final int DOWNLOAD_THREADS = Integer.getInteger("taverna.download.threads", 8);
+
 	private static final Logger logger = Logger.getLogger(DownloadManagerImpl.class);
 
+	private static final String METRICS_OBJECT_NAME = "org.apache.taverna.download:type=DownloadMetrics,host=";
+
+	private final CloseableHttpClient httpclient;
+	private final Executor executor;
+	private final DownloadScheduler scheduler;
+	private final ExecutorService downloadExecutor;
+
+	private final ConcurrentMap<String, HostMetrics> hostMetrics = new ConcurrentHashMap<String, HostMetrics>();
+
+	private final MirrorSelector mirrorSelector = new MirrorSelector(TIMEOUT);
+
+	private ArtifactCache artifactCache;
+
+	/** The proxy selector from the proxy configuration, or <code>null</code> to use the default. */
+	private volatile ProxySelector proxySelector;
+
+	public DownloadManagerImpl() {
+		scheduler = new DownloadScheduler(MAX_CONNECTIONS_PER_HOST, MAX_BYTES_PER_SECOND);
+		// time DNS lookups and connections for the download metrics
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder
+				.<ConnectionSocketFactory> create()
+				.register("http", new TracingConnectionSocketFactory(
+						PlainConnectionSocketFactory.getSocketFactory()))
+				.register("https", new TracingConnectionSocketFactory(
+						SSLConnectionSocketFactory.getSystemSocketFactory()))
+				.build();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+				socketFactoryRegistry, new TracingDnsResolver());
+		// the scheduler limits connections per host, so never make it wait for the pool
+		connectionManager.setDefaultMaxPerRoute(scheduler.getMaxConnectionsPerHost());
+		connectionManager.setMaxTotal(Math.max(connectionManager.getMaxTotal(),
+				scheduler.getMaxConnectionsPerHost()));
+		// use the proxy configuration's selector rather than the JVM-wide system properties
+		SystemDefaultRoutePlanner routePlanner = new SystemDefaultRoutePlanner(new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				ProxySelector selector = getProxySelector();
+				return selector == null ? Collections.singletonList(Proxy.NO_PROXY) : selector.select(uri);
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress address, IOException e) {
+				ProxySelector selector = getProxySelector();
+				if (selector != null) {
+					selector.connectFailed(uri, address, e);
+				}
+			}
+		});
+		httpclient = HttpClients.custom().setConnectionManager(connectionManager).useSystemProperties()
+				.setRoutePlanner(routePlanner).build();
+		executor = Executor.newInstance(httpclient);
+		downloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Taverna download " + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
 	@Override
 	public void download(URI source, Path destination) throws DownloadException {
 		download(source, destination, null);
@@ -57,12 +181,133 @@ public class DownloadManagerImpl implements DownloadManager {
 
 	@Override
 	public void download(URI source, Path destination, String digestAlgorithm) throws DownloadException {
-		URI digestSource = null;
-		if (digestAlgorithm != null) {
-			// Note: Will break with ?download=file.xml kind of URLs
-			digestSource = source.resolve(source.getPath() + mapAlgorithmToFileExtension(digestAlgorithm));
+		download(source, destination, digestAlgorithm, DownloadPriority.NORMAL);
+	}
+
+	@Override
+	public void download(URI source, Path destination, String digestAlgorithm,
+			DownloadPriority priority) throws DownloadException {
+		download(source, destination, digestAlgorithm, getDigestSource(source, digestAlgorithm),
+				new DownloadTask(priority, null));
+	}
+
+	@Override
+	public boolean downloadIfModified(URI source, Path destination, String digestAlgorithm,
+			DownloadPriority priority) throws DownloadException {
+		DownloadTask task = new DownloadTask(priority, null);
+		URI digestSource = getDigestSource(source, digestAlgorithm);
+		if (!isHttp(source)) {
+			download(source, destination, digestAlgorithm, digestSource, task);
+			return true;
+		}
+		ConditionalRequest conditionalRequest = new ConditionalRequest(source, destination);
+		task.setConditionalRequest(conditionalRequest);
+		if (conditionalRequest.hasValidators()) {
+			try {
+				if (!downloadConditionally(source, destination, digestAlgorithm, digestSource, task)) {
+					logger.info(String.format("%1$s has not been modified", source));
+					return false;
+				}
+				conditionalRequest.save();
+				return true;
+			} catch (DownloadException e) {
+				if (task.isCancelled()) {
+					throw e;
+				}
+				logger.warn(String.format("Error checking if %1$s has been modified", source), e);
+			}
+			// download unconditionally, which may be from a mirror
+			conditionalRequest.clear();
+		}
+		download(source, destination, digestAlgorithm, digestSource, task);
+		conditionalRequest.save();
+		return true;
+	}
+
+	/**
+	 * Downloads the source from its site, not a mirror as their validators will differ, if the
+	 * server responds that it has been modified, and only then downloads the digest.
+	 *
+	 * @return <code>false</code> if the source has not been modified
+	 */
+	private boolean downloadConditionally(URI source, Path destination, String digestAlgorithm,
+			URI digestSource, DownloadTask task) throws DownloadException {
+		DownloadTrace trace = DownloadTrace.start();
+		boolean success = false;
+		try (PartialDownload partial = openPartialDownload(source, destination)) {
+			// a conditional request is for the whole content
+			partial.discard();
+			downloadToFile(source, partial, task);
+			if (task.getConditionalRequest().isNotModified()) {
+				partial.discard();
+				success = true;
+				return false;
+			}
+			if (digestSource != null) {
+				MessageDigest md;
+				try {
+					md = MessageDigest.getInstance(digestAlgorithm);
+				} catch (NoSuchAlgorithmException e) {
+					throw new IllegalArgumentException("Unsupported digestAlgorithm: " + digestAlgorithm, e);
+				}
+				checkDigest(partial, md, downloadHash(digestSource, task).trim().toLowerCase(Locale.ROOT));
+			}
+			try {
+				partial.complete(destination);
+			} catch (IOException e) {
+				throw new DownloadException(String.format("Error downloading %1$s to %2$s.", source,
+						destination), e);
+			}
+			success = true;
+			return true;
+		} finally {
+			DownloadTrace.finish();
+			recordMetrics(source, trace, success);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Path> downloadAsync(final URI source, final Path destination,
+			final String digestAlgorithm, DownloadPriority priority, DownloadListener listener) {
+		final URI digestSource = getDigestSource(source, digestAlgorithm);
+		return submit(new DownloadFuture(new DownloadTask(priority, listener), destination) {
+			@Override
+			void download(DownloadTask task) throws DownloadException {
+				DownloadManagerImpl.this.download(source, destination, digestAlgorithm, digestSource, task);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Path> downloadAsync(final URI source, final Path destination,
+			final String digestAlgorithm, final String digest, DownloadPriority priority,
+			DownloadListener listener) {
+		if (digestAlgorithm == null || digest == null) {
+			throw new IllegalArgumentException("digestAlgorithm and digest must be specified");
 		}
-		download(source, destination, digestAlgorithm, digestSource);
+		return submit(new DownloadFuture(new DownloadTask(priority, listener), destination) {
+			@Override
+			void download(DownloadTask task) throws DownloadException {
+				downloadWithDigest(source, destination, digestAlgorithm, digest, task);
+			}
+		});
+	}
+
+	private CompletableFuture<Path> submit(DownloadFuture future) {
+		try {
+			downloadExecutor.execute(future);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new DownloadException("Download manager has been closed", e));
+		}
+		return future;
+	}
+
+	private URI getDigestSource(URI source, String digestAlgorithm) {
+		if (digestAlgorithm == null) {
+			return null;
+		}
+		// Note: Will break with ?download=file.xml kind of URLs
+		return source.resolve(source.getPath() + mapAlgorithmToFileExtension(digestAlgorithm));
 	}
 
 	public String getUserAgent() {
@@ -75,7 +320,139 @@ public class DownloadManagerImpl implements DownloadManager {
 	@Override
 	public void download(URI source, Path destination, String digestAlgorithm, URI digestSource)
 			throws DownloadException {
+		download(source, destination, digestAlgorithm, digestSource, new DownloadTask(
+				DownloadPriority.NORMAL, null));
+	}
+
+	private void download(URI source, Path destination, String digestAlgorithm, URI digestSource,
+			DownloadTask task) throws DownloadException {
+		DownloadTrace trace = DownloadTrace.start();
+		boolean success = false;
+		try {
+			String expectedDigest = null;
+			if (digestSource != null) {
+				// download the digest file
+				expectedDigest = downloadHash(digestSource, task);
+			}
+			downloadAndCheckDigest(source, destination, digestAlgorithm, expectedDigest, task);
+			success = true;
+		} finally {
+			DownloadTrace.finish();
+			recordMetrics(source, trace, success);
+		}
+	}
+
+	@Override
+	public void downloadWithDigest(URI source, Path destination, String digestAlgorithm,
+			String digest) throws DownloadException {
+		downloadWithDigest(source, destination, digestAlgorithm, digest, DownloadPriority.NORMAL);
+	}
+
+	@Override
+	public void downloadWithDigest(URI source, Path destination, String digestAlgorithm,
+			String digest, DownloadPriority priority) throws DownloadException {
+		if (digestAlgorithm == null || digest == null) {
+			throw new IllegalArgumentException("digestAlgorithm and digest must be specified");
+		}
+		downloadWithDigest(source, destination, digestAlgorithm, digest, new DownloadTask(priority, null));
+	}
+
+	private void downloadWithDigest(URI source, Path destination, String digestAlgorithm, String digest,
+			DownloadTask task) throws DownloadException {
+		DownloadTrace trace = DownloadTrace.start();
+		boolean success = false;
+		try {
+			downloadAndCheckDigest(source, destination, digestAlgorithm, digest, task);
+			success = true;
+		} finally {
+			DownloadTrace.finish();
+			recordMetrics(source, trace, success);
+		}
+	}
+
+	@Override
+	public void setMirrors(URI site, List<URI> mirrors) {
+		mirrorSelector.setMirrors(site, mirrors);
+	}
+
+	@Override
+	public List<DownloadMetrics> getMetrics() {
+		List<DownloadMetrics> metrics = new ArrayList<DownloadMetrics>();
+		for (HostMetrics host : hostMetrics.values()) {
+			metrics.add(host.getSnapshot());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Stops any asynchronous downloads, unregisters the download metrics MBeans and closes the HTTP
+	 * client.
+	 */
+	public void close() {
+		downloadExecutor.shutdownNow();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (String host : hostMetrics.keySet()) {
+			try {
+				server.unregisterMBean(getObjectName(host));
+			} catch (JMException e) {
+				logger.debug("Error unregistering download metrics for " + host, e);
+			}
+		}
+		try {
+			httpclient.close();
+		} catch (IOException e) {
+			logger.warn("Error closing HTTP client", e);
+		}
+	}
+
+	private boolean isHttp(URI source) {
+		return source.getScheme().equalsIgnoreCase("http") || source.getScheme().equalsIgnoreCase("https");
+	}
+
+	/**
+	 * Returns <code>scheme://authority</code> for HTTP sources, or the scheme for other sources.
+	 */
+	private String getHost(URI source) {
+		String host = source.getScheme();
+		if (source.getRawAuthority() != null
+				&& (host.equalsIgnoreCase("http") || host.equalsIgnoreCase("https"))) {
+			host = host.toLowerCase(Locale.ROOT) + "://" + source.getRawAuthority().toLowerCase(Locale.ROOT);
+		}
+		return host;
+	}
+
+	/**
+	 * Adds the trace of a download to the metrics of the host that served the content, which is a
+	 * mirror's host if the source was downloaded from a mirror.
+	 */
+	private void recordMetrics(URI source, DownloadTrace trace, boolean success) {
+		getHostMetrics(trace.source == null ? source : trace.source).add(trace, success);
+	}
+
+	private HostMetrics getHostMetrics(URI source) {
+		String host = getHost(source);
+		HostMetrics metrics = hostMetrics.get(host);
+		if (metrics == null) {
+			HostMetrics newMetrics = new HostMetrics(host);
+			metrics = hostMetrics.putIfAbsent(host, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+				try {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, getObjectName(host));
+				} catch (JMException e) {
+					logger.debug("Error registering download metrics for " + host, e);
+				}
+			}
+		}
+		return metrics;
+	}
+
+	private ObjectName getObjectName(String host) throws JMException {
+		return new ObjectName(METRICS_OBJECT_NAME + ObjectName.quote(host));
+	}
 
+	private void downloadAndCheckDigest(URI source, Path destination, String digestAlgorithm,
+			String expectedDigest, DownloadTask task) throws DownloadException {
 		MessageDigest md = null;
 		if (digestAlgorithm != null) {
 			try {
@@ -85,53 +462,143 @@ public class DownloadManagerImpl implements DownloadManager {
 			}
 		}
 
-		// download the file
-		Path tempFile;
-		try {
-			tempFile = Files.createTempFile(destination.getParent(), "." + destination.getFileName(), ".tmp");
-		} catch (IOException e1) {
-			// perhaps a permission problem?
-			throw new DownloadException("Can't create temporary file in folder " + destination.getParent(), e1);
-		}
-		logger.info(String.format("Downloading %1$s to %2$s", source, tempFile));
-		downloadToFile(source, tempFile);
-
-		if (digestSource != null) {
-			// download the digest file
-			String expectedDigest;
-			expectedDigest = downloadHash(digestSource).trim().toLowerCase(Locale.ROOT);
-			// check if the digest matches
-			try {
-				try (InputStream s = Files.newInputStream(tempFile)) {
-					DigestUtils.updateDigest(md, s);
-					String actualDigest = Hex.encodeHexString(md.digest());
-					if (!actualDigest.equals(expectedDigest)) {
-						throw new DownloadException(
-								String.format("Error downloading file: checksum mismatch (%1$s != %2$s)",
-										actualDigest, expectedDigest));
+		if (expectedDigest != null) {
+			expectedDigest = expectedDigest.trim().toLowerCase(Locale.ROOT);
+		}
+
+		DownloadTrace trace = DownloadTrace.current();
+		try (PartialDownload partial = openPartialDownload(source, destination)) {
+			Path tempFile = partial.getFile();
+			if (expectedDigest != null && artifactCache != null) {
+				trace.cacheHit = artifactCache.get(digestAlgorithm, expectedDigest, tempFile);
+				if (trace.cacheHit) {
+					try {
+						checkDigest(partial, md, expectedDigest);
+					} catch (DownloadException e) {
+						logger.warn(String.format("Cached copy of %1$s is corrupt, downloading it again",
+								source), e);
+						artifactCache.remove(digestAlgorithm, expectedDigest);
+						trace.cacheHit = false;
 					}
 				}
+			}
+			if (Boolean.TRUE.equals(trace.cacheHit)) {
+				logger.info(String.format("Using cached copy of %1$s", source));
+			} else {
+				downloadFromMirrors(source, partial, md, expectedDigest, task);
+				if (expectedDigest != null && artifactCache != null) {
+					artifactCache.put(digestAlgorithm, expectedDigest, source, tempFile);
+				}
+			}
+			// All fine, move to destination
+			try {
+				logger.info(String.format("Copying %1$s to %2$s", tempFile, destination));
+				partial.complete(destination);
 			} catch (IOException e) {
-				throw new DownloadException(String.format("Error checking digest for %1$s", destination), e);
+				throw new DownloadException(String.format("Error downloading %1$s to %2$s.", source, destination), e);
 			}
 		}
-		// All fine, move to destination
+	}
+
+	/**
+	 * Locks the partial file for the destination, so that two downloads to the same destination
+	 * don't write to it at the same time.
+	 */
+	private PartialDownload openPartialDownload(URI source, Path destination)
+			throws DownloadException {
 		try {
-			logger.info(String.format("Copying %1$s to %2$s", tempFile, destination));
-			Files.move(tempFile, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			return new PartialDownload(source, destination);
 		} catch (IOException e) {
-			throw new DownloadException(String.format("Error downloading %1$s to %2$s.", source, destination), e);
+			throw new DownloadException(String.format("Error downloading %1$s to %2$s.", source,
+					destination), e);
+		}
+	}
+
+	/**
+	 * Downloads the source, or else the same file from a mirror of its site, and checks the
+	 * digest of whichever copy was downloaded. Mirrors are tried fastest first.
+	 */
+	private void downloadFromMirrors(URI source, PartialDownload partial, MessageDigest md,
+			String expectedDigest, DownloadTask task) throws DownloadException {
+		DownloadTrace trace = DownloadTrace.current();
+		for (Iterator<URI> mirrors = mirrorSelector.getSources(source).iterator(); mirrors.hasNext();) {
+			URI mirror = mirrors.next();
+			long timeToFirstByte = trace.timeToFirstByte;
+			try {
+				// download the file, resuming a previous partial download if possible
+				logger.info(String.format("Downloading %1$s to %2$s", mirror, partial.getFile()));
+				downloadToFile(mirror, partial, task);
+				if (trace.timeToFirstByte > timeToFirstByte) {
+					mirrorSelector.recordLatency(mirror, TimeUnit.NANOSECONDS.toMillis(trace.timeToFirstByte
+							- timeToFirstByte));
+				}
+				if (expectedDigest != null) {
+					checkDigest(partial, md, expectedDigest);
+				}
+				return;
+			} catch (DownloadException e) {
+				if (task.isCancelled()) {
+					throw e;
+				}
+				mirrorSelector.recordFailure(mirror);
+				if (!mirrors.hasNext()) {
+					throw e;
+				}
+				logger.warn(String.format("Error downloading %1$s, trying the next mirror", mirror), e);
+			}
+		}
+	}
+
+	private void checkDigest(PartialDownload partial, MessageDigest md, String expectedDigest)
+			throws DownloadException {
+		DownloadTrace trace = DownloadTrace.current();
+		try {
+			long digestStart = System.nanoTime();
+			String actualDigest = Hex.encodeHexString(digest(md, partial.getFile()));
+			trace.digestTime += System.nanoTime() - digestStart;
+			if (!actualDigest.equals(expectedDigest)) {
+				// don't resume from corrupt content
+				partial.discard();
+				throw new DownloadException(
+						String.format("Error downloading file: checksum mismatch (%1$s != %2$s)",
+								actualDigest, expectedDigest));
+			}
+		} catch (IOException e) {
+			throw new DownloadException(String.format("Error checking digest for %1$s", partial.getFile()), e);
 		}
+	}
 
+	private String downloadHash(URI source, DownloadTask task) throws DownloadException {
+		DownloadException failure = null;
+		for (URI mirror : mirrorSelector.getSources(source)) {
+			try {
+				return downloadHashFromMirror(mirror, task);
+			} catch (DownloadException e) {
+				if (task.isCancelled()) {
+					throw e;
+				}
+				mirrorSelector.recordFailure(mirror);
+				logger.warn(String.format("Error downloading %1$s", mirror), e);
+				failure = e;
+			}
+		}
+		throw failure;
 	}
 
-	private String downloadHash(URI source) throws DownloadException {
+	private String downloadHashFromMirror(URI source, DownloadTask task) throws DownloadException {
 		try {
 			// We want to handle http/https with HTTPClient
 			if (source.getScheme().equalsIgnoreCase("http") || source.getScheme().equalsIgnoreCase("https")) {
 				logger.info("Downloading checksum " + source);
-				return Request.Get(source).userAgent(getUserAgent()).connectTimeout(TIMEOUT).socketTimeout(TIMEOUT).execute()
-						.returnContent().asString(StandardCharsets.ISO_8859_1);
+				Request request = Request.Get(source).userAgent(getUserAgent()).connectTimeout(TIMEOUT)
+						.socketTimeout(TIMEOUT);
+				String host = acquireConnection(source, task);
+				try {
+					task.setRequest(request);
+					return executor.execute(request).returnContent().asString(StandardCharsets.ISO_8859_1);
+				} finally {
+					scheduler.releaseConnection(host);
+				}
 			} else {
 				// Try as a supported Path, e.g. file: or relative path
 				try {
@@ -146,17 +613,36 @@ public class DownloadManagerImpl implements DownloadManager {
 		}		
 	}
 	
-	private void downloadToFile(URI source, Path destination) throws DownloadException {
+	private void downloadToFile(URI source, PartialDownload partial, DownloadTask task)
+			throws DownloadException {
+		Path destination = partial.getFile();
+		DownloadTrace.current().source = source;
 		try {
 			// We want to handle http/https with HTTPClient
 			if (source.getScheme().equalsIgnoreCase("http") || source.getScheme().equalsIgnoreCase("https")) {
-				Request.Get(source).userAgent(getUserAgent()).connectTimeout(TIMEOUT).socketTimeout(TIMEOUT).execute()
-						.saveContent(destination.toFile());
+				String host = acquireConnection(source, task);
+				try {
+					if (!downloadHttp(source, partial, task)) {
+						// the partial content could not be resumed, so start again
+						DownloadTrace.current().retries++;
+						partial.restart(null);
+						downloadHttp(source, partial, task);
+					}
+				} finally {
+					scheduler.releaseConnection(host);
+				}
 			} else {
 				// Try as a supported Path, e.g. file: or relative path
 				try {
 					Path path = Paths.get(source);
-					Files.copy(path, destination, StandardCopyOption.REPLACE_EXISTING);
+					DownloadTrace trace = DownloadTrace.current();
+					task.checkCancelled();
+					task.transferStarted(0, Files.size(path));
+					trace.transferStarted();
+					copyFile(path, destination);
+					long size = Files.size(destination);
+					trace.transferred(size);
+					task.transferred(size);
 				} catch (FileSystemNotFoundException e) {
 					throw new DownloadException("Unsupported URL scheme: " + source.getScheme());
 				}
@@ -166,6 +652,252 @@ public class DownloadManagerImpl implements DownloadManager {
 		}
 	}
 
+	/**
+	 * Waits for the scheduler to allow a connection to the host of the source.
+	 *
+	 * @return the host to release the connection for
+	 */
+	private String acquireConnection(URI source, DownloadTask task) throws IOException {
+		String host = getHost(source);
+		task.checkCancelled();
+		try {
+			scheduler.acquireConnection(host, task.getPriority());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to connect to " + host);
+		}
+		return host;
+	}
+
+	/**
+	 * Copies a local file, letting the file system do the copy if possible.
+	 */
+	private void copyFile(Path source, Path destination) throws IOException {
+		if (LINK_FILES) {
+			try {
+				Files.deleteIfExists(destination);
+				Files.createLink(destination, source);
+				return;
+			} catch (IOException | UnsupportedOperationException e) {
+				// e.g. different file systems
+				logger.debug(String.format("Can't link %1$s to %2$s, copying instead", destination, source), e);
+			}
+		}
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = in.transferTo(position, size - position, out);
+				if (transferred <= 0) {
+					// source was truncated while copying, the digest check will catch this
+					break;
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the digest of a file, reading it through a direct buffer.
+	 */
+	private byte[] digest(MessageDigest md, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(DIGEST_BUFFER_SIZE,
+					Math.max(channel.size(), 1)));
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Downloads the source over HTTP, requesting only the missing bytes if there is partial content
+	 * from an earlier attempt.
+	 *
+	 * @return <code>false</code> if the partial content could not be resumed
+	 */
+	private boolean downloadHttp(URI source, final PartialDownload partial, final DownloadTask task)
+			throws IOException {
+		final long offset = partial.getResumeOffset();
+		final ConditionalRequest conditionalRequest = task.getConditionalRequest();
+		Request request = Request.Get(source).userAgent(getUserAgent()).connectTimeout(TIMEOUT)
+				.socketTimeout(TIMEOUT);
+		if (conditionalRequest != null && offset == 0) {
+			conditionalRequest.addHeaders(request);
+		}
+		if (offset > 0) {
+			logger.info(String.format("Resuming download of %1$s from byte %2$d", source, offset));
+			request.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+			request.addHeader(HttpHeaders.IF_RANGE, partial.getValidator());
+		}
+		final DownloadTrace trace = DownloadTrace.current();
+		task.setRequest(request);
+		trace.requestStarted();
+		return executor.execute(request).handleResponse(new ResponseHandler<Boolean>() {
+			@Override
+			public Boolean handleResponse(HttpResponse response) throws IOException {
+				trace.responseReceived();
+				StatusLine statusLine = response.getStatusLine();
+				HttpEntity entity = response.getEntity();
+				int status = statusLine.getStatusCode();
+				if (offset > 0 && status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+					EntityUtils.consume(entity);
+					return false;
+				}
+				if (conditionalRequest != null && status == HttpStatus.SC_NOT_MODIFIED) {
+					EntityUtils.consume(entity);
+					conditionalRequest.setNotModified();
+					return true;
+				}
+				if (status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+					EntityUtils.consume(entity);
+					throw new HttpResponseException(status, statusLine.getReasonPhrase());
+				}
+				boolean append = offset > 0 && status == HttpStatus.SC_PARTIAL_CONTENT;
+				if (append && getRangeStart(response) != offset) {
+					EntityUtils.consume(entity);
+					return false;
+				}
+				if (!append) {
+					// server sent the whole content
+					partial.restart(getValidator(response));
+				}
+				if (conditionalRequest != null) {
+					conditionalRequest.setValidators(response);
+				}
+				if (entity != null) {
+					long start = append ? offset : 0;
+					long length = entity.getContentLength();
+					task.transferStarted(start, length < 0 ? -1 : start + length);
+					try (OutputStream out = new DownloadOutputStream(append ? Files.newOutputStream(
+							partial.getFile(), StandardOpenOption.APPEND) : Files.newOutputStream(partial
+							.getFile()), scheduler, task)) {
+						entity.writeTo(out);
+					}
+					trace.transferred(Files.size(partial.getFile()) - start);
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * A future for an asynchronous download, which stops the download if it is cancelled.
+	 */
+	private abstract class DownloadFuture extends CompletableFuture<Path> implements Runnable {
+
+		private final DownloadTask task;
+		private final Path destination;
+
+		DownloadFuture(DownloadTask task, Path destination) {
+			this.task = task;
+			this.destination = destination;
+		}
+
+		abstract void download(DownloadTask task) throws DownloadException;
+
+		@Override
+		public void run() {
+			if (isDone()) {
+				// cancelled before it started
+				return;
+			}
+			task.setThread(Thread.currentThread());
+			try {
+				download(task);
+				complete(destination);
+			} catch (DownloadException | RuntimeException e) {
+				completeExceptionally(e);
+			} finally {
+				task.setThread(null);
+				// clear an interrupt from a cancel, so it doesn't affect the next download
+				Thread.interrupted();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			task.cancel();
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+	}
+
+	/**
+	 * Returns a strong <code>ETag</code> or the <code>Last-Modified</code> date that can be used in
+	 * an <code>If-Range</code> header, or <code>null</code> if the response has neither.
+	 */
+	private String getValidator(HttpResponse response) {
+		Header eTag = response.getFirstHeader(HttpHeaders.ETAG);
+		if (eTag != null && !eTag.getValue().startsWith("W/")) {
+			return eTag.getValue();
+		}
+		Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		if (lastModified != null) {
+			return lastModified.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the first byte position of a <code>Content-Range: bytes first-last/length</code>
+	 * header, or -1 if the header is missing or invalid.
+	 */
+	private long getRangeStart(HttpResponse response) {
+		Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+		if (contentRange != null) {
+			String value = contentRange.getValue().trim();
+			if (value.startsWith("bytes ") && value.indexOf('-') > 0) {
+				try {
+					return Long.parseLong(value.substring("bytes ".length(), value.indexOf('-')).trim());
+				} catch (NumberFormatException e) {
+					logger.debug("Invalid Content-Range " + value);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the proxy configuration to select proxies for HTTP connections. If it is not set the
+	 * default {@link ProxySelector} is used.
+	 * <p>
+	 * The proxy configuration service is optional, so this is called when the service is bound.
+	 *
+	 * @param httpProxyConfiguration
+	 *            the proxy configuration
+	 */
+	public void setHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
+		proxySelector = httpProxyConfiguration == null ? null : httpProxyConfiguration.getProxySelector();
+	}
+
+	/**
+	 * Stops using the proxy configuration when the service is unbound.
+	 */
+	public void unsetHttpProxyConfiguration(HttpProxyConfiguration httpProxyConfiguration) {
+		proxySelector = null;
+	}
+
+	ProxySelector getProxySelector() {
+		ProxySelector selector = proxySelector;
+		return selector == null ? ProxySelector.getDefault() : selector;
+	}
+
+	/**
+	 * Sets the application configuration, enabling the download cache and the saving of mirror
+	 * latencies in the application home directory.
+	 */
+	public void setApplicationConfiguration(ApplicationConfiguration applicationConfiguration) {
+		Path cacheDirectory = applicationConfiguration.getApplicationHomeDir().resolve("download-cache");
+		mirrorSelector.setFile(applicationConfiguration.getApplicationHomeDir().resolve("mirrors.properties"));
+		artifactCache = CACHE_SIZE > 0 ? new ArtifactCache(cacheDirectory, CACHE_SIZE) : null;
+	}
+
 	private String mapAlgorithmToFileExtension(String algorithm) {
 		return "." + algorithm.toLowerCase().replaceAll("-", "");
 	}
@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream for downloaded content that keeps within the bandwidth limit of a
+ * {@link DownloadScheduler}, reports the progress of the download and stops if the download is
+ * cancelled.
+ */
+class DownloadOutputStream extends FilterOutputStream {
+
+	private final DownloadScheduler scheduler;
+	private final DownloadTask task;
+
+	DownloadOutputStream(OutputStream out, DownloadScheduler scheduler, DownloadTask task) {
+		super(out);
+		this.scheduler = scheduler;
+		this.task = task;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		acquire(1);
+		out.write(b);
+		task.transferred(1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		acquire(len);
+		out.write(b, off, len);
+		task.transferred(len);
+	}
+
+	private void acquire(int bytes) throws IOException {
+		task.checkCancelled();
+		try {
+			scheduler.acquireBandwidth(bytes, task.getPriority());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for bandwidth");
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.taverna.download.DownloadPriority;
+
+/**
+ * Coordinates the downloads of all callers of the download manager.
+ * <p>
+ * Each host has a limited number of connection slots. Waiting downloads get a free slot in
+ * priority order, and in the order they asked for it within a priority. If a global bandwidth
+ * limit is set, downloads take their bytes from a shared token bucket that refills at the limit,
+ * and lower priority downloads wait while higher priority downloads are waiting for bandwidth.
+ */
+class DownloadScheduler {
+
+	private final int maxConnectionsPerHost;
+	private final long maxBytesPerSecond;
+
+	private final Map<String, Integer> activeConnections = new HashMap<String, Integer>();
+	private final List<Waiter> connectionWaiters = new ArrayList<Waiter>();
+	private final int[] bandwidthWaiters = new int[DownloadPriority.values().length];
+	private long sequence;
+
+	private long tokens;
+	private long lastRefill;
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param maxConnectionsPerHost
+	 *            the maximum number of concurrent downloads from a host
+	 * @param maxBytesPerSecond
+	 *            the global bandwidth limit, or 0 for no limit
+	 */
+	DownloadScheduler(int maxConnectionsPerHost, long maxBytesPerSecond) {
+		this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+		this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+		tokens = this.maxBytesPerSecond;
+		lastRefill = System.nanoTime();
+	}
+
+	int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Waits for a free connection slot for the host. Every call must be followed by a call to
+	 * {@link #releaseConnection(String)}.
+	 */
+	synchronized void acquireConnection(String host, DownloadPriority priority)
+			throws InterruptedException {
+		Waiter waiter = new Waiter(host, priority, sequence++);
+		connectionWaiters.add(waiter);
+		try {
+			while (getActiveConnections(host) >= maxConnectionsPerHost || hasWaiterBefore(waiter)) {
+				wait();
+			}
+			activeConnections.put(host, getActiveConnections(host) + 1);
+		} finally {
+			connectionWaiters.remove(waiter);
+			notifyAll();
+		}
+	}
+
+	synchronized void releaseConnection(String host) {
+		int active = getActiveConnections(host) - 1;
+		if (active > 0) {
+			activeConnections.put(host, active);
+		} else {
+			activeConnections.remove(host);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the bytes can be transferred without exceeding the bandwidth limit.
+	 */
+	synchronized void acquireBandwidth(int bytes, DownloadPriority priority)
+			throws InterruptedException {
+		if (maxBytesPerSecond == 0) {
+			return;
+		}
+		bandwidthWaiters[priority.ordinal()]++;
+		try {
+			while (true) {
+				refill();
+				if (tokens > 0 && !hasHigherPriorityWaiter(priority)) {
+					// may go into debt for large reads, which later reads pay back
+					tokens -= bytes;
+					return;
+				}
+				long wait = tokens > 0 ? 10 : Math.max(1, (1 - tokens) * 1000 / maxBytesPerSecond);
+				wait(wait);
+			}
+		} finally {
+			bandwidthWaiters[priority.ordinal()]--;
+			notifyAll();
+		}
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		long refill = (now - lastRefill) * maxBytesPerSecond / 1000000000L;
+		if (refill > 0) {
+			// allow bursts of up to one second
+			tokens = Math.min(maxBytesPerSecond, tokens + refill);
+			lastRefill = now;
+		}
+	}
+
+	private boolean hasHigherPriorityWaiter(DownloadPriority priority) {
+		for (int i = 0; i < priority.ordinal(); i++) {
+			if (bandwidthWaiters[i] > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getActiveConnections(String host) {
+		Integer active = activeConnections.get(host);
+		return active == null ? 0 : active;
+	}
+
+	private boolean hasWaiterBefore(Waiter waiter) {
+		for (Waiter other : connectionWaiters) {
+			if (other.host.equals(waiter.host) && other.isBefore(waiter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Waiter {
+
+		private final String host;
+		private final DownloadPriority priority;
+		private final long sequence;
+
+		Waiter(String host, DownloadPriority priority, long sequence) {
+			this.host = host;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		boolean isBefore(Waiter other) {
+			if (priority != other.priority) {
+				return priority.ordinal() < other.priority.ordinal();
+			}
+			return sequence < other.sequence;
+		}
+
+	}
+
+}
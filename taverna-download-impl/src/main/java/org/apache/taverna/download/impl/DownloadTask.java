@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.InterruptedIOException;
+
+import org.apache.http.client.fluent.Request;
+import org.apache.taverna.download.DownloadListener;
+import org.apache.taverna.download.DownloadPriority;
+
+/**
+ * A download in progress, with its priority, progress listener and cancellation state.
+ */
+class DownloadTask {
+
+	private final DownloadPriority priority;
+	private final DownloadListener listener;
+
+	private volatile boolean cancelled;
+	private Thread thread;
+	private Request request;
+	private ConditionalRequest conditionalRequest;
+
+	private long bytesDownloaded;
+	private long totalBytes = -1;
+
+	DownloadTask(DownloadPriority priority, DownloadListener listener) {
+		this.priority = priority;
+		this.listener = listener;
+	}
+
+	DownloadPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Stops the download, interrupting the thread running it and aborting its HTTP request.
+	 */
+	synchronized void cancel() {
+		cancelled = true;
+		if (request != null) {
+			request.abort();
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws InterruptedIOException
+	 *             if the download has been cancelled
+	 */
+	void checkCancelled() throws InterruptedIOException {
+		if (cancelled) {
+			throw new InterruptedIOException("Download cancelled");
+		}
+	}
+
+	/**
+	 * Sets the thread running the download, or <code>null</code> when the download has finished.
+	 */
+	synchronized void setThread(Thread thread) {
+		this.thread = thread;
+	}
+
+	/**
+	 * Sets the HTTP request in progress, so that it can be aborted if the download is cancelled.
+	 */
+	synchronized void setRequest(Request request) throws InterruptedIOException {
+		checkCancelled();
+		this.request = request;
+	}
+
+	/**
+	 * Returns the validators to make the HTTP request conditional on, or <code>null</code> if the
+	 * download is unconditional.
+	 */
+	ConditionalRequest getConditionalRequest() {
+		return conditionalRequest;
+	}
+
+	void setConditionalRequest(ConditionalRequest conditionalRequest) {
+		this.conditionalRequest = conditionalRequest;
+	}
+
+	/**
+	 * Records that the content is being transferred, starting at a number of bytes already
+	 * downloaded.
+	 */
+	void transferStarted(long bytesDownloaded, long totalBytes) {
+		this.bytesDownloaded = bytesDownloaded;
+		this.totalBytes = totalBytes;
+		progress();
+	}
+
+	void transferred(long bytes) {
+		bytesDownloaded += bytes;
+		progress();
+	}
+
+	private void progress() {
+		if (listener != null) {
+			listener.progress(bytesDownloaded, totalBytes);
+		}
+	}
+
+}
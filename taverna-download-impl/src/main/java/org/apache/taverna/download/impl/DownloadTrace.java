@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.net.URI;
+
+/**
+ * Timings for a single download.
+ * <p>
+ * The trace for the download in progress on the current thread is available from
+ * {@link #current()}, so that the DNS resolver and socket factories used by the HTTP client can
+ * add to it.
+ */
+class DownloadTrace {
+
+	private static final ThreadLocal<DownloadTrace> currentTrace = new ThreadLocal<DownloadTrace>();
+
+	long dnsTime;
+	long connectTime;
+	long timeToFirstByte;
+	long transferTime;
+	long digestTime;
+	long bytes;
+	int retries;
+	/**
+	 * The source, or mirror of the source, that the content was last requested from, or
+	 * <code>null</code> if it wasn't requested.
+	 */
+	URI source;
+	/** <code>null</code> if the cache wasn't used for the download. */
+	Boolean cacheHit;
+
+	private long requestStart;
+	private long transferStart;
+
+	/**
+	 * Starts tracing a download on the current thread.
+	 */
+	static DownloadTrace start() {
+		DownloadTrace trace = new DownloadTrace();
+		currentTrace.set(trace);
+		return trace;
+	}
+
+	/**
+	 * Stops tracing the download on the current thread.
+	 */
+	static void finish() {
+		currentTrace.remove();
+	}
+
+	/**
+	 * Returns the trace for the download on the current thread, or <code>null</code> if there is
+	 * no download in progress.
+	 */
+	static DownloadTrace current() {
+		return currentTrace.get();
+	}
+
+	void requestStarted() {
+		requestStart = System.nanoTime();
+	}
+
+	/**
+	 * Records the time to first byte, and starts timing the transfer.
+	 */
+	void responseReceived() {
+		transferStart = System.nanoTime();
+		timeToFirstByte += transferStart - requestStart;
+	}
+
+	void transferStarted() {
+		transferStart = System.nanoTime();
+	}
+
+	void transferred(long bytes) {
+		transferTime += System.nanoTime() - transferStart;
+		this.bytes += bytes;
+	}
+
+}
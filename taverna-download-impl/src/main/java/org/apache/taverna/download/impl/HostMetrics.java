@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.taverna.download.DownloadMetrics;
+
+/**
+ * The download metrics for one host, accumulated from {@link DownloadTrace}s.
+ */
+public class HostMetrics implements HostMetricsMBean {
+
+	private final String host;
+
+	private long downloads;
+	private long failures;
+	private long retries;
+	private long cacheHits;
+	private long cacheMisses;
+	private long bytes;
+	// times in nanoseconds
+	private long dnsTime;
+	private long connectTime;
+	private long timeToFirstByte;
+	private long transferTime;
+	private long digestTime;
+
+	HostMetrics(String host) {
+		this.host = host;
+	}
+
+	synchronized void add(DownloadTrace trace, boolean success) {
+		downloads++;
+		if (!success) {
+			failures++;
+		}
+		retries += trace.retries;
+		if (trace.cacheHit != null) {
+			if (trace.cacheHit) {
+				cacheHits++;
+			} else {
+				cacheMisses++;
+			}
+		}
+		bytes += trace.bytes;
+		dnsTime += trace.dnsTime;
+		connectTime += trace.connectTime;
+		timeToFirstByte += trace.timeToFirstByte;
+		transferTime += trace.transferTime;
+		digestTime += trace.digestTime;
+	}
+
+	synchronized DownloadMetrics getSnapshot() {
+		return new DownloadMetrics(host, downloads, failures, retries, cacheHits, cacheMisses,
+				bytes, toMillis(dnsTime), toMillis(connectTime), toMillis(timeToFirstByte),
+				toMillis(transferTime), toMillis(digestTime));
+	}
+
+	private long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	@Override
+	public String getHost() {
+		return host;
+	}
+
+	@Override
+	public long getDownloads() {
+		return getSnapshot().getDownloads();
+	}
+
+	@Override
+	public long getFailures() {
+		return getSnapshot().getFailures();
+	}
+
+	@Override
+	public long getRetries() {
+		return getSnapshot().getRetries();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return getSnapshot().getCacheHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return getSnapshot().getCacheMisses();
+	}
+
+	@Override
+	public long getBytes() {
+		return getSnapshot().getBytes();
+	}
+
+	@Override
+	public long getDnsTime() {
+		return getSnapshot().getDnsTime();
+	}
+
+	@Override
+	public long getConnectTime() {
+		return getSnapshot().getConnectTime();
+	}
+
+	@Override
+	public long getTimeToFirstByte() {
+		return getSnapshot().getTimeToFirstByte();
+	}
+
+	@Override
+	public long getTransferTime() {
+		return getSnapshot().getTransferTime();
+	}
+
+	@Override
+	public long getDigestTime() {
+		return getSnapshot().getDigestTime();
+	}
+
+	@Override
+	public long getThroughput() {
+		return getSnapshot().getThroughput();
+	}
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+/**
+ * JMX management interface for the download metrics of one host.
+ * <p>
+ * Times are totals in milliseconds.
+ */
+public interface HostMetricsMBean {
+
+	public String getHost();
+
+	public long getDownloads();
+
+	public long getFailures();
+
+	public long getRetries();
+
+	public long getCacheHits();
+
+	public long getCacheMisses();
+
+	public long getBytes();
+
+	public long getDnsTime();
+
+	public long getConnectTime();
+
+	public long getTimeToFirstByte();
+
+	public long getTransferTime();
+
+	public long getDigestTime();
+
+	public long getThroughput();
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Chooses between the mirrors of a site, fastest first.
+ * <p>
+ * The latency of each mirror is measured while downloading from it and kept as a moving average.
+ * A failed download counts as a slow response, so a mirror that is down drops to the end of the
+ * list. Mirrors that haven't been measured yet are tried first, so that every mirror gets a
+ * measurement. If a file is set the latencies are saved in it, so the ranking carries over
+ * between runs.
+ */
+class MirrorSelector {
+
+	private static final Logger logger = Logger.getLogger(MirrorSelector.class);
+
+	private final long failureLatency;
+
+	/** The mirrors for each site, including the site itself. */
+	private final Map<String, List<String>> sites = new HashMap<String, List<String>>();
+	private final Map<String, Long> latencies = new HashMap<String, Long>();
+
+	private Path file;
+
+	/**
+	 * Creates a mirror selector.
+	 *
+	 * @param failureLatency
+	 *            the latency in milliseconds to record for a failed download
+	 */
+	MirrorSelector(long failureLatency) {
+		this.failureLatency = failureLatency;
+	}
+
+	/**
+	 * Sets the file to read and save the mirror latencies.
+	 */
+	synchronized void setFile(Path file) {
+		this.file = file;
+		latencies.clear();
+		if (Files.isRegularFile(file)) {
+			Properties properties = new Properties();
+			try (InputStream in = Files.newInputStream(file)) {
+				properties.load(in);
+			} catch (IOException e) {
+				logger.warn("Error reading mirror latencies from " + file, e);
+			}
+			for (String mirror : properties.stringPropertyNames()) {
+				try {
+					latencies.put(mirror, Long.parseLong(properties.getProperty(mirror)));
+				} catch (NumberFormatException e) {
+					logger.debug("Invalid latency for mirror " + mirror);
+				}
+			}
+		}
+	}
+
+	synchronized void setMirrors(URI site, List<URI> mirrors) {
+		List<String> bases = new ArrayList<String>();
+		bases.add(toBase(site));
+		for (URI mirror : mirrors) {
+			String base = toBase(mirror);
+			if (!bases.contains(base)) {
+				bases.add(base);
+			}
+		}
+		sites.put(bases.get(0), bases);
+	}
+
+	/**
+	 * Returns the source and the same file on each mirror of its site, fastest first.
+	 */
+	synchronized List<URI> getSources(URI source) {
+		String sourceString = source.toString();
+		List<String> mirrors = sites.get(findBase(sites.keySet(), sourceString));
+		if (mirrors == null) {
+			return Collections.singletonList(source);
+		}
+		String path = sourceString.substring(mirrors.get(0).length());
+		List<String> ranked = new ArrayList<String>(mirrors);
+		// stable, so the site itself stays first among unmeasured mirrors
+		Collections.sort(ranked, new Comparator<String>() {
+			@Override
+			public int compare(String mirror1, String mirror2) {
+				return Long.compare(getLatency(mirror1), getLatency(mirror2));
+			}
+		});
+		List<URI> sources = new ArrayList<URI>();
+		for (String mirror : ranked) {
+			sources.add(URI.create(mirror + path));
+		}
+		return sources;
+	}
+
+	/**
+	 * Records the time a mirror took to respond to a request for the source.
+	 */
+	synchronized void recordLatency(URI source, long latency) {
+		String mirror = findMirror(source);
+		if (mirror != null) {
+			Long average = latencies.get(mirror);
+			latencies.put(mirror, average == null ? latency : (average * 3 + latency) / 4);
+			save();
+		}
+	}
+
+	synchronized void recordFailure(URI source) {
+		String mirror = findMirror(source);
+		if (mirror != null) {
+			Long average = latencies.get(mirror);
+			latencies.put(mirror, average == null ? failureLatency : Math.max(average * 2, failureLatency));
+			save();
+		}
+	}
+
+	private long getLatency(String mirror) {
+		Long latency = latencies.get(mirror);
+		return latency == null ? 0 : latency;
+	}
+
+	private String findMirror(URI source) {
+		List<String> mirrors = new ArrayList<String>();
+		for (List<String> siteMirrors : sites.values()) {
+			mirrors.addAll(siteMirrors);
+		}
+		return findBase(mirrors, source.toString());
+	}
+
+	/**
+	 * Returns the longest base that the source starts with.
+	 */
+	private String findBase(Iterable<String> bases, String source) {
+		String found = null;
+		for (String base : bases) {
+			if (source.startsWith(base) && (found == null || base.length() > found.length())) {
+				found = base;
+			}
+		}
+		return found;
+	}
+
+	private String toBase(URI site) {
+		String base = site.toString();
+		return base.endsWith("/") ? base : base + "/";
+	}
+
+	private void save() {
+		if (file == null) {
+			return;
+		}
+		Properties properties = new Properties();
+		for (Entry<String, Long> latency : latencies.entrySet()) {
+			properties.setProperty(latency.getKey(), latency.getValue().toString());
+		}
+		try {
+			Files.createDirectories(file.getParent());
+			Path tempFile = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+			try {
+				try (OutputStream out = Files.newOutputStream(tempFile)) {
+					properties.store(out, "Mirror latencies in milliseconds");
+				}
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (IOException e) {
+			logger.warn("Error saving mirror latencies to " + file, e);
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A partially downloaded file that can be resumed by a later download of the same source.
+ * <p>
+ * The partial content is kept next to the destination in a hidden <code>.part</code> file, together
+ * with a small properties file recording the source and the validator (<code>ETag</code> or
+ * <code>Last-Modified</code>) that the server sent for it. A partial file is only resumed if it was
+ * downloaded from the same source.
+ * <p>
+ * Only one download to a destination can use its partial file at a time. A lock is held on a
+ * <code>.part.lock</code> file, by this or another process, until the partial download is closed,
+ * and a second download to the same destination fails rather than corrupting the partial file.
+ */
+class PartialDownload implements Closeable {
+
+	private static final String SOURCE = "source";
+	private static final String VALIDATOR = "validator";
+
+	private static final Logger logger = Logger.getLogger(PartialDownload.class);
+
+	private final URI source;
+	private final Path file;
+	private final Path metadataFile;
+	private final Path lockFile;
+	private final FileChannel lockChannel;
+
+	private String validator;
+
+	/**
+	 * Locks the partial file for the destination and reads the metadata of any earlier partial
+	 * download.
+	 *
+	 * @throws IOException
+	 *             if the destination is already being downloaded to, or the lock file cannot be
+	 *             created
+	 */
+	PartialDownload(URI source, Path destination) throws IOException {
+		this.source = source;
+		file = destination.resolveSibling("." + destination.getFileName() + ".part");
+		metadataFile = destination.resolveSibling("." + destination.getFileName() + ".part.info");
+		lockFile = destination.resolveSibling("." + destination.getFileName() + ".part.lock");
+		lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// locked by this process
+			lock = null;
+		} catch (IOException e) {
+			lockChannel.close();
+			throw e;
+		}
+		// the lock file may have been deleted by a download that has just finished
+		if (lock == null || !Files.exists(lockFile)) {
+			lockChannel.close();
+			throw new IOException(String.format("%1$s is already being downloaded", destination));
+		}
+		readMetadata();
+	}
+
+	/**
+	 * Returns the file the content is downloaded to.
+	 *
+	 * @return the file the content is downloaded to
+	 */
+	Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the validator the server sent with the partial content, or <code>null</code> if
+	 * there is no validator.
+	 *
+	 * @return the validator the server sent with the partial content
+	 */
+	String getValidator() {
+		return validator;
+	}
+
+	/**
+	 * Returns the number of bytes already downloaded, or 0 if the download must start from the
+	 * beginning.
+	 *
+	 * @return the number of bytes already downloaded
+	 */
+	long getResumeOffset() {
+		if (validator == null || !Files.isRegularFile(file)) {
+			return 0;
+		}
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Starts the download again from the beginning, remembering the validator for the new content.
+	 *
+	 * @param validator
+	 *            the validator for the new content, may be <code>null</code>
+	 * @throws IOException
+	 *             if the partial file cannot be truncated
+	 */
+	void restart(String validator) throws IOException {
+		this.validator = validator;
+		Files.deleteIfExists(metadataFile);
+		Files.write(file, new byte[0]);
+		if (validator != null) {
+			writeMetadata();
+		}
+	}
+
+	/**
+	 * Deletes the partial file and its metadata.
+	 */
+	void discard() {
+		validator = null;
+		try {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(metadataFile);
+		} catch (IOException e) {
+			logger.warn("Error deleting partial download " + file, e);
+		}
+	}
+
+	/**
+	 * Moves the completed download to the destination and deletes the metadata.
+	 *
+	 * @param destination
+	 *            the final location of the download
+	 * @throws IOException
+	 *             if the file cannot be moved
+	 */
+	void complete(Path destination) throws IOException {
+		Files.move(file, destination, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(metadataFile);
+	}
+
+	/**
+	 * Releases the lock on the partial file, keeping the partial file so a later download can
+	 * resume it.
+	 */
+	@Override
+	public void close() {
+		try {
+			// delete the lock file while holding the lock, so a download that locks it afterwards
+			// finds it has gone instead of sharing the partial file with a newer lock file
+			try {
+				Files.deleteIfExists(lockFile);
+			} finally {
+				// closing the channel releases the lock
+				lockChannel.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Error releasing lock on partial download " + file, e);
+		}
+	}
+
+	private void readMetadata() {
+		if (!Files.isRegularFile(metadataFile)) {
+			return;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(metadataFile)) {
+			properties.load(in);
+		} catch (IOException e) {
+			logger.warn("Error reading partial download metadata " + metadataFile, e);
+			return;
+		}
+		if (source.toString().equals(properties.getProperty(SOURCE))) {
+			validator = properties.getProperty(VALIDATOR);
+		}
+	}
+
+	private void writeMetadata() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(SOURCE, source.toString());
+		properties.setProperty(VALIDATOR, validator);
+		try (OutputStream out = Files.newOutputStream(metadataFile)) {
+			properties.store(out, "");
+		}
+	}
+
+}
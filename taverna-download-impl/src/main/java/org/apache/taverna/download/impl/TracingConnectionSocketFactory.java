@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Connects sockets using another socket factory, adding the time taken to connect (including any
+ * TLS handshake) to the current {@link DownloadTrace}.
+ */
+class TracingConnectionSocketFactory implements LayeredConnectionSocketFactory {
+
+	private final ConnectionSocketFactory socketFactory;
+
+	TracingConnectionSocketFactory(ConnectionSocketFactory socketFactory) {
+		this.socketFactory = socketFactory;
+	}
+
+	@Override
+	public Socket createSocket(HttpContext context) throws IOException {
+		return socketFactory.createSocket(context);
+	}
+
+	@Override
+	public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host,
+			InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context)
+			throws IOException {
+		long start = System.nanoTime();
+		try {
+			return socketFactory.connectSocket(connectTimeout, socket, host, remoteAddress,
+					localAddress, context);
+		} finally {
+			addConnectTime(start);
+		}
+	}
+
+	@Override
+	public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+			throws IOException {
+		if (!(socketFactory instanceof LayeredConnectionSocketFactory)) {
+			throw new IOException("Can't layer a socket over " + target);
+		}
+		long start = System.nanoTime();
+		try {
+			return ((LayeredConnectionSocketFactory) socketFactory).createLayeredSocket(socket,
+					target, port, context);
+		} finally {
+			addConnectTime(start);
+		}
+	}
+
+	private void addConnectTime(long start) {
+		DownloadTrace trace = DownloadTrace.current();
+		if (trace != null) {
+			trace.connectTime += System.nanoTime() - start;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestArtifactCache {
+
+	private Path cacheDirectory;
+
+	private Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		cacheDirectory = Files.createTempDirectory("download-cache");
+		file = Files.createTempFile("test", ".txt");
+		Files.write(file, "Hello world".getBytes(US_ASCII));
+	}
+
+	@Test
+	public void getCachedFile() throws Exception {
+		ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024);
+		cache.put("MD5", "3e25960a79dbc69b674cd4ec67a72c62", URI.create("file:///test.txt"), file);
+
+		Path destination = Files.createTempFile("cached", ".txt");
+		assertTrue(cache.get("MD5", "3e25960a79dbc69b674cd4ec67a72c62", destination));
+		assertEquals("Hello world", new String(Files.readAllBytes(destination), US_ASCII));
+		assertFalse(cache.get("SHA-1", "3e25960a79dbc69b674cd4ec67a72c62", destination));
+	}
+
+	@Test
+	public void removeCachedFile() throws Exception {
+		ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024);
+		cache.put("MD5", "3e25960a79dbc69b674cd4ec67a72c62", URI.create("file:///test.txt"), file);
+		cache.remove("MD5", "3e25960a79dbc69b674cd4ec67a72c62");
+
+		Path destination = Files.createTempFile("cached", ".txt");
+		assertFalse(cache.get("MD5", "3e25960a79dbc69b674cd4ec67a72c62", destination));
+		assertFalse(Files.exists(cacheDirectory.resolve("md5").resolve(
+				"3e25960a79dbc69b674cd4ec67a72c62")));
+		cache.put("MD5", "3e25960a79dbc69b674cd4ec67a72c62", URI.create("file:///test.txt"), file);
+		assertTrue(cache.get("MD5", "3e25960a79dbc69b674cd4ec67a72c62", destination));
+	}
+
+	@Test
+	public void cacheReadFromDirectory() throws Exception {
+		new ArtifactCache(cacheDirectory, 1024).put("MD5", "3e25960a79dbc69b674cd4ec67a72c62",
+				URI.create("file:///test.txt"), file);
+
+		ArtifactCache cache = new ArtifactCache(cacheDirectory, 1024);
+		Path destination = Files.createTempFile("cached", ".txt");
+		assertTrue(cache.get("MD5", "3e25960a79dbc69b674cd4ec67a72c62", destination));
+	}
+
+	@Test
+	public void leastRecentlyUsedRemoved() throws Exception {
+		// room for two 11 byte files
+		ArtifactCache cache = new ArtifactCache(cacheDirectory, 25);
+		Path destination = Files.createTempFile("cached", ".txt");
+		cache.put("MD5", "aa", URI.create("file:///a.txt"), file);
+		cache.put("MD5", "bb", URI.create("file:///b.txt"), file);
+		assertTrue(cache.get("MD5", "aa", destination));
+		cache.put("MD5", "cc", URI.create("file:///c.txt"), file);
+
+		assertTrue(cache.get("MD5", "aa", destination));
+		assertFalse(cache.get("MD5", "bb", destination));
+		assertTrue(cache.get("MD5", "cc", destination));
+	}
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConditionalRequest {
+
+	private URI source = URI.create("http://www.example.com/updates.xml");
+
+	private Path destination;
+
+	private BasicHttpResponse response;
+
+	@Before
+	public void setUp() throws Exception {
+		destination = Files.createTempDirectory("download").resolve("updates.xml");
+		Files.write(destination, "<updates/>".getBytes(US_ASCII));
+		response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		response.addHeader(HttpHeaders.ETAG, "\"abc\"");
+	}
+
+	@Test
+	public void validatorsForSameSource() throws Exception {
+		ConditionalRequest request = new ConditionalRequest(source, destination);
+		assertFalse(request.hasValidators());
+		request.setValidators(response);
+		request.save();
+
+		assertTrue(new ConditionalRequest(source, destination).hasValidators());
+		assertFalse(new ConditionalRequest(URI.create("http://www.example.com/other.xml"),
+				destination).hasValidators());
+	}
+
+	@Test
+	public void noValidatorsWithoutDestination() throws Exception {
+		ConditionalRequest request = new ConditionalRequest(source, destination);
+		request.setValidators(response);
+		request.save();
+		Files.delete(destination);
+
+		assertFalse(new ConditionalRequest(source, destination).hasValidators());
+	}
+
+	@Test
+	public void noValidatorsInResponse() throws Exception {
+		ConditionalRequest request = new ConditionalRequest(source, destination);
+		request.setValidators(response);
+		request.save();
+		request.setValidators(new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"));
+		request.save();
+
+		assertFalse(new ConditionalRequest(source, destination).hasValidators());
+	}
+
+}
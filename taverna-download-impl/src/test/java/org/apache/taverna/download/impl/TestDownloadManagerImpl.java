@@ -18,15 +18,38 @@ package org.apache.taverna.download.impl;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.taverna.configuration.app.ApplicationConfiguration;
 import org.apache.taverna.download.DownloadException;
+import org.apache.taverna.download.DownloadListener;
+import org.apache.taverna.download.DownloadMetrics;
+import org.apache.taverna.download.DownloadPriority;
+import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class TestDownloadManagerImpl {
 	
 	/**
@@ -80,6 +103,406 @@ public class TestDownloadManagerImpl {
 		assertEquals("Hello world", hello);		
 	}
 
+	/**
+	 * Test downloading with a known digest, so no digest file is needed.
+	 */
+	@Test
+	public void downloadLocalFileKnownDigest() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+
+		Path toFile = Files.createTempFile("downloaded", ".txt");
+		// echo -n "Hello world" | sha256sum
+		dl.downloadWithDigest(example.toUri(), toFile, "SHA-256",
+				"64ec88ca00b268e5ba1a35678a1b5316d212f4f366b2477232534a8aeca37f3c");
+		assertEquals("Hello world", Files.readAllLines(toFile, US_ASCII).get(0));
+	}
+
+	@Test(expected=DownloadException.class)
+	public void downloadLocalFileChecksumMismatch() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+		Path exampleSha1 = example.resolveSibling(example.getFileName() + ".sha1");
+		Files.write(exampleSha1, "0000000000000000000000000000000000000000".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		dl.download(example.toUri(), Files.createTempFile("downloaded", ".txt"), "SHA-1");
+	}
+
+	/**
+	 * Test failing over from a site with a corrupt copy to a mirror with a good copy.
+	 */
+	@Test
+	public void downloadFromMirror() throws Exception {
+		Path site = Files.createTempDirectory("site");
+		Files.write(site.resolve("test.txt"), "Hello wurld".getBytes(US_ASCII));
+		Path mirror = Files.createTempDirectory("mirror");
+		Files.write(mirror.resolve("test.txt"), "Hello world".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			dl.setMirrors(site.toUri(), Arrays.asList(mirror.toUri()));
+			Path toFile = Files.createTempFile("downloaded", ".txt");
+			dl.downloadWithDigest(site.resolve("test.txt").toUri(), toFile, "SHA-256",
+					"64ec88ca00b268e5ba1a35678a1b5316d212f4f366b2477232534a8aeca37f3c");
+			assertEquals("Hello world", Files.readAllLines(toFile, US_ASCII).get(0));
+		} finally {
+			dl.close();
+		}
+	}
+
+	@Test
+	public void downloadAsync() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			final AtomicLong progress = new AtomicLong();
+			Path toFile = Files.createTempFile("downloaded", ".txt");
+			Path downloaded = dl.downloadAsync(example.toUri(), toFile, "SHA-256",
+					"64ec88ca00b268e5ba1a35678a1b5316d212f4f366b2477232534a8aeca37f3c",
+					DownloadPriority.INTERACTIVE, new DownloadListener() {
+						@Override
+						public void progress(long bytesDownloaded, long totalBytes) {
+							progress.set(bytesDownloaded);
+						}
+					}).get(10, TimeUnit.SECONDS);
+			assertEquals(toFile, downloaded);
+			assertEquals("Hello world", Files.readAllLines(toFile, US_ASCII).get(0));
+			assertEquals(11, progress.get());
+		} finally {
+			dl.close();
+		}
+	}
+
+	@Test
+	public void downloadAsyncChecksumMismatch() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			dl.downloadAsync(example.toUri(), Files.createTempFile("downloaded", ".txt"), "SHA-256",
+					"0000000000000000000000000000000000000000000000000000000000000000",
+					DownloadPriority.NORMAL, null).get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DownloadException);
+			return;
+		} finally {
+			dl.close();
+		}
+		throw new AssertionError("Expected DownloadException");
+	}
+
+	@Test
+	public void downloadMetrics() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			dl.download(example.toUri(), Files.createTempFile("downloaded", ".txt"));
+			try {
+				dl.downloadWithDigest(example.toUri(), Files.createTempFile("downloaded", ".txt"),
+						"SHA-256", "0000000000000000000000000000000000000000000000000000000000000000");
+			} catch (DownloadException e) {
+			}
+
+			List<DownloadMetrics> metrics = dl.getMetrics();
+			assertEquals(1, metrics.size());
+			assertEquals("file", metrics.get(0).getHost());
+			assertEquals(2, metrics.get(0).getDownloads());
+			assertEquals(1, metrics.get(0).getFailures());
+			assertEquals(22, metrics.get(0).getBytes());
+		} finally {
+			dl.close();
+		}
+	}
+
+	/**
+	 * Test that a download from a mirror is charged to the mirror's host, not the site's.
+	 */
+	@Test
+	public void mirrorDownloadMetrics() throws Exception {
+		Path site = Files.createTempDirectory("site");
+		Files.write(site.resolve("test.txt"), "Hello wurld".getBytes(US_ASCII));
+		HttpServer mirror = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "Hello world");
+			}
+		});
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			URI mirrorSource = getURI(mirror);
+			dl.setMirrors(site.toUri(), Arrays.asList(mirrorSource.resolve("/")));
+			dl.downloadWithDigest(site.resolve("test.txt").toUri(),
+					Files.createTempFile("downloaded", ".txt"), "SHA-256",
+					"64ec88ca00b268e5ba1a35678a1b5316d212f4f366b2477232534a8aeca37f3c");
+
+			List<DownloadMetrics> metrics = dl.getMetrics();
+			assertEquals(1, metrics.size());
+			assertEquals("http://" + mirrorSource.getRawAuthority(), metrics.get(0).getHost());
+			assertEquals(1, metrics.get(0).getDownloads());
+			assertEquals(0, metrics.get(0).getFailures());
+		} finally {
+			dl.close();
+			mirror.stop(0);
+		}
+	}
+
+	@Test
+	public void downloadCorruptCachedFile() throws Exception {
+		Path example = Files.createTempFile("test", ".txt");
+		Files.write(example, "Hello world".getBytes(US_ASCII));
+		String digest = "64ec88ca00b268e5ba1a35678a1b5316d212f4f366b2477232534a8aeca37f3c";
+		Path home = Files.createTempDirectory("home");
+
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			dl.setApplicationConfiguration(applicationConfiguration(home));
+			dl.downloadWithDigest(example.toUri(), Files.createTempFile("downloaded", ".txt"),
+					"SHA-256", digest);
+			Path cachedFile = home.resolve("download-cache").resolve("sha256").resolve(digest);
+			assertTrue("download should be cached", Files.exists(cachedFile));
+			Files.write(cachedFile, "Hello wrld!".getBytes(US_ASCII));
+
+			Path toFile = Files.createTempFile("downloaded", ".txt");
+			dl.downloadWithDigest(example.toUri(), toFile, "SHA-256", digest);
+			assertEquals("Hello world", new String(Files.readAllBytes(toFile), US_ASCII));
+			assertEquals("corrupt cached file should be replaced", "Hello world",
+					new String(Files.readAllBytes(cachedFile), US_ASCII));
+			assertEquals(0, dl.getMetrics().get(0).getCacheHits());
+
+			dl.downloadWithDigest(example.toUri(), toFile, "SHA-256", digest);
+			assertEquals(1, dl.getMetrics().get(0).getCacheHits());
+		} finally {
+			dl.close();
+		}
+	}
+
+	@Test
+	public void resumeHttpDownload() throws Exception {
+		final List<Headers> requests = new CopyOnWriteArrayList<Headers>();
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.add(exchange.getRequestHeaders());
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if ("bytes=5-".equals(exchange.getRequestHeaders().getFirst("Range"))
+						&& "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes 5-10/11");
+					respond(exchange, 206, " world");
+				} else {
+					respond(exchange, 200, "Hello world");
+				}
+			}
+		});
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			URI source = getURI(server);
+			Path destination = Files.createTempDirectory("download").resolve("test.txt");
+			writePartial(source, destination, "\"v1\"", "Hello");
+
+			dl.download(source, destination);
+			assertEquals("Hello world", new String(Files.readAllBytes(destination), US_ASCII));
+			assertEquals(1, requests.size());
+			assertEquals("only the missing bytes should be downloaded", "bytes=5-",
+					requests.get(0).getFirst("Range"));
+		} finally {
+			dl.close();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void restartHttpDownloadWhenRangeNotSatisfiable() throws Exception {
+		final List<Headers> requests = new CopyOnWriteArrayList<Headers>();
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.add(exchange.getRequestHeaders());
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if (exchange.getRequestHeaders().containsKey("Range")) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes */11");
+					respond(exchange, 416, "");
+				} else {
+					respond(exchange, 200, "Hello world");
+				}
+			}
+		});
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			URI source = getURI(server);
+			Path destination = Files.createTempDirectory("download").resolve("test.txt");
+			// more than the server has, e.g. the file has been replaced by a shorter one
+			writePartial(source, destination, "\"v1\"", "Hello world, again");
+
+			dl.download(source, destination);
+			assertEquals("Hello world", new String(Files.readAllBytes(destination), US_ASCII));
+			assertEquals(2, requests.size());
+			assertNull("the download should restart from the beginning",
+					requests.get(1).getFirst("Range"));
+		} finally {
+			dl.close();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void restartHttpDownloadWhenContentRangeDiffers() throws Exception {
+		final List<Headers> requests = new CopyOnWriteArrayList<Headers>();
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.add(exchange.getRequestHeaders());
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if (exchange.getRequestHeaders().containsKey("Range")) {
+					// not the range that was asked for
+					exchange.getResponseHeaders().set("Content-Range", "bytes 0-10/11");
+					respond(exchange, 206, "Hello world");
+				} else {
+					respond(exchange, 200, "Hello world");
+				}
+			}
+		});
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			URI source = getURI(server);
+			Path destination = Files.createTempDirectory("download").resolve("test.txt");
+			writePartial(source, destination, "\"v1\"", "Hello");
+
+			dl.download(source, destination);
+			assertEquals("Hello world", new String(Files.readAllBytes(destination), US_ASCII));
+			assertEquals(2, requests.size());
+			assertNull("the download should restart from the beginning",
+					requests.get(1).getFirst("Range"));
+		} finally {
+			dl.close();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void httpDownloadMetrics() throws Exception {
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(200);
+					exchange.sendResponseHeaders(200, 0);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write("Hello ".getBytes(US_ASCII));
+						out.flush();
+						Thread.sleep(300);
+						out.write("world".getBytes(US_ASCII));
+					}
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		});
+		DownloadManagerImpl dl = new DownloadManagerImpl();
+		try {
+			URI source = getURI(server);
+			dl.download(source, Files.createTempFile("downloaded", ".txt"));
+
+			List<DownloadMetrics> metrics = dl.getMetrics();
+			assertEquals(1, metrics.size());
+			DownloadMetrics hostMetrics = metrics.get(0);
+			assertEquals("http://" + source.getRawAuthority(), hostMetrics.getHost());
+			assertEquals(1, hostMetrics.getDownloads());
+			assertEquals(0, hostMetrics.getFailures());
+			assertEquals(11, hostMetrics.getBytes());
+			assertTrue("time to first byte should include the server's delay",
+					hostMetrics.getTimeToFirstByte() >= 200);
+			assertTrue("transfer time should include the pause in the content",
+					hostMetrics.getTransferTime() >= 100);
+		} finally {
+			dl.close();
+			server.stop(0);
+		}
+	}
+
+	private static HttpServer startServer(HttpHandler handler) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/test.txt", handler);
+		server.start();
+		return server;
+	}
+
+	private static URI getURI(HttpServer server) {
+		return URI.create("http://" + server.getAddress().getHostString() + ":"
+				+ server.getAddress().getPort() + "/test.txt");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] content = body.getBytes(US_ASCII);
+		exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content);
+		}
+	}
+
+	/**
+	 * Leaves a partial download of the source, as if an earlier download had been interrupted.
+	 */
+	private static void writePartial(URI source, Path destination, String validator,
+			String content) throws IOException {
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart(validator);
+			Files.write(partial.getFile(), content.getBytes(US_ASCII), StandardOpenOption.APPEND);
+		}
+	}
+
+	private static ApplicationConfiguration applicationConfiguration(final Path home) {
+		return new ApplicationConfiguration() {
+			public Path getApplicationHomeDir() {
+				return home;
+			}
+
+			public String getName() {
+				return null;
+			}
+
+			public String getTitle() {
+				return null;
+			}
+
+			public Path getStartupDir() {
+				return null;
+			}
+
+			public Path getActiveVersionDir() {
+				return null;
+			}
+
+			public Path getUserPluginDir() {
+				return null;
+			}
+
+			public Path getSystemPluginDir() {
+				return null;
+			}
+
+			public Path getLogFile() {
+				return null;
+			}
+
+			public Path getLogDir() {
+				return null;
+			}
+
+			public ApplicationProfile getApplicationProfile() {
+				return null;
+			}
+		};
+	}
+
 	/**
 	 * This test should remain @Ignored  
 	 * as it relies on a web site
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.taverna.download.DownloadPriority;
+import org.junit.Test;
+
+public class TestDownloadScheduler {
+
+	@Test
+	public void otherHostNotLimited() throws Exception {
+		DownloadScheduler scheduler = new DownloadScheduler(1, 0);
+		scheduler.acquireConnection("http://a.example.com", DownloadPriority.NORMAL);
+		// would block if hosts shared the limit
+		scheduler.acquireConnection("http://b.example.com", DownloadPriority.NORMAL);
+	}
+
+	@Test
+	public void waitersServedInPriorityOrder() throws Exception {
+		final DownloadScheduler scheduler = new DownloadScheduler(1, 0);
+		final String host = "http://www.example.com";
+		scheduler.acquireConnection(host, DownloadPriority.NORMAL);
+
+		final List<DownloadPriority> order = Collections.synchronizedList(new ArrayList<DownloadPriority>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final DownloadPriority priority : new DownloadPriority[] { DownloadPriority.BACKGROUND,
+				DownloadPriority.NORMAL, DownloadPriority.INTERACTIVE }) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						scheduler.acquireConnection(host, priority);
+						order.add(priority);
+						scheduler.releaseConnection(host);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+			// let the thread start waiting
+			Thread.sleep(100);
+		}
+		scheduler.releaseConnection(host);
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+		assertEquals(3, order.size());
+		assertEquals(DownloadPriority.INTERACTIVE, order.get(0));
+		assertEquals(DownloadPriority.NORMAL, order.get(1));
+		assertEquals(DownloadPriority.BACKGROUND, order.get(2));
+	}
+
+	@Test
+	public void bandwidthLimited() throws Exception {
+		DownloadScheduler scheduler = new DownloadScheduler(1, 10000);
+		long start = System.nanoTime();
+		// the first second's worth is available at once, the rest takes at least a second
+		for (int i = 0; i < 5; i++) {
+			scheduler.acquireBandwidth(5000, DownloadPriority.NORMAL);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue("Took " + elapsed + "ms", elapsed >= 1000);
+	}
+
+}
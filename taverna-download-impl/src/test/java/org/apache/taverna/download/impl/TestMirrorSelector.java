@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestMirrorSelector {
+
+	private URI site = URI.create("http://www.example.com/updates");
+
+	private URI mirror = URI.create("http://mirror.example.com/taverna/updates/");
+
+	private URI source = URI.create("http://www.example.com/updates/lib/test.jar");
+
+	private URI mirrorSource = URI.create("http://mirror.example.com/taverna/updates/lib/test.jar");
+
+	@Test
+	public void sourceWithoutMirrors() throws Exception {
+		MirrorSelector selector = new MirrorSelector(30000);
+		selector.setMirrors(site, Arrays.asList(mirror));
+		URI other = URI.create("http://www.example.com/other/test.jar");
+		assertEquals(Collections.singletonList(other), selector.getSources(other));
+	}
+
+	@Test
+	public void fastestMirrorFirst() throws Exception {
+		MirrorSelector selector = new MirrorSelector(30000);
+		selector.setMirrors(site, Arrays.asList(mirror));
+		assertEquals(Arrays.asList(source, mirrorSource), selector.getSources(source));
+
+		selector.recordLatency(source, 500);
+		selector.recordLatency(mirrorSource, 100);
+		assertEquals(Arrays.asList(mirrorSource, source), selector.getSources(source));
+	}
+
+	@Test
+	public void failedMirrorLast() throws Exception {
+		MirrorSelector selector = new MirrorSelector(30000);
+		selector.setMirrors(site, Arrays.asList(mirror));
+		selector.recordLatency(source, 500);
+		selector.recordLatency(mirrorSource, 100);
+		selector.recordFailure(mirrorSource);
+		assertEquals(Arrays.asList(source, mirrorSource), selector.getSources(source));
+	}
+
+	@Test
+	public void latenciesSaved() throws Exception {
+		Path file = Files.createTempDirectory("mirrors").resolve("mirrors.properties");
+		MirrorSelector selector = new MirrorSelector(30000);
+		selector.setFile(file);
+		selector.setMirrors(site, Arrays.asList(mirror));
+		selector.recordLatency(source, 500);
+		selector.recordLatency(mirrorSource, 100);
+
+		MirrorSelector restarted = new MirrorSelector(30000);
+		restarted.setFile(file);
+		restarted.setMirrors(site, Arrays.asList(mirror));
+		List<URI> sources = restarted.getSources(source);
+		assertEquals(Arrays.asList(mirrorSource, source), sources);
+	}
+
+}
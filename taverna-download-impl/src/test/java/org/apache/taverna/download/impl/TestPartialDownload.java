@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.download.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPartialDownload {
+
+	private URI source = URI.create("http://www.example.com/test.jar");
+
+	private Path destination;
+
+	@Before
+	public void setUp() throws Exception {
+		destination = Files.createTempDirectory("download").resolve("test.jar");
+	}
+
+	@Test
+	public void resumeFromSameSource() throws Exception {
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart("\"abc\"");
+			Files.write(partial.getFile(), "Hello".getBytes(US_ASCII), StandardOpenOption.APPEND);
+		}
+
+		try (PartialDownload resumed = new PartialDownload(source, destination)) {
+			assertEquals("\"abc\"", resumed.getValidator());
+			assertEquals(5, resumed.getResumeOffset());
+		}
+	}
+
+	@Test
+	public void noResumeFromOtherSource() throws Exception {
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart("\"abc\"");
+			Files.write(partial.getFile(), "Hello".getBytes(US_ASCII), StandardOpenOption.APPEND);
+		}
+
+		try (PartialDownload other = new PartialDownload(
+				URI.create("http://www.example.com/other.jar"), destination)) {
+			assertEquals(0, other.getResumeOffset());
+		}
+	}
+
+	@Test
+	public void noResumeWithoutValidator() throws Exception {
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart(null);
+			Files.write(partial.getFile(), "Hello".getBytes(US_ASCII), StandardOpenOption.APPEND);
+		}
+
+		try (PartialDownload resumed = new PartialDownload(source, destination)) {
+			assertEquals(0, resumed.getResumeOffset());
+		}
+	}
+
+	@Test
+	public void complete() throws Exception {
+		Path file;
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart("\"abc\"");
+			file = partial.getFile();
+			Files.write(file, "Hello".getBytes(US_ASCII), StandardOpenOption.APPEND);
+			partial.complete(destination);
+		}
+
+		assertTrue(Files.exists(destination));
+		assertFalse(Files.exists(file));
+		assertEquals("only the destination should be left", 1,
+				destination.getParent().toFile().list().length);
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			assertEquals(0, partial.getResumeOffset());
+		}
+	}
+
+	@Test
+	public void concurrentDownloadRejected() throws Exception {
+		try (PartialDownload partial = new PartialDownload(source, destination)) {
+			partial.restart("\"abc\"");
+			try {
+				new PartialDownload(source, destination);
+				fail("a second download to the same destination should not be allowed");
+			} catch (IOException e) {
+			}
+			assertEquals("\"abc\"", partial.getValidator());
+		}
+		// the lock is released when the partial download is closed
+		new PartialDownload(source, destination).close();
+	}
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.mavenplugin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Creates binary deltas between versions of a bundle file.
+ * <p>
+ * Unchanged entries in a new version of a jar are usually compressed to the same bytes as in the
+ * old version, only at a different offset. The generator finds these in the style of rsync, by
+ * indexing blocks of the old file by a rolling checksum and looking up every window of the new
+ * file, and writes the new file as copies from the old file and inserted bytes. Applying the delta
+ * rebuilds the new file byte for byte, so it can be checked against the digest in the application
+ * profile.
+ * <p>
+ * The delta format is read by <code>DeltaPatcher</code> in the update manager.
+ */
+public class DeltaGenerator {
+
+	private static final int MAGIC = 0x54444C54;
+	private static final int VERSION = 1;
+
+	private static final byte COPY = 'C';
+	private static final byte INSERT = 'I';
+	private static final byte END = 'E';
+
+	private static final int BLOCK_SIZE = 512;
+
+	/**
+	 * Writes a delta that rebuilds the new file from the old file.
+	 *
+	 * @return the size of the delta in bytes
+	 */
+	public static long generate(File oldFile, File newFile, File delta) throws IOException {
+		byte[] oldData = FileUtils.readFileToByteArray(oldFile);
+		byte[] newData = FileUtils.readFileToByteArray(newFile);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(delta)))) {
+			generate(oldData, newData, out);
+			return out.size();
+		}
+	}
+
+	static void generate(byte[] oldData, byte[] newData, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(newData.length);
+
+		Map<Integer, List<Integer>> blocks = new HashMap<Integer, List<Integer>>();
+		for (int offset = 0; offset + BLOCK_SIZE <= oldData.length; offset += BLOCK_SIZE) {
+			int checksum = checksum(oldData, offset);
+			List<Integer> offsets = blocks.get(checksum);
+			if (offsets == null) {
+				offsets = new ArrayList<Integer>(1);
+				blocks.put(checksum, offsets);
+			}
+			offsets.add(offset);
+		}
+
+		int position = 0;
+		int insertStart = 0;
+		int a = 0;
+		int b = 0;
+		if (newData.length >= BLOCK_SIZE) {
+			int checksum = checksum(newData, 0);
+			a = checksum & 0xffff;
+			b = checksum >>> 16;
+		}
+		while (position + BLOCK_SIZE <= newData.length) {
+			int match = findBlock(blocks.get((b << 16) | a), oldData, newData, position);
+			if (match >= 0) {
+				int length = BLOCK_SIZE;
+				while (position + length < newData.length && match + length < oldData.length
+						&& newData[position + length] == oldData[match + length]) {
+					length++;
+				}
+				writeInsert(newData, insertStart, position, out);
+				out.writeByte(COPY);
+				out.writeLong(match);
+				out.writeInt(length);
+				position += length;
+				insertStart = position;
+				if (position + BLOCK_SIZE <= newData.length) {
+					int checksum = checksum(newData, position);
+					a = checksum & 0xffff;
+					b = checksum >>> 16;
+				}
+			} else {
+				if (position + BLOCK_SIZE < newData.length) {
+					// roll the checksum forward one byte
+					int removed = newData[position] & 0xff;
+					int added = newData[position + BLOCK_SIZE] & 0xff;
+					a = (a - removed + added) & 0xffff;
+					b = (b - BLOCK_SIZE * removed + a) & 0xffff;
+				}
+				position++;
+			}
+		}
+		writeInsert(newData, insertStart, newData.length, out);
+		out.writeByte(END);
+	}
+
+	/**
+	 * Returns the rsync weak checksum of the block at the offset, with the sum of the bytes in the
+	 * low 16 bits and the weighted sum in the high 16 bits.
+	 */
+	private static int checksum(byte[] data, int offset) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			int value = data[offset + i] & 0xff;
+			a += value;
+			b += (BLOCK_SIZE - i) * value;
+		}
+		return ((b & 0xffff) << 16) | (a & 0xffff);
+	}
+
+	private static int findBlock(List<Integer> offsets, byte[] oldData, byte[] newData, int position) {
+		if (offsets != null) {
+			for (int offset : offsets) {
+				if (regionMatches(oldData, offset, newData, position)) {
+					return offset;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static boolean regionMatches(byte[] oldData, int offset, byte[] newData, int position) {
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			if (oldData[offset + i] != newData[position + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeInsert(byte[] data, int start, int end, DataOutputStream out)
+			throws IOException {
+		if (end > start) {
+			out.writeByte(INSERT);
+			out.writeInt(end - start);
+			out.write(data, start, end - start);
+		}
+	}
+
+}
@@ -20,14 +20,21 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -54,10 +61,19 @@ import aQute.bnd.version.Version;
 import aQute.bnd.version.VersionRange;
 
 /**
+ * Utilities for finding the OSGi bundles in the dependencies of a Maven project.
+ * <p>
+ * The manifest of each artifact is read once and cached, with its Import-Package and
+ * Export-Package headers parsed, for the lifetime of this object, which is normally one build.
+ * The manifests of all the dependencies are read in parallel when they are resolved. The parsed
+ * Parameters are shared by all callers, so they must not be modified.
+ *
  * @author David Withers
  */
 public class MavenOsgiUtils {
 
+	private static final BundleManifest NO_MANIFEST = new BundleManifest(null);
+
 	private final MavenProject project;
 	private final RepositorySystemSession repositorySystemSession;
 	private final ProjectDependenciesResolver projectDependenciesResolver;
@@ -66,6 +82,9 @@ public class MavenOsgiUtils {
 	private Set<String> javaPackages;
 	private Set<String> systemPackages;
 
+	/** The manifests of the artifact files that have been read. */
+	private final ConcurrentMap<File, BundleManifest> manifests = new ConcurrentHashMap<File, BundleManifest>();
+
 	public MavenOsgiUtils(MavenProject project, RepositorySystemSession repositorySystemSession,
 			ProjectDependenciesResolver projectDependenciesResolver, Log log) {
 		this(project, repositorySystemSession, projectDependenciesResolver, new HashSet<String>(),
@@ -101,6 +120,10 @@ public class MavenOsgiUtils {
 
 		DependencyNode dependencyGraph = dependencyResolutionResult.getDependencyGraph();
 		if (dependencyGraph != null) {
+			Set<Artifact> artifacts = new HashSet<Artifact>();
+			collectArtifacts(dependencyGraph.getChildren(), artifacts,
+					Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>()));
+			loadManifests(artifacts);
 			checkBundleDependencies(dependencyGraph.getChildren());
 			return getBundleArtifacts(dependencyGraph.getChildren());
 		} else {
@@ -108,6 +131,52 @@ public class MavenOsgiUtils {
 		}
 	}
 
+	private void collectArtifacts(List<DependencyNode> nodes, Set<Artifact> artifacts,
+			Set<DependencyNode> visited) {
+		for (DependencyNode node : nodes) {
+			if (visited.add(node) && node.getDependency() != null) {
+				artifacts.add(RepositoryUtils.toArtifact(node.getDependency().getArtifact()));
+				collectArtifacts(node.getChildren(), artifacts, visited);
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifests of the artifacts in parallel, so that later requests for manifest
+	 * attributes don't have to open the artifact files.
+	 *
+	 * @param artifacts
+	 *            the artifacts to read the manifests of
+	 */
+	public void loadManifests(Collection<Artifact> artifacts) {
+		List<Callable<BundleManifest>> tasks = new ArrayList<Callable<BundleManifest>>();
+		for (Artifact artifact : artifacts) {
+			final File file = artifact.getFile();
+			if (file != null && !manifests.containsKey(file)) {
+				tasks.add(new Callable<BundleManifest>() {
+					@Override
+					public BundleManifest call() {
+						return getBundleManifest(file);
+					}
+				});
+			}
+		}
+		if (tasks.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime
+				.getRuntime().availableProcessors()));
+		try {
+			// a manifest header that fails to parse is not cached, so the exception is thrown
+			// again when the manifest is used
+			executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	public Set<BundleArtifact> getBundleArtifacts(List<DependencyNode> nodes) {
 		Set<BundleArtifact> bundleArtifacts = new HashSet<BundleArtifact>();
 		for (DependencyNode node : nodes) {
@@ -157,6 +226,7 @@ public class MavenOsgiUtils {
 			bundle.setVersion(bundleArtifact.getVersion());
 			bundle.setFileName(new File(artifact.getGroupId(), artifact.getFile().getName())
 					.getPath());
+			bundle.setSha256(Utils.sha256Hex(artifact.getFile()));
 			bundles.add(bundle);
 		}
 		Collections.sort(bundles, new BundleComparator());
@@ -359,7 +429,16 @@ public class MavenOsgiUtils {
 		return v1 == v2 || v1.toString().equals(v2.toString());
 	}
 
+	/**
+	 * Returns the parsed manifest attribute. The Import-Package and Export-Package attributes are
+	 * only parsed once, so the returned Parameters must not be modified.
+	 */
 	public Parameters getManifestAttributeParameters(Artifact artifact, String attributeName) {
+		if (Constants.IMPORT_PACKAGE.equals(attributeName)) {
+			return getBundleManifest(artifact).importPackage;
+		} else if (Constants.EXPORT_PACKAGE.equals(attributeName)) {
+			return getBundleManifest(artifact).exportPackage;
+		}
 		String attributeValue = getManifestAttribute(artifact, attributeName);
 		if (attributeValue != null) {
 			return OSGiHeader.parseHeader(attributeValue);
@@ -368,27 +447,36 @@ public class MavenOsgiUtils {
 	}
 
 	public String getManifestAttribute(Artifact artifact, String attributeName) {
-		Manifest manifest = getManifest(artifact);
-		if (manifest != null) {
-			Attributes mainAttributes = manifest.getMainAttributes();
-			return mainAttributes.getValue(attributeName);
-		}
-		return null;
+		return getBundleManifest(artifact).getValue(attributeName);
 	}
 
 	public Manifest getManifest(Artifact artifact) {
-		if (artifact != null) {
-			File file = artifact.getFile();
-			if (file != null) {
-				try {
-					JarFile jarFile = new JarFile(artifact.getFile());
-					return jarFile.getManifest();
-				} catch (IOException e) {
-					return null;
-				}
+		return getBundleManifest(artifact).manifest;
+	}
+
+	private BundleManifest getBundleManifest(Artifact artifact) {
+		if (artifact == null || artifact.getFile() == null) {
+			return NO_MANIFEST;
+		}
+		return getBundleManifest(artifact.getFile());
+	}
+
+	private BundleManifest getBundleManifest(File file) {
+		BundleManifest bundleManifest = manifests.get(file);
+		if (bundleManifest == null) {
+			try (JarFile jarFile = new JarFile(file)) {
+				Manifest manifest = jarFile.getManifest();
+				bundleManifest = manifest == null ? NO_MANIFEST : new BundleManifest(manifest);
+			} catch (IOException e) {
+				log.warn("Unable to read the manifest of " + file, e);
+				bundleManifest = NO_MANIFEST;
+			}
+			BundleManifest existing = manifests.putIfAbsent(file, bundleManifest);
+			if (existing != null) {
+				bundleManifest = existing;
 			}
 		}
-		return null;
+		return bundleManifest;
 	}
 
 	private final class BundleComparator implements Comparator<BundleInfo> {
@@ -400,6 +488,39 @@ public class MavenOsgiUtils {
 
 	}
 
+	/**
+	 * A manifest with its package headers parsed.
+	 */
+	private static final class BundleManifest {
+
+		private final Manifest manifest;
+		private final Parameters importPackage;
+		private final Parameters exportPackage;
+
+		BundleManifest(Manifest manifest) {
+			this.manifest = manifest;
+			importPackage = parseHeader(Constants.IMPORT_PACKAGE);
+			exportPackage = parseHeader(Constants.EXPORT_PACKAGE);
+		}
+
+		String getValue(String attributeName) {
+			if (manifest != null) {
+				Attributes mainAttributes = manifest.getMainAttributes();
+				return mainAttributes.getValue(attributeName);
+			}
+			return null;
+		}
+
+		private Parameters parseHeader(String attributeName) {
+			String attributeValue = getValue(attributeName);
+			if (attributeValue != null) {
+				return OSGiHeader.parseHeader(attributeValue);
+			}
+			return null;
+		}
+
+	}
+
 	// public static void main(String[] args) throws Exception {
 	// MavenOsgiUtils mavenOsgiUtils = new MavenOsgiUtils();
 	// Parameters exports = mavenOsgiUtils.getImports(new
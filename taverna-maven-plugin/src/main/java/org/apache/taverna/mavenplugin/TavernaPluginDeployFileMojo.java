@@ -161,7 +161,7 @@ public class TavernaPluginDeployFileMojo extends AbstractWagonMojo {
 
 			String deployedPluginFile = plugin.getId() + "-" + plugin.getVersion() + ".jar";
 
-			if (addPlugin(plugins, plugin, deployedPluginFile)) {
+			if (addPlugin(plugins, plugin, deployedPluginFile, Utils.sha256Hex(file))) {
 				// write the new plugin site file
 				try {
 					Marshaller marshaller = jaxbContext.createMarshaller();
@@ -185,7 +185,8 @@ public class TavernaPluginDeployFileMojo extends AbstractWagonMojo {
 		}
 	}
 
-	private boolean addPlugin(Plugins plugins, PluginInfo pluginInfo, String pluginURL) {
+	private boolean addPlugin(Plugins plugins, PluginInfo pluginInfo, String pluginURL,
+			String sha256) {
 		PluginVersions plugin = getPlugin(plugins, pluginInfo);
 		Version latestVersion = plugin.getLatestVersion();
 		if (latestVersion != null && latestVersion.getVersion().equals(pluginInfo.getVersion())) {
@@ -197,6 +198,7 @@ public class TavernaPluginDeployFileMojo extends AbstractWagonMojo {
 		Version newPluginVersion = new Version();
 		newPluginVersion.setVersion(pluginInfo.getVersion());
 		newPluginVersion.setFile(pluginURL);
+		newPluginVersion.setSha256(sha256);
 
 		getLog().info(
 				String.format("Adding %1$s version %2$s", pluginInfo.getName(),
@@ -149,7 +149,7 @@ public class TavernaPluginDeployMojo extends AbstractDeployMojo {
 				plugins = new Plugins();
 			}
 
-			if (addPlugin(plugins, plugin, deployedPluginFile)) {
+			if (addPlugin(plugins, plugin, deployedPluginFile, Utils.sha256Hex(artifactFile))) {
 				// write the new plugin site file
 				try {
 					Marshaller marshaller = jaxbContext.createMarshaller();
@@ -171,7 +171,8 @@ public class TavernaPluginDeployMojo extends AbstractDeployMojo {
 		}
 	}
 
-	private boolean addPlugin(Plugins plugins, PluginInfo pluginInfo, String pluginURL) {
+	private boolean addPlugin(Plugins plugins, PluginInfo pluginInfo, String pluginURL,
+			String sha256) {
 		PluginVersions plugin = getPlugin(plugins, pluginInfo);
 		Version latestVersion = plugin.getLatestVersion();
 		if (latestVersion != null && latestVersion.getVersion().equals(pluginInfo.getVersion())) {
@@ -183,6 +184,7 @@ public class TavernaPluginDeployMojo extends AbstractDeployMojo {
 		Version newPluginVersion = new Version();
 		newPluginVersion.setVersion(pluginInfo.getVersion());
 		newPluginVersion.setFile(pluginURL);
+		newPluginVersion.setSha256(sha256);
 
 		getLog().info(
 				String.format("Adding %1$s version %2$s", pluginInfo.getName(), pluginInfo.getVersion()));
@@ -17,6 +17,7 @@
 package org.apache.taverna.mavenplugin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -38,6 +39,7 @@ import org.apache.maven.wagon.authentication.AuthenticationException;
 import org.apache.maven.wagon.observers.Debug;
 import org.apache.maven.wagon.repository.Repository;
 import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
+import org.apache.taverna.profile.xml.jaxb.BundleDelta;
 import org.apache.taverna.profile.xml.jaxb.BundleInfo;
 import org.apache.taverna.profile.xml.jaxb.UpdateSite;
 import org.apache.taverna.versions.xml.jaxb.Version;
@@ -54,6 +56,9 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 
 	private static final String UPDATES_FILE = "updates.xml";
 
+	/** Deltas are only published if they are smaller than this fraction of the bundle. */
+	private static final double MAX_DELTA_RATIO = 0.75;
+
 	private File tempDirectory;
 
 	public void execute() throws MojoExecutionException {
@@ -127,10 +132,8 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 		}
 
 		try {
-			// upload the application profile to the update site
 			String deployedProfileFile = "ApplicationProfile" + "-" + applicationProfile.getVersion()
 					+ ".xml";
-			Utils.uploadFile(artifactFile, deployedProfileFile, wagon, getLog());
 
 			// fetch the applications file
 			UpdateSite updateSite;
@@ -175,11 +178,17 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 				} else {
 					// upload new bundles to the update site
 					uploadBundles(requiredBundles, wagon);
+					if (uploadDeltas(latestProfile, requiredBundles, wagon)) {
+						writeApplicationProfile(applicationProfile, artifactFile, jaxbContext);
+					}
 				}
 			}
 
+			// upload the application profile to the update site
+			Utils.uploadFile(artifactFile, deployedProfileFile, wagon, getLog());
+
 			if (addApplicationVersion(updateSite.getVersions(), applicationProfile,
-					deployedProfileFile)) {
+					deployedProfileFile, Utils.sha256Hex(artifactFile))) {
 				// write the new application versions list
 				try {
 					Marshaller marshaller = jaxbContext.createMarshaller();
@@ -208,11 +217,13 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 	 * @param applicationProfile
 	 *            the applicationProfile
 	 * @param profileURL
+	 * @param sha256
+	 *            the SHA-256 digest of the application profile file
 	 * @return true if a new version was added to the ApplicationVersions document; false if the
 	 *         version already exits
 	 */
 	private boolean addApplicationVersion(Versions applicationVersions,
-			ApplicationProfile applicationProfile, String profileURL) {
+			ApplicationProfile applicationProfile, String profileURL, String sha256) {
 		Version latestVersion = applicationVersions.getLatestVersion();
 		if (latestVersion != null
 				&& latestVersion.getVersion().equals(applicationProfile.getVersion())) {
@@ -225,6 +236,7 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 		Version newApplicationVersion = new Version();
 		newApplicationVersion.setVersion(applicationProfile.getVersion());
 		newApplicationVersion.setFile(profileURL);
+		newApplicationVersion.setSha256(sha256);
 
 		getLog().info(
 				String.format("Adding %1$s version %2$s", applicationProfile.getName(),
@@ -247,6 +259,73 @@ public class TavernaProfileDeployMojo extends AbstractDeployMojo {
 		}
 	}
 
+	/**
+	 * Creates deltas from the bundles in the latest deployed application profile to the new
+	 * versions of the bundles, and uploads and adds to the new application profile the deltas that
+	 * are small enough to be worth downloading instead of the bundles.
+	 *
+	 * @return true if any deltas were added to the new application profile
+	 * @throws MojoExecutionException
+	 */
+	private boolean uploadDeltas(ApplicationProfile latestProfile, Set<BundleInfo> requiredBundles,
+			Wagon wagon) throws MojoExecutionException {
+		Map<String, BundleInfo> latestBundles = new HashMap<String, BundleInfo>();
+		for (BundleInfo bundle : latestProfile.getBundle()) {
+			latestBundles.put(bundle.getSymbolicName(), bundle);
+		}
+		File libDirectory = new File(tempDirectory, "lib");
+		File latestLibDirectory = new File(tempDirectory, "latest-lib");
+		boolean deltasAdded = false;
+		for (BundleInfo bundle : requiredBundles) {
+			BundleInfo latestBundle = latestBundles.get(bundle.getSymbolicName());
+			// the update manager checks the rebuilt bundle against its digest
+			if (latestBundle == null || bundle.getSha256() == null) {
+				continue;
+			}
+			File bundleFile = new File(libDirectory, bundle.getFileName());
+			File latestBundleFile = new File(latestLibDirectory, latestBundle.getFileName());
+			try {
+				Utils.downloadFile("lib/" + latestBundle.getFileName(), latestBundleFile, wagon, getLog());
+			} catch (ResourceDoesNotExistException e) {
+				getLog().warn("Can't create delta for " + bundle.getFileName() + ", "
+						+ latestBundle.getFileName() + " does not exist");
+				continue;
+			}
+			String deltaFileName = bundle.getFileName() + ".from-" + latestBundle.getVersion() + ".delta";
+			File deltaFile = new File(libDirectory, deltaFileName);
+			long deltaSize;
+			try {
+				deltaSize = DeltaGenerator.generate(latestBundleFile, bundleFile, deltaFile);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Error creating delta for " + bundleFile, e);
+			}
+			if (deltaSize < bundleFile.length() * MAX_DELTA_RATIO) {
+				Utils.uploadFile(deltaFile, "lib/" + deltaFileName, wagon, getLog());
+				BundleDelta delta = new BundleDelta();
+				delta.setFromVersion(latestBundle.getVersion());
+				delta.setFileName(deltaFileName);
+				bundle.getDelta().add(delta);
+				deltasAdded = true;
+			} else {
+				getLog().info(String.format("Delta for %1$s is %2$d bytes, not using it",
+						bundle.getFileName(), deltaSize));
+			}
+		}
+		return deltasAdded;
+	}
+
+	private void writeApplicationProfile(ApplicationProfile applicationProfile, File file,
+			JAXBContext jaxbContext) throws MojoExecutionException {
+		try {
+			Marshaller marshaller = jaxbContext.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+			marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, TavernaProfileGenerateMojo.SCHEMA_LOCATION);
+			marshaller.marshal(applicationProfile, file);
+		} catch (JAXBException e) {
+			throw new MojoExecutionException("Error writing " + file, e);
+		}
+	}
+
 	private Set<BundleInfo> getRequiredBundles(ApplicationProfile currentProfile,
 			ApplicationProfile newProfile) {
 		Set<BundleInfo> requiredBundles = new HashSet<BundleInfo>();
@@ -86,6 +86,9 @@ public class TavernaProfileGenerateMojo extends AbstractMojo {
 	@Parameter(required = true)
 	private String updateSite;
 
+	@Parameter
+	private List<String> updateSiteMirrors;
+
 	@Parameter(defaultValue = "updates.xml")
 	private String updatesFile;
 
@@ -95,6 +98,9 @@ public class TavernaProfileGenerateMojo extends AbstractMojo {
 	@Parameter(required = true)
 	private String pluginSite;
 
+	@Parameter
+	private List<String> pluginSiteMirrors;
+
 	@Parameter(defaultValue = "plugins.xml")
 	private String pluginsFile;
 
@@ -165,6 +171,12 @@ public class TavernaProfileGenerateMojo extends AbstractMojo {
 		updates.setLibDirectory(libDirectory);
 		updates.setPluginSite(pluginSite);
 		updates.setPluginsFile(pluginsFile);
+		if (updateSiteMirrors != null) {
+			updates.getUpdateSiteMirror().addAll(updateSiteMirrors);
+		}
+		if (pluginSiteMirrors != null) {
+			updates.getPluginSiteMirror().addAll(pluginSiteMirrors);
+		}
 		applicationProfile.setUpdates(updates);
 
 		List<FrameworkConfiguration> frameworkConfiguration = applicationProfile
@@ -102,6 +102,19 @@ public class Utils {
 		}
 	}
 
+	/**
+	 * Returns the hex encoded SHA-256 digest of a file, for listing in application profiles and
+	 * plugin sites.
+	 */
+	public static String sha256Hex(File file) throws MojoExecutionException {
+		try (InputStream inputStream = new FileInputStream(file)) {
+			return DigestUtils.sha256Hex(inputStream);
+		} catch (IOException e) {
+			throw new MojoExecutionException(
+					String.format("Error generating digest for %1$s", file), e);
+		}
+	}
+
 	public static String getResourceUrl(Wagon wagon, String resourceName) {
 		StringBuilder urlBuilder = new StringBuilder(wagon.getRepository().getUrl());
 		for (String part : resourceName.split("/")) {
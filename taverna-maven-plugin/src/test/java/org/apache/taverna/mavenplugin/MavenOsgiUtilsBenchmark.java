@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.mavenplugin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.eclipse.aether.graph.DependencyNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how long finding the bundles and package dependencies of a profile with 500 bundles
+ * takes in one build, starting with no manifests read.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.taverna.mavenplugin.MavenOsgiUtilsBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MavenOsgiUtilsBenchmark {
+
+	private File directory;
+
+	private List<DependencyNode> nodes;
+
+	private List<Artifact> artifacts;
+
+	@Setup
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("bundles").toFile();
+		nodes = TestMavenOsgiUtils.createBundles(directory, 500);
+		artifacts = new ArrayList<Artifact>();
+		for (DependencyNode node : nodes) {
+			artifacts.add(RepositoryUtils.toArtifact(node.getDependency().getArtifact()));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Benchmark
+	public Map<String, Set<PackageVersion>> build() {
+		MavenOsgiUtils osgiUtils = new MavenOsgiUtils(null, null, null, new SilentLog());
+		osgiUtils.loadManifests(artifacts);
+		osgiUtils.checkBundleDependencies(nodes);
+		osgiUtils.getBundleArtifacts(nodes);
+		return osgiUtils.getPackageDependencies(nodes);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(MavenOsgiUtilsBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.mavenplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestDeltaGenerator {
+
+	@Test
+	public void deltaRebuildsNewFile() throws Exception {
+		Random random = new Random(42);
+		byte[] oldData = new byte[100000];
+		random.nextBytes(oldData);
+
+		// insert some bytes in the middle and change the end
+		byte[] newData = new byte[oldData.length + 100];
+		System.arraycopy(oldData, 0, newData, 0, 50000);
+		byte[] inserted = new byte[100];
+		random.nextBytes(inserted);
+		System.arraycopy(inserted, 0, newData, 50000, 100);
+		System.arraycopy(oldData, 50000, newData, 50100, 50000);
+		for (int i = newData.length - 10; i < newData.length; i++) {
+			newData[i]++;
+		}
+
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DeltaGenerator.generate(oldData, newData, new DataOutputStream(delta));
+
+		assertArrayEquals(newData, patch(oldData, delta.toByteArray()));
+		assertTrue("Delta is " + delta.size() + " bytes", delta.size() < 2000);
+	}
+
+	@Test
+	public void deltaFromEmptyFile() throws Exception {
+		byte[] newData = "Hello world".getBytes("US-ASCII");
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DeltaGenerator.generate(new byte[0], newData, new DataOutputStream(delta));
+		assertArrayEquals(newData, patch(new byte[0], delta.toByteArray()));
+	}
+
+	/**
+	 * Applies a delta in the same way as the update manager.
+	 */
+	private byte[] patch(byte[] oldData, byte[] delta) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+		assertEquals(0x54444C54, in.readInt());
+		assertEquals(1, in.readUnsignedByte());
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) in.readLong());
+		for (byte operation = in.readByte(); operation != 'E'; operation = in.readByte()) {
+			if (operation == 'C') {
+				int offset = (int) in.readLong();
+				out.write(oldData, offset, in.readInt());
+			} else {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				out.write(bytes);
+			}
+		}
+		return out.toByteArray();
+	}
+
+}
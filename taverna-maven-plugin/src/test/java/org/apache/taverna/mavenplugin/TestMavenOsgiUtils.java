@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.mavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.junit.Test;
+
+import aQute.bnd.osgi.Constants;
+
+public class TestMavenOsgiUtils {
+
+	@Test
+	public void manifestReadOnce() throws Exception {
+		File directory = Files.createTempDirectory("bundles").toFile();
+		List<DependencyNode> nodes = createBundles(directory, 2);
+		Artifact artifact = RepositoryUtils.toArtifact(nodes.get(1).getDependency().getArtifact());
+		MavenOsgiUtils osgiUtils = new MavenOsgiUtils(null, null, null, new SilentLog());
+
+		assertEquals("test.bundle1", osgiUtils.getManifestAttribute(artifact,
+				Constants.BUNDLE_SYMBOLICNAME));
+		assertTrue(artifact.getFile().delete());
+		assertEquals("manifest should be cached", "1.0.1", osgiUtils.getManifestAttribute(artifact,
+				Constants.BUNDLE_VERSION));
+		assertSame("package headers should only be parsed once",
+				osgiUtils.getManifestAttributeParameters(artifact, Constants.IMPORT_PACKAGE),
+				osgiUtils.getManifestAttributeParameters(artifact, Constants.IMPORT_PACKAGE));
+		assertTrue(osgiUtils.getManifestAttributeParameters(artifact, Constants.EXPORT_PACKAGE)
+				.containsKey("test.package1"));
+
+		Artifact missing = RepositoryUtils.toArtifact(new DefaultArtifact("test:missing:1.0")
+				.setFile(new File(directory, "missing.jar")));
+		assertNull(osgiUtils.getManifest(missing));
+		assertFalse(osgiUtils.isBundle(missing));
+	}
+
+	/**
+	 * Creates bundles that each export a package and import the packages of the five bundles
+	 * before them.
+	 */
+	static List<DependencyNode> createBundles(File directory, int count) throws Exception {
+		List<DependencyNode> nodes = new ArrayList<DependencyNode>();
+		for (int i = 0; i < count; i++) {
+			Manifest manifest = new Manifest();
+			Attributes attributes = manifest.getMainAttributes();
+			attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, "test.bundle" + i);
+			attributes.putValue(Constants.BUNDLE_VERSION, "1.0." + i);
+			attributes.putValue(Constants.EXPORT_PACKAGE, "test.package" + i + ";version=\"1.0." + i + "\"");
+			StringBuilder imports = new StringBuilder("java.util");
+			for (int j = Math.max(0, i - 5); j < i; j++) {
+				imports.append(",test.package").append(j).append(";version=\"[1.0,2)\"");
+			}
+			attributes.putValue(Constants.IMPORT_PACKAGE, imports.toString());
+			File file = new File(directory, "test.bundle" + i + ".jar");
+			new JarOutputStream(new FileOutputStream(file), manifest).close();
+			nodes.add(new DefaultDependencyNode(new Dependency(new DefaultArtifact("test", "bundle" + i,
+					"jar", "1.0." + i).setFile(file), "runtime")));
+		}
+		return nodes;
+	}
+
+}
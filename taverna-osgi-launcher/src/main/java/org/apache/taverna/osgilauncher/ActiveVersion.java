@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.osgilauncher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The installed version of the application to start.
+ * <p>
+ * Updates are installed in a new <code>versions/&lt;version&gt;</code> directory of the startup
+ * directory, containing the <code>lib</code> directory and <code>ApplicationProfile.xml</code>
+ * for that version. The update manager then switches versions by atomically replacing the
+ * <code>versions/active.properties</code> pointer file, so an interrupted update never leaves a
+ * mix of versions. Without a pointer file the <code>lib</code> directory and
+ * <code>ApplicationProfile.xml</code> in the startup directory are used.
+ * <p>
+ * A new version is <code>pending</code> until it is first started, and <code>booting</code> until
+ * the start is {@link #confirm() confirmed}. If a version is still <code>booting</code> when the
+ * application is next started, the start failed and the previous version is started instead.
+ */
+public class ActiveVersion {
+
+	public static final String VERSIONS_DIR = "versions";
+	public static final String POINTER_FILE = "active.properties";
+	public static final String LIB_DIR = "lib";
+	public static final String APPLICATION_PROFILE = "ApplicationProfile.xml";
+
+	static final String VERSION = "version";
+	static final String PREVIOUS = "previous";
+	static final String FAILED = "failed";
+	static final String STATE = "state";
+
+	static final String PENDING = "pending";
+	static final String BOOTING = "booting";
+	static final String CONFIRMED = "confirmed";
+
+	private static final Logger logger = Logger.getLogger(ActiveVersion.class.getName());
+
+	private final File startupDirectory;
+	private final File pointerFile;
+	private final Properties pointer = new Properties();
+
+	/**
+	 * Selects the version to start, rolling back to the previous version if the last start of a
+	 * new version didn't complete.
+	 *
+	 * @param startupDirectory
+	 *            the application's startup directory
+	 * @throws IOException
+	 *             if the pointer file cannot be read or written
+	 */
+	public ActiveVersion(File startupDirectory) throws IOException {
+		this.startupDirectory = startupDirectory;
+		pointerFile = new File(new File(startupDirectory, VERSIONS_DIR), POINTER_FILE);
+		if (pointerFile.isFile()) {
+			try (InputStream in = new FileInputStream(pointerFile)) {
+				pointer.load(in);
+			}
+			String state = pointer.getProperty(STATE, CONFIRMED);
+			if (BOOTING.equals(state)) {
+				rollback();
+			} else if (PENDING.equals(state)) {
+				pointer.setProperty(STATE, BOOTING);
+				write();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if updates have been installed in the startup directory, so that the version to
+	 * start must be selected with an <code>ActiveVersion</code>.
+	 *
+	 * @param startupDirectory
+	 *            the application's startup directory
+	 * @return true if updates have been installed in the startup directory
+	 */
+	public static boolean isInstalled(File startupDirectory) {
+		return new File(new File(startupDirectory, VERSIONS_DIR), POINTER_FILE).isFile();
+	}
+
+	/**
+	 * Returns the version to start, or <code>null</code> if the version installed in the startup
+	 * directory should be started.
+	 *
+	 * @return the version to start
+	 */
+	public String getVersion() {
+		return pointer.getProperty(VERSION);
+	}
+
+	/**
+	 * Returns the directory containing the bundles of the version to start.
+	 *
+	 * @return the directory containing the bundles of the version to start
+	 */
+	public File getLibDirectory() {
+		return new File(getVersionDirectory(), LIB_DIR);
+	}
+
+	/**
+	 * Returns the application profile of the version to start.
+	 *
+	 * @return the application profile of the version to start
+	 */
+	public File getApplicationProfile() {
+		return new File(getVersionDirectory(), APPLICATION_PROFILE);
+	}
+
+	/**
+	 * Records that the version started successfully, so it won't be rolled back.
+	 *
+	 * @throws IOException
+	 *             if the pointer file cannot be written
+	 */
+	public void confirm() throws IOException {
+		if (BOOTING.equals(pointer.getProperty(STATE))) {
+			logger.info("Started version " + getVersion());
+			pointer.setProperty(STATE, CONFIRMED);
+			write();
+		}
+	}
+
+	private File getVersionDirectory() {
+		String version = getVersion();
+		if (version == null) {
+			return startupDirectory;
+		}
+		return new File(new File(startupDirectory, VERSIONS_DIR), version);
+	}
+
+	private void rollback() throws IOException {
+		String failedVersion = getVersion();
+		String previousVersion = pointer.getProperty(PREVIOUS);
+		logger.warning(String.format("Version %1$s failed to start, rolling back to %2$s",
+				failedVersion, previousVersion == null ? "the installed version" : previousVersion));
+		pointer.clear();
+		if (previousVersion != null) {
+			pointer.setProperty(VERSION, previousVersion);
+		}
+		pointer.setProperty(FAILED, failedVersion);
+		pointer.setProperty(STATE, CONFIRMED);
+		write();
+	}
+
+	/**
+	 * Writes the pointer file to a temporary file and moves it into place, so the pointer file is
+	 * always complete.
+	 */
+	private void write() throws IOException {
+		File tempFile = new File(pointerFile.getParentFile(), "." + POINTER_FILE + ".tmp");
+		try (OutputStream out = new FileOutputStream(tempFile)) {
+			pointer.store(out, "Active application version");
+		}
+		try {
+			Files.move(tempFile.toPath(), pointerFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error writing " + pointerFile, e);
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+}
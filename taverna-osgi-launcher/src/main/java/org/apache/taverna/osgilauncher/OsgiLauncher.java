@@ -18,6 +18,7 @@ package org.apache.taverna.osgilauncher;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.osgi.framework.Bundle;
@@ -78,6 +80,7 @@ public class OsgiLauncher {
 	private List<Bundle> installedBundles = new ArrayList<Bundle>();
 	private Set<String> startedSpringContexts = new HashSet<String>();
 	private Bundle springOsgiExtender;
+	private ActiveVersion activeVersion;
 
 	private OsgiLauncher(File storageDirectory) {
 		setStorageDirectory(storageDirectory);
@@ -90,7 +93,9 @@ public class OsgiLauncher {
 	 * Constructs an <code>OsgiLauncher</code> that loads bundles from a directory.
 	 *
 	 * Any file in the specified directory with a .jar extension will be loaded when the framework
-	 * is started.
+	 * is started. If the directory is the <code>lib</code> directory of a startup directory that
+	 * updates have been installed in, the bundles are loaded from the lib directory of the
+	 * {@link ActiveVersion active version} instead.
 	 *
 	 * @param storageDirectory
 	 *            persistent storage area used by the framework
@@ -99,6 +104,101 @@ public class OsgiLauncher {
 	 */
 	public OsgiLauncher(File storageDirectory, File bundleDirectory) {
 		this(storageDirectory);
+		activeVersion = selectActiveVersion(null, bundleDirectory);
+		addBundleDirectory(activeVersion == null ? bundleDirectory : activeVersion.getLibDirectory());
+	}
+
+	/**
+	 * Constructs an <code>OsgiLauncher</code> that loads the bundles listed in an application
+	 * profile.
+	 *
+	 * The bundles are loaded in dependency order. Jars in the bundle directory that are not listed
+	 * in the application profile are not loaded. If the application profile and the bundle
+	 * directory are in a startup directory that updates have been installed in, the bundles of the
+	 * {@link ActiveVersion active version} are loaded instead.
+	 *
+	 * @param storageDirectory
+	 *            persistent storage area used by the framework
+	 * @param applicationProfile
+	 *            the <code>ApplicationProfile.xml</code> listing the bundles to load
+	 * @param bundleDirectory
+	 *            the directory the file names of the bundles are relative to
+	 * @throws IOException
+	 *             if the application profile cannot be read or a bundle is missing
+	 */
+	public OsgiLauncher(File storageDirectory, File applicationProfile, File bundleDirectory)
+			throws IOException {
+		this(storageDirectory);
+		activeVersion = selectActiveVersion(applicationProfile, bundleDirectory);
+		if (activeVersion == null) {
+			addProfileBundles(applicationProfile, bundleDirectory);
+		} else {
+			addActiveVersionBundles();
+		}
+	}
+
+	/**
+	 * Constructs an <code>OsgiLauncher</code> that loads the bundles of the active version of the
+	 * application.
+	 *
+	 * If the version has an application profile only the bundles listed in the profile are loaded,
+	 * otherwise all the bundles in its lib directory are loaded. The start of the version is
+	 * confirmed once the bundles, and the Spring DM managed services if there are any, have been
+	 * started. If the start fails the previous version of the application will be started next
+	 * time.
+	 *
+	 * @param storageDirectory
+	 *            persistent storage area used by the framework
+	 * @param activeVersion
+	 *            the version of the application to load
+	 * @throws IOException
+	 *             if the application profile cannot be read or a bundle is missing
+	 */
+	public OsgiLauncher(File storageDirectory, ActiveVersion activeVersion) throws IOException {
+		this(storageDirectory);
+		this.activeVersion = activeVersion;
+		addActiveVersionBundles();
+	}
+
+	/**
+	 * Returns the version to start if the bundle directory, and the application profile if not
+	 * <code>null</code>, are in a startup directory that updates have been installed in, otherwise
+	 * returns <code>null</code>.
+	 */
+	private static ActiveVersion selectActiveVersion(File applicationProfile, File bundleDirectory) {
+		File startupDirectory = bundleDirectory.getAbsoluteFile().getParentFile();
+		if (startupDirectory == null || !ActiveVersion.LIB_DIR.equals(bundleDirectory.getName())
+				|| !ActiveVersion.isInstalled(startupDirectory)) {
+			return null;
+		}
+		if (applicationProfile != null
+				&& !startupDirectory.equals(applicationProfile.getAbsoluteFile().getParentFile())) {
+			return null;
+		}
+		try {
+			return new ActiveVersion(startupDirectory);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error selecting the version to start, starting the version in "
+					+ startupDirectory, e);
+			return null;
+		}
+	}
+
+	private void addActiveVersionBundles() throws IOException {
+		if (activeVersion.getApplicationProfile().isFile()) {
+			addProfileBundles(activeVersion.getApplicationProfile(), activeVersion.getLibDirectory());
+		} else {
+			addBundleDirectory(activeVersion.getLibDirectory());
+		}
+	}
+
+	private void addProfileBundles(File applicationProfile, File bundleDirectory) throws IOException {
+		for (File bundleFile : ProfileBundles.getBundleFiles(applicationProfile, bundleDirectory)) {
+			bundlesToInstall.add(bundleFile.toURI());
+		}
+	}
+
+	private void addBundleDirectory(File bundleDirectory) {
 		List<File> jars = Arrays.asList(bundleDirectory.listFiles(new FilenameFilter() {
 			public boolean accept(File dir, String name) {
 				return name.endsWith(".jar");
@@ -167,6 +267,9 @@ public class OsgiLauncher {
 			}
 		}
 		startBundles(bundlesToStart);
+		if (springOsgiExtender == null) {
+			confirmActiveVersion();
+		}
 	}
 
 	/**
@@ -195,6 +298,17 @@ public class OsgiLauncher {
 					}
 				}
 			}
+			confirmActiveVersion();
+		}
+	}
+
+	private void confirmActiveVersion() {
+		if (activeVersion != null) {
+			try {
+				activeVersion.confirm();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Error confirming start of version " + activeVersion.getVersion(), e);
+			}
 		}
 	}
 
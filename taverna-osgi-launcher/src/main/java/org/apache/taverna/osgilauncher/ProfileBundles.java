@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.osgilauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.osgi.framework.Constants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * The bundles listed in an application profile, in dependency order.
+ * <p>
+ * The profile is read with the platform DOM parser rather than the JAXB classes of the
+ * application profile schema, so that the launcher has no dependencies and doesn't pay for
+ * creating a JAXB context at startup.
+ * <p>
+ * Bundles are ordered so that a bundle comes after the bundles exporting the packages it imports,
+ * the bundles it requires and its fragment host. Bundles with no dependency between them, or in a
+ * dependency cycle, keep the order of the profile.
+ */
+class ProfileBundles {
+
+	static final String PROFILE_NAMESPACE = "http://ns.taverna.org.uk/2013/application/profile";
+
+	private static final Logger logger = Logger.getLogger(ProfileBundles.class.getName());
+
+	private ProfileBundles() {
+	}
+
+	/**
+	 * Returns the files of the bundles listed in the application profile, in dependency order.
+	 * Jars in the bundle directory that the profile doesn't list are logged and skipped.
+	 *
+	 * @param applicationProfile
+	 *            the <code>ApplicationProfile.xml</code> file
+	 * @param bundleDirectory
+	 *            the directory the file names of the bundles are relative to
+	 * @return the files of the bundles listed in the application profile
+	 * @throws IOException
+	 *             if the application profile cannot be read or a listed bundle is missing
+	 */
+	static List<File> getBundleFiles(File applicationProfile, File bundleDirectory)
+			throws IOException {
+		Map<String, File> bundleFiles = readProfile(applicationProfile, bundleDirectory);
+		warnAboutStrayJars(bundleFiles.values(), bundleDirectory);
+		Map<String, Set<String>> dependencies = getDependencies(bundleFiles);
+		return sort(bundleFiles, dependencies);
+	}
+
+	/**
+	 * Returns the bundle files listed in the application profile, by symbolic name.
+	 */
+	private static Map<String, File> readProfile(File applicationProfile, File bundleDirectory)
+			throws IOException {
+		Document document;
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			DocumentBuilder documentBuilder = factory.newDocumentBuilder();
+			document = documentBuilder.parse(applicationProfile);
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Error reading " + applicationProfile, e);
+		}
+		Map<String, File> bundleFiles = new LinkedHashMap<String, File>();
+		NodeList bundles = document.getDocumentElement().getElementsByTagNameNS(PROFILE_NAMESPACE,
+				"bundle");
+		for (int i = 0; i < bundles.getLength(); i++) {
+			Element bundle = (Element) bundles.item(i);
+			String symbolicName = bundle.getAttribute("symbolicName");
+			NodeList fileNames = bundle.getElementsByTagNameNS(PROFILE_NAMESPACE, "fileName");
+			if (fileNames.getLength() == 0) {
+				logger.warning(String.format("No file name for bundle %1$s in %2$s", symbolicName,
+						applicationProfile));
+				continue;
+			}
+			File bundleFile = new File(bundleDirectory, fileNames.item(0).getTextContent().trim());
+			if (!bundleFile.isFile()) {
+				throw new IOException(String.format("Bundle %1$s is missing from %2$s", symbolicName,
+						bundleFile));
+			}
+			bundleFiles.put(symbolicName, bundleFile);
+		}
+		return bundleFiles;
+	}
+
+	private static void warnAboutStrayJars(Iterable<File> bundleFiles, File bundleDirectory) {
+		Set<File> listedJars = new HashSet<File>();
+		for (File bundleFile : bundleFiles) {
+			listedJars.add(bundleFile.getAbsoluteFile());
+		}
+		List<File> strayJars = new ArrayList<File>();
+		findStrayJars(bundleDirectory, listedJars, strayJars);
+		if (!strayJars.isEmpty()) {
+			logger.warning(String.format(
+					"Skipping %1$d jars in %2$s that are not in the application profile: %3$s",
+					strayJars.size(), bundleDirectory, strayJars));
+		}
+	}
+
+	private static void findStrayJars(File directory, Set<File> listedJars, List<File> strayJars) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				findStrayJars(file, listedJars, strayJars);
+			} else if (file.getName().endsWith(".jar") && !listedJars.contains(file.getAbsoluteFile())) {
+				strayJars.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the symbolic names of the listed bundles that each bundle depends on.
+	 */
+	private static Map<String, Set<String>> getDependencies(Map<String, File> bundleFiles)
+			throws IOException {
+		Map<String, Attributes> manifests = new HashMap<String, Attributes>();
+		Map<String, String> exporters = new HashMap<String, String>();
+		for (Map.Entry<String, File> bundle : bundleFiles.entrySet()) {
+			Attributes attributes;
+			try (JarFile jarFile = new JarFile(bundle.getValue())) {
+				Manifest manifest = jarFile.getManifest();
+				attributes = manifest == null ? new Attributes() : manifest.getMainAttributes();
+			}
+			manifests.put(bundle.getKey(), attributes);
+			for (String exportedPackage : getNames(attributes.getValue(Constants.EXPORT_PACKAGE))) {
+				if (!exporters.containsKey(exportedPackage)) {
+					exporters.put(exportedPackage, bundle.getKey());
+				}
+			}
+		}
+		Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Attributes> manifest : manifests.entrySet()) {
+			Set<String> bundleDependencies = new LinkedHashSet<String>();
+			Attributes attributes = manifest.getValue();
+			for (String importedPackage : getNames(attributes.getValue(Constants.IMPORT_PACKAGE))) {
+				String exporter = exporters.get(importedPackage);
+				if (exporter != null) {
+					bundleDependencies.add(exporter);
+				}
+			}
+			for (String requiredBundle : getNames(attributes.getValue(Constants.REQUIRE_BUNDLE))) {
+				bundleDependencies.add(requiredBundle);
+			}
+			for (String fragmentHost : getNames(attributes.getValue(Constants.FRAGMENT_HOST))) {
+				bundleDependencies.add(fragmentHost);
+			}
+			bundleDependencies.remove(manifest.getKey());
+			bundleDependencies.retainAll(bundleFiles.keySet());
+			dependencies.put(manifest.getKey(), bundleDependencies);
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Returns the bundle files with each bundle after the bundles it depends on. A bundle in a
+	 * dependency cycle is added once all its dependencies outside the cycle have been added.
+	 */
+	static List<File> sort(Map<String, File> bundleFiles, Map<String, Set<String>> dependencies) {
+		List<File> sortedFiles = new ArrayList<File>();
+		Set<String> added = new HashSet<String>();
+		Set<String> visiting = new HashSet<String>();
+		for (String symbolicName : bundleFiles.keySet()) {
+			visit(symbolicName, bundleFiles, dependencies, added, visiting, sortedFiles);
+		}
+		return sortedFiles;
+	}
+
+	private static void visit(String symbolicName, Map<String, File> bundleFiles,
+			Map<String, Set<String>> dependencies, Set<String> added, Set<String> visiting,
+			List<File> sortedFiles) {
+		if (added.contains(symbolicName) || !visiting.add(symbolicName)) {
+			// already added, or a cycle
+			return;
+		}
+		Set<String> bundleDependencies = dependencies.get(symbolicName);
+		if (bundleDependencies != null) {
+			for (String dependency : bundleDependencies) {
+				visit(dependency, bundleFiles, dependencies, added, visiting, sortedFiles);
+			}
+		}
+		visiting.remove(symbolicName);
+		added.add(symbolicName);
+		sortedFiles.add(bundleFiles.get(symbolicName));
+	}
+
+	/**
+	 * Returns the package or bundle names in a manifest header, ignoring their attributes and
+	 * directives.
+	 */
+	static List<String> getNames(String header) {
+		if (header == null) {
+			return Collections.emptyList();
+		}
+		List<String> names = new ArrayList<String>();
+		boolean quoted = false;
+		boolean parameter = false;
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i <= header.length(); i++) {
+			char c = i < header.length() ? header.charAt(i) : ',';
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && (c == ',' || c == ';')) {
+				// a clause may have several names before its parameters
+				String token = name.toString().trim();
+				if (!parameter && !token.isEmpty() && token.indexOf('=') < 0) {
+					names.add(token);
+				} else if (token.indexOf('=') >= 0) {
+					parameter = true;
+				}
+				name.setLength(0);
+				if (c == ',') {
+					parameter = false;
+				}
+			} else if (!parameter) {
+				name.append(c);
+			}
+		}
+		return names;
+	}
+
+}
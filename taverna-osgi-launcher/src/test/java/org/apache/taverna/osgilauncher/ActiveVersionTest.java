@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.osgilauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActiveVersionTest {
+
+	private File startupDirectory;
+	private File versionsDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		startupDirectory = Files.createTempDirectory("startup").toFile();
+		versionsDirectory = new File(startupDirectory, ActiveVersion.VERSIONS_DIR);
+	}
+
+	@Test
+	public void installedVersion() throws Exception {
+		assertFalse(ActiveVersion.isInstalled(startupDirectory));
+		ActiveVersion activeVersion = new ActiveVersion(startupDirectory);
+		assertNull(activeVersion.getVersion());
+		assertEquals(new File(startupDirectory, "lib"), activeVersion.getLibDirectory());
+		assertEquals(new File(startupDirectory, "ApplicationProfile.xml"),
+				activeVersion.getApplicationProfile());
+		activeVersion.confirm();
+		assertFalse(ActiveVersion.isInstalled(startupDirectory));
+	}
+
+	@Test
+	public void confirmNewVersion() throws Exception {
+		writePointer("1.1", "1.0");
+		assertTrue(ActiveVersion.isInstalled(startupDirectory));
+
+		ActiveVersion activeVersion = new ActiveVersion(startupDirectory);
+		assertEquals("1.1", activeVersion.getVersion());
+		assertEquals(new File(new File(versionsDirectory, "1.1"), "lib"),
+				activeVersion.getLibDirectory());
+		assertEquals("booting", readPointer().getProperty("state"));
+
+		activeVersion.confirm();
+		assertEquals("confirmed", readPointer().getProperty("state"));
+		assertEquals("1.1", new ActiveVersion(startupDirectory).getVersion());
+	}
+
+	@Test
+	public void rollback() throws Exception {
+		writePointer("1.2", "1.1");
+		// the start of 1.2 never completes
+		assertEquals("1.2", new ActiveVersion(startupDirectory).getVersion());
+
+		ActiveVersion activeVersion = new ActiveVersion(startupDirectory);
+		assertEquals("1.1", activeVersion.getVersion());
+		Properties pointer = readPointer();
+		assertEquals("1.1", pointer.getProperty("version"));
+		assertEquals("1.2", pointer.getProperty("failed"));
+		assertEquals("confirmed", pointer.getProperty("state"));
+		assertNull(pointer.getProperty("previous"));
+
+		// the version rolled back to isn't rolled back again
+		assertEquals("1.1", new ActiveVersion(startupDirectory).getVersion());
+	}
+
+	@Test
+	public void rollbackToInstalledVersion() throws Exception {
+		writePointer("1.1", null);
+		new ActiveVersion(startupDirectory);
+
+		ActiveVersion activeVersion = new ActiveVersion(startupDirectory);
+		assertNull(activeVersion.getVersion());
+		assertEquals(new File(startupDirectory, "lib"), activeVersion.getLibDirectory());
+		assertEquals("1.1", readPointer().getProperty("failed"));
+	}
+
+	/**
+	 * Writes the pointer file as the update manager does when it installs a version.
+	 */
+	private void writePointer(String version, String previousVersion) throws IOException {
+		Properties pointer = new Properties();
+		pointer.setProperty("version", version);
+		if (previousVersion != null) {
+			pointer.setProperty("previous", previousVersion);
+		}
+		pointer.setProperty("state", "pending");
+		versionsDirectory.mkdirs();
+		try (OutputStream out = Files.newOutputStream(new File(versionsDirectory,
+				ActiveVersion.POINTER_FILE).toPath())) {
+			pointer.store(out, null);
+		}
+	}
+
+	private Properties readPointer() throws IOException {
+		Properties pointer = new Properties();
+		try (InputStream in = Files.newInputStream(new File(versionsDirectory,
+				ActiveVersion.POINTER_FILE).toPath())) {
+			pointer.load(in);
+		}
+		return pointer;
+	}
+
+}
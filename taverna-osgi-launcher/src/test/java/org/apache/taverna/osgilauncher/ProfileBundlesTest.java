@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.osgilauncher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+public class ProfileBundlesTest {
+
+	private Path bundleDirectory;
+	private Path applicationProfile;
+
+	@Before
+	public void setUp() throws Exception {
+		bundleDirectory = Files.createTempDirectory("lib");
+		applicationProfile = Files.createTempFile("ApplicationProfile", ".xml");
+	}
+
+	@Test
+	public void dependencyOrder() throws Exception {
+		File a = writeBundle("a.jar", Constants.IMPORT_PACKAGE,
+				"org.example.b;version=\"[1.0,2.0)\",org.example.missing");
+		File d = writeBundle("d.jar", Constants.FRAGMENT_HOST, "c;bundle-version=1.0");
+		File b = writeBundle("b.jar", Constants.EXPORT_PACKAGE, "org.example.b;version=1.0",
+				Constants.REQUIRE_BUNDLE, "c;resolution:=optional");
+		File c = writeBundle("c.jar", Constants.EXPORT_PACKAGE, "org.example.c");
+		writeProfile("a", "a.jar", "d", "d.jar", "b", "b.jar", "c", "c.jar");
+		assertEquals(Arrays.asList(c, b, a, d), getBundleFiles());
+	}
+
+	@Test
+	public void independentBundlesKeepProfileOrder() throws Exception {
+		File b = writeBundle("b.jar");
+		File a = writeBundle("a.jar");
+		File c = writeBundle("c.jar");
+		writeProfile("b", "b.jar", "a", "a.jar", "c", "c.jar");
+		assertEquals(Arrays.asList(b, a, c), getBundleFiles());
+	}
+
+	@Test
+	public void dependencyCycle() throws Exception {
+		File a = writeBundle("a.jar", Constants.EXPORT_PACKAGE, "org.example.a",
+				Constants.IMPORT_PACKAGE, "org.example.b");
+		File b = writeBundle("b.jar", Constants.EXPORT_PACKAGE, "org.example.b",
+				Constants.IMPORT_PACKAGE, "org.example.a,org.example.c");
+		File c = writeBundle("c.jar", Constants.EXPORT_PACKAGE, "org.example.c");
+		writeProfile("a", "a.jar", "b", "b.jar", "c", "c.jar");
+		assertEquals(Arrays.asList(c, b, a), getBundleFiles());
+	}
+
+	@Test
+	public void strayJarsIgnored() throws Exception {
+		File a = writeBundle("a.jar");
+		writeBundle("stray.jar");
+		Files.createDirectory(bundleDirectory.resolve("old"));
+		writeBundle("old/a.jar");
+		writeProfile("a", "a.jar");
+		assertEquals(Collections.singletonList(a), getBundleFiles());
+	}
+
+	@Test(expected = IOException.class)
+	public void missingBundle() throws Exception {
+		writeBundle("a.jar");
+		writeProfile("a", "a.jar", "b", "b.jar");
+		getBundleFiles();
+	}
+
+	@Test
+	public void getNames() {
+		assertEquals(Collections.emptyList(), ProfileBundles.getNames(null));
+		assertEquals(Arrays.asList("org.example.a", "org.example.b"),
+				ProfileBundles.getNames(" org.example.a , org.example.b "));
+		assertEquals(Arrays.asList("org.example.a", "org.example.b", "org.example.c"),
+				ProfileBundles.getNames("org.example.a;org.example.b;version=\"[1.0,2.0)\";"
+						+ "uses:=\"org.example.x,org.example.y\",org.example.c"));
+		assertEquals(Arrays.asList("c"),
+				ProfileBundles.getNames("c;bundle-version=\"1.0\";resolution:=optional"));
+	}
+
+	private List<File> getBundleFiles() throws IOException {
+		return ProfileBundles.getBundleFiles(applicationProfile.toFile(), bundleDirectory.toFile());
+	}
+
+	/**
+	 * Writes a bundle with the manifest headers given as name, value pairs.
+	 */
+	private File writeBundle(String fileName, String... headers) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		for (int i = 0; i < headers.length; i += 2) {
+			attributes.putValue(headers[i], headers[i + 1]);
+		}
+		Path bundle = bundleDirectory.resolve(fileName);
+		try (OutputStream out = Files.newOutputStream(bundle)) {
+			new JarOutputStream(out, manifest).close();
+		}
+		return bundle.toFile();
+	}
+
+	/**
+	 * Writes an application profile listing the bundles given as symbolic name, file name pairs.
+	 */
+	private void writeProfile(String... bundles) throws IOException {
+		StringBuilder profile = new StringBuilder();
+		profile.append("<applicationProfile xmlns=\"").append(ProfileBundles.PROFILE_NAMESPACE)
+				.append("\">");
+		for (int i = 0; i < bundles.length; i += 2) {
+			profile.append("<bundle symbolicName=\"").append(bundles[i]).append("\">");
+			profile.append("<fileName>").append(bundles[i + 1]).append("</fileName></bundle>");
+		}
+		profile.append("</applicationProfile>");
+		Files.write(applicationProfile, profile.toString().getBytes(UTF_8));
+	}
+
+}
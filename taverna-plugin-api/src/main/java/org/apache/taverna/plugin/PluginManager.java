@@ -68,6 +68,25 @@ public interface PluginManager {
 	 */
 	public List<PluginVersions> getAvailablePlugins() throws PluginException;
 
+	/**
+	 * Returns new plugins available from all plugin sites that match the query, ordered by plugin
+	 * ID.
+	 * <p>
+	 * Each word in the query must be the start of a word in the plugin's ID, name, description or
+	 * organization, ignoring case. An empty query matches all available plugins.
+	 *
+	 * @param query
+	 *            the words to search for
+	 * @param offset
+	 *            the number of matching plugins to skip
+	 * @param limit
+	 *            the maximum number of plugins to return
+	 * @return new plugins available from all plugin sites that match the query
+	 * @throws PluginException
+	 */
+	public List<PluginVersions> searchAvailablePlugins(String query, int offset, int limit)
+			throws PluginException;
+
 	/**
 	 * Returns all the installed plugins.
 	 *
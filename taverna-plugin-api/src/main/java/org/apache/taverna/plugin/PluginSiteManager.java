@@ -67,7 +67,7 @@ public interface PluginSiteManager {
 	public void removePluginSite(PluginSite pluginSite) throws PluginException;
 
 	/**
-	 * Returns all the plugins available at the specified plugin site.
+	 * Returns all the plugins available at the specified plugin site, ordered by plugin ID.
 	 * <p>
 	 * If no plugins are available an empty list is returned.
 	 *
@@ -58,7 +58,7 @@ public class PluginImpl implements Plugin {
 		name = pluginInfo.getName();
 		description = pluginInfo.getDescription();
 		organization = pluginInfo.getOrganization();
-		version = Version.parseVersion(pluginInfo.getVersion());
+		version = VersionCache.parse(pluginInfo.getVersion());
 	}
 
 	@Override
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.taverna.plugin.xml.jaxb.PluginVersions;
+
+/**
+ * An inverted index over the ID, name, description and organization of the plugins available
+ * from plugin sites.
+ * <p>
+ * Plugins are indexed per plugin site, so when a site catalog changes only the plugins that were
+ * added, removed or changed on that site are reindexed. If more than one site has a plugin with
+ * the same ID, the site that was updated last provides the plugin.
+ */
+class PluginIndex {
+
+	/** Plugins are scanned in order if a query word matches more than one in this many of them. */
+	private static final int SCAN_RATIO = 10;
+	private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/** Plugin IDs for each indexed word. */
+	private final NavigableMap<String, Set<String>> postings = new TreeMap<String, Set<String>>();
+	private final NavigableMap<String, Entry> entries = new TreeMap<String, Entry>();
+	private final Map<String, Set<String>> siteIds = new HashMap<String, Set<String>>();
+
+	/**
+	 * Updates the index with the plugins currently available from a plugin site.
+	 *
+	 * @return the number of plugins that were added, removed or reindexed
+	 */
+	synchronized int update(String siteUrl, List<PluginVersions> plugins) {
+		int changes = 0;
+		Set<String> oldIds = siteIds.remove(siteUrl);
+		Set<String> ids = new HashSet<String>();
+		for (PluginVersions plugin : plugins) {
+			ids.add(plugin.getId());
+			String text = getText(plugin);
+			Entry entry = entries.get(plugin.getId());
+			if (entry != null) {
+				if (entry.siteUrl.equals(siteUrl) && entry.text.equals(text)) {
+					// the indexed text is unchanged, but the versions may not be
+					entry.plugin = plugin;
+					continue;
+				}
+				remove(entry);
+			}
+			add(new Entry(siteUrl, plugin, text));
+			changes++;
+		}
+		if (oldIds != null) {
+			for (String id : oldIds) {
+				Entry entry = entries.get(id);
+				if (!ids.contains(id) && entry != null && entry.siteUrl.equals(siteUrl)) {
+					remove(entry);
+					changes++;
+				}
+			}
+		}
+		siteIds.put(siteUrl, ids);
+		return changes;
+	}
+
+	/**
+	 * Removes the plugins from plugin sites that are not in the collection.
+	 */
+	synchronized void retainSites(Collection<String> siteUrls) {
+		for (String siteUrl : new ArrayList<String>(siteIds.keySet())) {
+			if (!siteUrls.contains(siteUrl)) {
+				update(siteUrl, Collections.<PluginVersions> emptyList());
+				siteIds.remove(siteUrl);
+			}
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the plugins that match the query, ordered by plugin ID.
+	 * <p>
+	 * Each word in the query must be the start of a word in the plugin's ID, name, description or
+	 * organization. An empty query matches all plugins.
+	 *
+	 * @param query
+	 *            the words to search for
+	 * @param excludedIds
+	 *            the IDs of plugins to leave out of the results
+	 * @param offset
+	 *            the number of matching plugins to skip
+	 * @param limit
+	 *            the maximum number of plugins to return
+	 * @return the plugins that match the query
+	 */
+	synchronized List<PluginVersions> search(String query, Set<String> excludedIds, int offset,
+			int limit) {
+		List<PluginVersions> results = new ArrayList<PluginVersions>();
+		Set<String> words = getWords(query);
+		Collection<String> candidates = entries.keySet();
+		if (!words.isEmpty()) {
+			// the longest word is likely to match the fewest plugins
+			String longestWord = "";
+			for (String word : words) {
+				if (word.length() > longestWord.length()) {
+					longestWord = word;
+				}
+			}
+			Collection<Set<String>> postingsForWord = getPostings(longestWord).values();
+			// if the word matches many plugins, scanning all plugins in order is quicker, as the
+			// scan stops once the page is full
+			int matches = 0;
+			for (Set<String> ids : postingsForWord) {
+				matches += ids.size();
+				if (matches > entries.size() / SCAN_RATIO) {
+					break;
+				}
+			}
+			if (matches <= entries.size() / SCAN_RATIO) {
+				candidates = new TreeSet<String>();
+				for (Set<String> ids : postingsForWord) {
+					candidates.addAll(ids);
+				}
+				words.remove(longestWord);
+			}
+		}
+		int skipped = 0;
+		for (String id : candidates) {
+			if (results.size() >= limit) {
+				break;
+			}
+			Entry entry = entries.get(id);
+			if (excludedIds.contains(id) || !entry.matches(words)) {
+				continue;
+			}
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				results.add(entry.plugin);
+			}
+		}
+		return results;
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.plugin.getId(), entry);
+		for (String word : entry.words) {
+			Set<String> ids = postings.get(word);
+			if (ids == null) {
+				ids = new HashSet<String>();
+				postings.put(word, ids);
+			}
+			ids.add(entry.plugin.getId());
+		}
+	}
+
+	private void remove(Entry entry) {
+		entries.remove(entry.plugin.getId());
+		for (String word : entry.words) {
+			Set<String> ids = postings.get(word);
+			ids.remove(entry.plugin.getId());
+			if (ids.isEmpty()) {
+				postings.remove(word);
+			}
+		}
+	}
+
+	/**
+	 * Returns the postings for the indexed words that start with the prefix.
+	 */
+	private NavigableMap<String, Set<String>> getPostings(String prefix) {
+		return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	private static String getText(PluginVersions plugin) {
+		StringBuilder text = new StringBuilder();
+		for (String field : new String[] { plugin.getId(), plugin.getName(),
+				plugin.getDescription(), plugin.getOrganization() }) {
+			if (field != null) {
+				text.append(field);
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	private static Set<String> getWords(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+		if (text != null) {
+			for (String word : WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+				if (!word.isEmpty()) {
+					words.add(word);
+				}
+			}
+		}
+		return words;
+	}
+
+	private static class Entry {
+
+		private final String siteUrl;
+		private final String text;
+		private final NavigableSet<String> words;
+		private PluginVersions plugin;
+
+		Entry(String siteUrl, PluginVersions plugin, String text) {
+			this.siteUrl = siteUrl;
+			this.plugin = plugin;
+			this.text = text;
+			words = new TreeSet<String>(getWords(text));
+		}
+
+		/**
+		 * Returns true if each of the words is the start of a word in this entry.
+		 */
+		boolean matches(Set<String> prefixes) {
+			for (String prefix : prefixes) {
+				String word = words.ceiling(prefix);
+				if (word == null || !word.startsWith(prefix)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
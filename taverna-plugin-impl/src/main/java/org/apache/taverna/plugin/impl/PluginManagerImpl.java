@@ -24,8 +24,12 @@ import java.net.URI;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +45,7 @@ import org.apache.log4j.Logger;
 import org.apache.taverna.configuration.app.ApplicationConfiguration;
 import org.apache.taverna.download.DownloadException;
 import org.apache.taverna.download.DownloadManager;
+import org.apache.taverna.download.DownloadPriority;
 import org.apache.taverna.plugin.Plugin;
 import org.apache.taverna.plugin.Plugin.State;
 import org.apache.taverna.plugin.PluginException;
@@ -63,11 +68,21 @@ import org.osgi.service.event.EventAdmin;
  */
 public class PluginManagerImpl implements PluginManager {
 
+	/** Algorithm of the digest files published next to plugin files on plugin sites. */
 	private static final String DIGEST_ALGORITHM = "MD5";
+	/** Algorithm of the digests listed in plugin site catalogs. */
+	private static final String INLINE_DIGEST_ALGORITHM = "SHA-256";
 	private static final String PLUGIN_FILE_NAME = "META-INF/taverna/plugin.xml";
 
 	private static final Logger logger = Logger.getLogger(PluginManagerImpl.class);
 
+	static final Comparator<PluginVersions> PLUGIN_ID_ORDER = new Comparator<PluginVersions>() {
+		@Override
+		public int compare(PluginVersions plugin1, PluginVersions plugin2) {
+			return plugin1.getId().compareTo(plugin2.getId());
+		}
+	};
+
 	private EventAdmin eventAdmin;
 	private ApplicationConfiguration applicationConfiguration;
 	private BundleContext bundleContext;
@@ -77,6 +92,7 @@ public class PluginManagerImpl implements PluginManager {
 	private Map<String, Plugin> installedPlugins = new TreeMap<String, Plugin>();
 	private Map<String, PluginVersions> availablePlugins = new TreeMap<String, PluginVersions>();
 	private Map<String, PluginVersions> pluginUpdates = new TreeMap<String, PluginVersions>();
+	private PluginIndex pluginIndex = new PluginIndex();
 
 	private boolean updateAvailablePlugins = true;
 
@@ -102,17 +118,10 @@ public class PluginManagerImpl implements PluginManager {
 			pluginUpdates.clear();
 			for (PluginSite pluginSite : pluginSiteManager.getPluginSites()) {
 				List<PluginVersions> plugins = pluginSiteManager.getPlugins(pluginSite);
-				for (PluginVersions plugin : plugins) {
-					if (installedPlugins.containsKey(plugin.getId())) {
-						Plugin installedPlugin = installedPlugins.get(plugin.getId());
-						if (installedPlugin.getFile().toFile().canWrite()) {
-							Version latestVersion = Version.parseVersion(plugin.getLatestVersion()
-									.getVersion());
-							if (latestVersion.compareTo(installedPlugin.getVersion()) > 0) {
-								pluginUpdates.put(plugin.getId(), plugin);
-								updatesFound = true;
-							}
-						}
+				for (PluginVersions plugin : findUpdates(installedPlugins.values(), plugins)) {
+					if (installedPlugins.get(plugin.getId()).getFile().toFile().canWrite()) {
+						pluginUpdates.put(plugin.getId(), plugin);
+						updatesFound = true;
 					}
 				}
 			}
@@ -122,6 +131,65 @@ public class PluginManagerImpl implements PluginManager {
 		}
 	}
 
+	/**
+	 * Returns the available plugins that are newer versions of installed plugins.
+	 * <p>
+	 * Both lists are walked once in order of plugin ID, so the installed plugins must be ordered by
+	 * ID. The available plugins are sorted if they are not already ordered by ID.
+	 *
+	 * @param installedPlugins
+	 *            the installed plugins, ordered by ID
+	 * @param availablePlugins
+	 *            the plugins available from a plugin site
+	 * @return the available plugins that are updates to installed plugins
+	 */
+	static List<PluginVersions> findUpdates(Collection<Plugin> installedPlugins,
+			List<PluginVersions> availablePlugins) {
+		List<PluginVersions> updates = new ArrayList<PluginVersions>();
+		availablePlugins = sortById(availablePlugins);
+		Iterator<Plugin> installed = installedPlugins.iterator();
+		Iterator<PluginVersions> available = availablePlugins.iterator();
+		if (!installed.hasNext() || !available.hasNext()) {
+			return updates;
+		}
+		Plugin installedPlugin = installed.next();
+		PluginVersions availablePlugin = available.next();
+		while (true) {
+			int comparison = installedPlugin.getId().compareTo(availablePlugin.getId());
+			if (comparison == 0) {
+				Version latestVersion = VersionCache.parse(availablePlugin.getLatestVersion()
+						.getVersion());
+				if (latestVersion.compareTo(installedPlugin.getVersion()) > 0) {
+					updates.add(availablePlugin);
+				}
+			}
+			if (comparison <= 0) {
+				if (!installed.hasNext()) {
+					break;
+				}
+				installedPlugin = installed.next();
+			}
+			if (comparison >= 0) {
+				if (!available.hasNext()) {
+					break;
+				}
+				availablePlugin = available.next();
+			}
+		}
+		return updates;
+	}
+
+	private static List<PluginVersions> sortById(List<PluginVersions> plugins) {
+		for (int i = 1; i < plugins.size(); i++) {
+			if (plugins.get(i - 1).getId().compareTo(plugins.get(i).getId()) > 0) {
+				List<PluginVersions> sortedPlugins = new ArrayList<PluginVersions>(plugins);
+				Collections.sort(sortedPlugins, PLUGIN_ID_ORDER);
+				return sortedPlugins;
+			}
+		}
+		return plugins;
+	}
+
 	@Override
 	public List<PluginVersions> getPluginUpdates() throws PluginException {
 		synchronized (pluginUpdates) {
@@ -137,9 +205,22 @@ public class PluginManagerImpl implements PluginManager {
 
 	@Override
 	public List<PluginVersions> getAvailablePlugins() throws PluginException {
+		updateAvailablePlugins();
+		return new ArrayList<PluginVersions>(availablePlugins.values());
+	}
+
+	@Override
+	public List<PluginVersions> searchAvailablePlugins(String query, int offset, int limit)
+			throws PluginException {
+		updateAvailablePlugins();
+		return pluginIndex.search(query, installedPlugins.keySet(), offset, limit);
+	}
+
+	private void updateAvailablePlugins() throws PluginException {
 		if (updateAvailablePlugins) {
 			synchronized (availablePlugins) {
 				availablePlugins = new HashMap<String, PluginVersions>();
+				List<String> pluginSiteUrls = new ArrayList<String>();
 				for (PluginSite pluginSite : pluginSiteManager.getPluginSites()) {
 					List<PluginVersions> plugins = pluginSiteManager.getPlugins(pluginSite);
 					for (PluginVersions plugin : plugins) {
@@ -147,11 +228,15 @@ public class PluginManagerImpl implements PluginManager {
 							availablePlugins.put(plugin.getId(), plugin);
 						}
 					}
+					pluginSiteUrls.add(pluginSite.getUrl());
+					int changes = pluginIndex.update(pluginSite.getUrl(), plugins);
+					logger.debug(String.format("Reindexed %1$d plugins from plugin site %2$s",
+							changes, pluginSite.getUrl()));
 				}
+				pluginIndex.retainSites(pluginSiteUrls);
 			}
 			updateAvailablePlugins = false;
 		}
-		return new ArrayList<PluginVersions>(availablePlugins.values());
 	}
 
 	@Override
@@ -198,20 +283,52 @@ public class PluginManagerImpl implements PluginManager {
 
 	@Override
 	public Plugin installPlugin(String pluginSiteURL, String pluginFileName) throws PluginException {
-		Path pluginFile = getPluginFile(pluginSiteURL, pluginFileName);
+		String sha256 = null;
+		for (PluginSite pluginSite : pluginSiteManager.getPluginSites()) {
+			if (pluginSite.getUrl().equals(pluginSiteURL)) {
+				sha256 = findSha256(pluginSiteManager.getPlugins(pluginSite), pluginFileName);
+				break;
+			}
+		}
+		Path pluginFile = getPluginFile(pluginSiteURL, pluginFileName, sha256);
 		return installPlugin(pluginFile);
 	}
 
+	/**
+	 * Returns the SHA-256 digest that a plugin site catalog lists for a plugin file, or
+	 * <code>null</code> if the file isn't listed or has no digest.
+	 *
+	 * @param plugins
+	 *            the plugins listed by the plugin site
+	 * @param pluginFileName
+	 *            the name of the plugin file on the plugin site
+	 * @return the SHA-256 digest of the plugin file, or <code>null</code> if it isn't known
+	 */
+	static String findSha256(List<PluginVersions> plugins, String pluginFileName) {
+		for (PluginVersions plugin : plugins) {
+			if (pluginFileName.equals(plugin.getLatestVersion().getFile())) {
+				return plugin.getLatestVersion().getSha256();
+			}
+			for (org.apache.taverna.versions.xml.jaxb.Version version : plugin.getPreviousVersion()) {
+				if (pluginFileName.equals(version.getFile())) {
+					return version.getSha256();
+				}
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public Plugin updatePlugin(PluginVersions pluginVersions) throws PluginException {
 		String pluginId = pluginVersions.getId();
 		String pluginSiteUrl = pluginVersions.getPluginSiteUrl();
 		String pluginFile = pluginVersions.getLatestVersion().getFile();
+		String sha256 = pluginVersions.getLatestVersion().getSha256();
 		Plugin plugin = installedPlugins.get(pluginId);
 		plugin.stop();
 		Plugin newPlugin;
 		try {
-			newPlugin = installPlugin(pluginSiteUrl, pluginFile);
+			newPlugin = installPlugin(getPluginFile(pluginSiteUrl, pluginFile, sha256));
 		} catch (PluginException e) {
 			plugin.start();
 			throw new PluginException("Failed to update plugin " + pluginId, e);
@@ -304,8 +421,9 @@ public class PluginManagerImpl implements PluginManager {
 
 		// install plugin bundles
 		Set<Bundle> pluginBundles = plugin.getBundles();
+		Map<String, List<Bundle>> bundlesByName = getInstalledBundles();
 		for (BundleInfo bundleInfo : pluginInfo.getBundle()) {
-			Bundle installedBundle = getInstalledBundle(bundleInfo);
+			Bundle installedBundle = getInstalledBundle(bundlesByName, bundleInfo);
 			if (installedBundle == null) {
 				// install the bundle from the jar
 				JarEntry entry = jarFile.getJarEntry(bundleInfo.getFileName());
@@ -336,12 +454,29 @@ public class PluginManagerImpl implements PluginManager {
 		return plugin;
 	}
 
-	private Bundle getInstalledBundle(BundleInfo bundleInfo) {
+	/**
+	 * Returns the installed bundles indexed by symbolic name.
+	 */
+	private Map<String, List<Bundle>> getInstalledBundles() {
+		Map<String, List<Bundle>> bundlesByName = new HashMap<String, List<Bundle>>();
 		for (Bundle installedBundle : bundleContext.getBundles()) {
-			if (installedBundle.getSymbolicName().equals(bundleInfo.getSymbolicName())) {
-				org.osgi.framework.Version installedVersion = installedBundle.getVersion();
-				if (installedVersion
-						.equals(new org.osgi.framework.Version(bundleInfo.getVersion()))) {
+			List<Bundle> bundles = bundlesByName.get(installedBundle.getSymbolicName());
+			if (bundles == null) {
+				bundles = new ArrayList<Bundle>(1);
+				bundlesByName.put(installedBundle.getSymbolicName(), bundles);
+			}
+			bundles.add(installedBundle);
+		}
+		return bundlesByName;
+	}
+
+	private Bundle getInstalledBundle(Map<String, List<Bundle>> bundlesByName,
+			BundleInfo bundleInfo) {
+		List<Bundle> bundles = bundlesByName.get(bundleInfo.getSymbolicName());
+		if (bundles != null) {
+			Version version = VersionCache.parse(bundleInfo.getVersion());
+			for (Bundle installedBundle : bundles) {
+				if (installedBundle.getVersion().equals(version)) {
 					return installedBundle;
 				}
 			}
@@ -369,11 +504,22 @@ public class PluginManagerImpl implements PluginManager {
 		}
 	}
 
-	private Path getPluginFile(String pluginSiteURL, String pluginFileName) throws PluginException {
+	/**
+	 * Downloads a plugin file from a plugin site, checking it against the SHA-256 digest if known
+	 * or else against the digest file on the plugin site.
+	 */
+	private Path getPluginFile(String pluginSiteURL, String pluginFileName, String sha256)
+			throws PluginException {
 		Path pluginFile = getPluginDirectory().resolve(pluginFileName);
 		URI pluginFileURL = URI.create(pluginSiteURL + "/").resolve(pluginFileName);
 		try {
-			downloadManager.download(pluginFileURL, pluginFile, DIGEST_ALGORITHM);
+			if (sha256 != null) {
+				downloadManager.downloadWithDigest(pluginFileURL, pluginFile,
+						INLINE_DIGEST_ALGORITHM, sha256, DownloadPriority.INTERACTIVE);
+			} else {
+				downloadManager.download(pluginFileURL, pluginFile, DIGEST_ALGORITHM,
+						DownloadPriority.INTERACTIVE);
+			}
 		} catch (DownloadException e) {
 			throw new PluginException("Error downloading plugin file " + pluginFile, e);
 		}
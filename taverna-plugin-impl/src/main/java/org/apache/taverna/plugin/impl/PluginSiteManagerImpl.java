@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.bind.JAXBContext;
@@ -121,6 +122,7 @@ public class PluginSiteManagerImpl implements PluginSiteManager {
 				plugin.setPluginSiteUrl(pluginSite.getUrl());
 				plugins.add(plugin);
 			}
+			Collections.sort(plugins, PluginManagerImpl.PLUGIN_ID_ORDER);
 		} catch (DownloadException e) {
 			throw new PluginException(String.format("Error downloading from plugin site %1$s",
 					pluginSite.getName()), e);
@@ -136,9 +138,22 @@ public class PluginSiteManagerImpl implements PluginSiteManager {
 		Updates updates = applicationConfiguration.getApplicationProfile().getUpdates();
 		systemPluginSites
 				.add(new PluginSiteImpl("", updates.getPluginSite(), PluginSiteType.SYSTEM));
+		setMirrors(updates);
 		return systemPluginSites;
 	}
 
+	private void setMirrors(Updates updates) {
+		try {
+			List<URI> mirrors = new ArrayList<URI>();
+			for (String mirror : updates.getPluginSiteMirror()) {
+				mirrors.add(URI.create(mirror));
+			}
+			downloadManager.setMirrors(URI.create(updates.getPluginSite()), mirrors);
+		} catch (IllegalArgumentException e) {
+			logger.warn("Invalid plugin site mirror URL", e);
+		}
+	}
+
 	private void writePluginSitesFile() {
 		File pluginSitesFile = new File(getDataDirectory(), PLUGIN_SITES_FILE);
 		try {
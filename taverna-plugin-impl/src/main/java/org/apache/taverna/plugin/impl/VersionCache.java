@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Version;
+
+/**
+ * Parses and interns versions, so that the version strings in plugin catalogs are only parsed once
+ * and equal versions share one object.
+ */
+final class VersionCache {
+
+	/** The cache is cleared if it grows beyond this number of version strings. */
+	private static final int MAX_SIZE = 10000;
+
+	private static final ConcurrentMap<String, Version> parsedVersions = new ConcurrentHashMap<String, Version>();
+	private static final ConcurrentMap<Version, Version> internedVersions = new ConcurrentHashMap<Version, Version>();
+
+	private VersionCache() {
+	}
+
+	/**
+	 * Returns the parsed version.
+	 *
+	 * @param version
+	 *            the version string, may be <code>null</code>
+	 * @return the parsed version
+	 * @throws IllegalArgumentException
+	 *             if the version is improperly formatted
+	 */
+	static Version parse(String version) {
+		if (version == null) {
+			return Version.emptyVersion;
+		}
+		Version parsedVersion = parsedVersions.get(version);
+		if (parsedVersion == null) {
+			if (parsedVersions.size() >= MAX_SIZE) {
+				parsedVersions.clear();
+				internedVersions.clear();
+			}
+			parsedVersion = intern(Version.parseVersion(version));
+			parsedVersions.putIfAbsent(version, parsedVersion);
+		}
+		return parsedVersion;
+	}
+
+	/**
+	 * Returns the shared object equal to the version.
+	 */
+	static Version intern(Version version) {
+		Version internedVersion = internedVersions.putIfAbsent(version, version);
+		return internedVersion == null ? version : internedVersion;
+	}
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.taverna.plugin.xml.jaxb.PluginVersions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures building, incrementally updating and querying a {@link PluginIndex} over a catalog of
+ * 10,000 plugins, and compares queries with filtering the full plugin list on each query, as
+ * clients did before the index.
+ * <p>
+ * Run with <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.apache.taverna.plugin.impl.PluginIndexBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PluginIndexBenchmark {
+
+	private static final int PLUGINS = 10000;
+
+	private static final Set<String> NONE = Collections.emptySet();
+
+	private List<PluginVersions> plugins;
+
+	private List<PluginVersions> changedPlugins;
+
+	private PluginIndex pluginIndex;
+
+	private int update;
+
+	@Setup
+	public void setUp() {
+		plugins = new ArrayList<PluginVersions>();
+		for (int i = 0; i < PLUGINS; i++) {
+			plugins.add(plugin(i, "Plugin " + i));
+		}
+		changedPlugins = new ArrayList<PluginVersions>(plugins);
+		changedPlugins.set(PLUGINS / 2, plugin(PLUGINS / 2, "Renamed"));
+		pluginIndex = new PluginIndex();
+		pluginIndex.update("http://site", plugins);
+	}
+
+	@Benchmark
+	public PluginIndex build() {
+		PluginIndex index = new PluginIndex();
+		index.update("http://site", plugins);
+		return index;
+	}
+
+	@Benchmark
+	public int updateOnePlugin() {
+		// alternates between the catalogs so each update changes one plugin
+		return pluginIndex.update("http://site", update++ % 2 == 0 ? changedPlugins : plugins);
+	}
+
+	@Benchmark
+	public List<PluginVersions> selectiveQuery() {
+		return pluginIndex.search("service 99", NONE, 0, 20);
+	}
+
+	@Benchmark
+	public List<PluginVersions> broadQuery() {
+		return pluginIndex.search("workflows organization 7", NONE, 0, 20);
+	}
+
+	@Benchmark
+	public List<PluginVersions> prefixQueryPage() {
+		return pluginIndex.search("org.example4", NONE, 100, 20);
+	}
+
+	@Benchmark
+	public List<PluginVersions> scanSelectiveQuery() {
+		return scan("service 99", 0, 20);
+	}
+
+	@Benchmark
+	public List<PluginVersions> scanBroadQuery() {
+		return scan("workflows organization 7", 0, 20);
+	}
+
+	@Benchmark
+	public List<PluginVersions> scanPrefixQueryPage() {
+		return scan("org.example4", 100, 20);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(PluginIndexBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+
+	/**
+	 * Filters the full plugin list, splitting the text of every plugin into words for each query.
+	 */
+	private List<PluginVersions> scan(String query, int offset, int limit) {
+		String[] prefixes = query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+		List<PluginVersions> results = new ArrayList<PluginVersions>();
+		int skipped = 0;
+		for (PluginVersions plugin : plugins) {
+			if (results.size() >= limit) {
+				break;
+			}
+			String[] words = (plugin.getId() + " " + plugin.getName() + " " + plugin.getDescription()
+					+ " " + plugin.getOrganization()).toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+			if (!matches(prefixes, words)) {
+				continue;
+			}
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				results.add(plugin);
+			}
+		}
+		return results;
+	}
+
+	private static boolean matches(String[] prefixes, String[] words) {
+		for (String prefix : prefixes) {
+			boolean found = false;
+			for (String word : words) {
+				if (word.startsWith(prefix)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static PluginVersions plugin(int i, String name) {
+		PluginVersions plugin = new PluginVersions();
+		plugin.setId(String.format("org.example%1$d.plugin%2$05d", i % 100, i));
+		plugin.setName(name);
+		plugin.setDescription("Provides service " + i + " for workflows");
+		plugin.setOrganization("Organization " + i % 100);
+		return plugin;
+	}
+
+}
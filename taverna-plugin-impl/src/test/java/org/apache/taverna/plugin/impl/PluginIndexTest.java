@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.taverna.plugin.xml.jaxb.PluginVersions;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PluginIndexTest {
+
+	private static final Set<String> NONE = Collections.emptySet();
+
+	private PluginIndex pluginIndex;
+
+	@Before
+	public void setUp() {
+		pluginIndex = new PluginIndex();
+		pluginIndex.update("http://site1", Arrays.asList(
+				plugin("org.example.blast", "BLAST", "Sequence similarity search", "Example Org"),
+				plugin("org.example.rshell", "R Shell", "Run R scripts", "Example Org"),
+				plugin("org.other.biomart", "BioMart", "Query BioMart databases", "Other")));
+	}
+
+	@Test
+	public void prefixQuery() {
+		assertEquals(ids("org.example.blast"), ids(pluginIndex.search("seq", NONE, 0, 10)));
+		assertEquals(ids("org.other.biomart"), ids(pluginIndex.search("BIO", NONE, 0, 10)));
+		assertEquals(ids("org.example.blast", "org.example.rshell"),
+				ids(pluginIndex.search("example", NONE, 0, 10)));
+	}
+
+	@Test
+	public void tokenQuery() {
+		assertEquals(ids("org.example.rshell"),
+				ids(pluginIndex.search("example r scr", NONE, 0, 10)));
+		assertEquals(ids("org.example.blast"), ids(pluginIndex.search("org.example.bl", NONE, 0, 10)));
+		assertEquals(ids(), ids(pluginIndex.search("example biomart", NONE, 0, 10)));
+		assertEquals(ids("org.example.blast", "org.example.rshell", "org.other.biomart"),
+				ids(pluginIndex.search("", NONE, 0, 10)));
+	}
+
+	@Test
+	public void pagination() {
+		assertEquals(ids("org.example.blast", "org.example.rshell"),
+				ids(pluginIndex.search("org", NONE, 0, 2)));
+		assertEquals(ids("org.other.biomart"), ids(pluginIndex.search("org", NONE, 2, 2)));
+		assertEquals(ids("org.example.rshell"),
+				ids(pluginIndex.search("org", Collections.singleton("org.example.blast"), 0, 1)));
+	}
+
+	@Test
+	public void incrementalUpdate() {
+		PluginVersions rshell = plugin("org.example.rshell", "R Shell", "Run R scripts",
+				"Example Org");
+		PluginVersions taverna = plugin("org.apache.taverna.tool", "Tool", "Command line tools",
+				"Apache");
+		// one plugin unchanged, one changed, one removed and one added
+		assertEquals(3, pluginIndex.update("http://site1", Arrays.asList(rshell,
+				plugin("org.other.biomart", "BioMart", "Query Ensembl", "Other"), taverna)));
+		assertEquals(3, pluginIndex.size());
+		assertSame(rshell, pluginIndex.search("rshell", NONE, 0, 10).get(0));
+		assertEquals(ids(), ids(pluginIndex.search("blast", NONE, 0, 10)));
+		assertEquals(ids(), ids(pluginIndex.search("databases", NONE, 0, 10)));
+		assertEquals(ids("org.other.biomart"), ids(pluginIndex.search("ensembl", NONE, 0, 10)));
+		assertEquals(ids("org.apache.taverna.tool"), ids(pluginIndex.search("command", NONE, 0, 10)));
+
+		pluginIndex.update("http://site2", Arrays.asList(plugin("org.site2.plugin", "Plugin", null,
+				null)));
+		assertEquals(4, pluginIndex.size());
+		pluginIndex.retainSites(Arrays.asList("http://site2"));
+		assertEquals(ids("org.site2.plugin"), ids(pluginIndex.search("", NONE, 0, 10)));
+	}
+
+	@Test
+	public void largeIndex() {
+		List<PluginVersions> plugins = new ArrayList<PluginVersions>();
+		for (int i = 0; i < 10000; i++) {
+			plugins.add(plugin(String.format("org.example%1$d.plugin%2$05d", i % 100, i), "Plugin "
+					+ i, "Provides service " + i + " for workflows", "Organization " + i % 100));
+		}
+		PluginIndex largeIndex = new PluginIndex();
+		largeIndex.update("http://site", plugins);
+		plugins.set(5000, plugin("org.example0.plugin05000", "Renamed", "Changed", "Organization 0"));
+		assertEquals(1, largeIndex.update("http://site", plugins));
+
+		assertEquals(10000, largeIndex.size());
+		assertEquals(100, largeIndex.search("org.example42", NONE, 0, 200).size());
+		assertEquals(20, largeIndex.search("service 99", NONE, 0, 20).size());
+		assertEquals(20, largeIndex.search("workflows organization 7", NONE, 0, 20).size());
+		assertEquals(ids("org.example0.plugin05000"),
+				ids(largeIndex.search("renamed", NONE, 0, 20)));
+		assertEquals(ids(), ids(largeIndex.search("changed service 5000", NONE, 0, 20)));
+	}
+
+	private static List<String> ids(String... ids) {
+		return Arrays.asList(ids);
+	}
+
+	private static List<String> ids(List<PluginVersions> plugins) {
+		List<String> ids = new ArrayList<String>();
+		for (PluginVersions plugin : plugins) {
+			ids.add(plugin.getId());
+		}
+		return ids;
+	}
+
+	private static PluginVersions plugin(String id, String name, String description,
+			String organization) {
+		PluginVersions plugin = new PluginVersions();
+		plugin.setId(id);
+		plugin.setName(name);
+		plugin.setDescription(description);
+		plugin.setOrganization(organization);
+		return plugin;
+	}
+
+}
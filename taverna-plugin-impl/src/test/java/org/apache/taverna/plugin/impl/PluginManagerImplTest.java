@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.taverna.plugin.Plugin;
+import org.apache.taverna.plugin.xml.jaxb.PluginVersions;
+import org.apache.taverna.versions.xml.jaxb.Version;
+import org.junit.Test;
+
+public class PluginManagerImplTest {
+
+	@Test
+	public void findUpdates() {
+		List<Plugin> installedPlugins = Arrays.asList(plugin("a", "1.0"), plugin("c", "1.0"),
+				plugin("d", "2.0"), plugin("f", "1.0"));
+		// unsorted, with plugins that aren't installed
+		List<PluginVersions> availablePlugins = Arrays.asList(pluginVersions("f", "1.1"),
+				pluginVersions("b", "3.0"), pluginVersions("d", "1.0"), pluginVersions("a", "1.0.1"),
+				pluginVersions("e", "1.0"));
+
+		List<PluginVersions> updates = PluginManagerImpl.findUpdates(installedPlugins,
+				availablePlugins);
+		assertEquals(2, updates.size());
+		assertEquals("a", updates.get(0).getId());
+		assertEquals("f", updates.get(1).getId());
+	}
+
+	@Test
+	public void findUpdatesNoPlugins() {
+		assertEquals(0, PluginManagerImpl.findUpdates(new ArrayList<Plugin>(),
+				Arrays.asList(pluginVersions("a", "1.0"))).size());
+		assertEquals(0, PluginManagerImpl.findUpdates(Arrays.asList(plugin("a", "1.0")),
+				new ArrayList<PluginVersions>()).size());
+	}
+
+	@Test
+	public void findSha256() {
+		PluginVersions a = pluginVersions("a", "2.0");
+		a.getLatestVersion().setFile("a-2.0.jar");
+		a.getLatestVersion().setSha256("a2");
+		Version previousVersion = new Version();
+		previousVersion.setVersion("1.0");
+		previousVersion.setFile("a-1.0.jar");
+		previousVersion.setSha256("a1");
+		a.getPreviousVersion().add(previousVersion);
+		PluginVersions b = pluginVersions("b", "1.0");
+		b.getLatestVersion().setFile("b-1.0.jar");
+		List<PluginVersions> plugins = Arrays.asList(a, b);
+
+		assertEquals("a2", PluginManagerImpl.findSha256(plugins, "a-2.0.jar"));
+		assertEquals("a1", PluginManagerImpl.findSha256(plugins, "a-1.0.jar"));
+		assertNull("b has no digest", PluginManagerImpl.findSha256(plugins, "b-1.0.jar"));
+		assertNull("c isn't listed", PluginManagerImpl.findSha256(plugins, "c-1.0.jar"));
+	}
+
+	private Plugin plugin(String id, String version) {
+		Plugin plugin = mock(Plugin.class);
+		when(plugin.getId()).thenReturn(id);
+		when(plugin.getVersion()).thenReturn(org.osgi.framework.Version.parseVersion(version));
+		return plugin;
+	}
+
+	private PluginVersions pluginVersions(String id, String version) {
+		PluginVersions pluginVersions = new PluginVersions();
+		pluginVersions.setId(id);
+		Version latestVersion = new Version();
+		latestVersion.setVersion(version);
+		pluginVersions.setLatestVersion(latestVersion);
+		return pluginVersions;
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.plugin.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+public class VersionCacheTest {
+
+	@Test
+	public void parse() {
+		assertEquals(new Version(1, 2, 3, "SNAPSHOT"), VersionCache.parse("1.2.3.SNAPSHOT"));
+		assertEquals(Version.emptyVersion, VersionCache.parse(null));
+	}
+
+	@Test
+	public void equalVersionsShared() {
+		assertSame(VersionCache.parse("2.0"), VersionCache.parse("2.0"));
+		assertSame(VersionCache.parse("2.0"), VersionCache.parse("2.0.0"));
+		assertSame(VersionCache.parse("2.0"), VersionCache.intern(new Version(2, 0, 0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidVersion() {
+		VersionCache.parse("1.x");
+	}
+
+}
@@ -22,6 +22,19 @@ package org.apache.taverna.update;
  */
 public interface UpdateManager {
 
+	public static final String EVENT_TOPIC_ROOT = "org/apache/taverna/update/UpdateManager/";
+	/** Posted when a new version is found, with the version in the <code>version</code> property. */
+	public static final String UPDATE_AVAILABLE = EVENT_TOPIC_ROOT + "UPDATE_AVAILABLE";
+	/** Posted when the files for a new version have been downloaded in the background. */
+	public static final String UPDATE_STAGED = EVENT_TOPIC_ROOT + "UPDATE_STAGED";
+	/** Posted when a background check for updates fails. */
+	public static final String UPDATE_CHECK_FAILED = EVENT_TOPIC_ROOT + "UPDATE_CHECK_FAILED";
+	/** Posted when a new version has been installed and will be used after a restart. */
+	public static final String UPDATED = EVENT_TOPIC_ROOT + "UPDATED";
+
+	/** The name of the event property holding the version. */
+	public static final String VERSION = "version";
+
 	public boolean checkForUpdates() throws UpdateException;
 
 	public boolean update() throws UpdateException;
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
+import org.apache.taverna.profile.xml.jaxb.BundleInfo;
+
+/**
+ * Moves the jars that no application profile references out of the lib directory of a version,
+ * so that the launcher only finds the bundles that are in use.
+ * <p>
+ * The jars are moved to a trash directory, at the same path relative to the startup directory,
+ * rather than deleted, as a jar that no profile references may have been added by hand. The trash
+ * only keeps the jars moved by the last collection.
+ * <p>
+ * A lib directory is left alone if there is no application profile for it, or if a profile lists
+ * a bundle that isn't there, as the profile may be incomplete or belong to another version.
+ */
+class BundleCollector {
+
+	private static final Logger logger = Logger.getLogger(BundleCollector.class);
+
+	private final Path startupDirectory;
+	private final Path trashDirectory;
+
+	BundleCollector(Path startupDirectory, Path trashDirectory) {
+		this.startupDirectory = startupDirectory;
+		this.trashDirectory = trashDirectory;
+	}
+
+	/**
+	 * Deletes the jars moved to the trash by the last collection.
+	 */
+	void emptyTrash() throws IOException {
+		FileUtils.deleteDirectory(trashDirectory.toFile());
+	}
+
+	/**
+	 * Moves the jars in the lib directory, and its group directories, that none of the application
+	 * profiles reference to the trash, and deletes any directories left empty.
+	 *
+	 * @param libDirectory
+	 *            the lib directory of a version
+	 * @param profiles
+	 *            the application profiles of the version
+	 * @return the number of jars moved to the trash
+	 */
+	int collect(final Path libDirectory, List<ApplicationProfile> profiles) throws IOException {
+		if (!Files.isDirectory(libDirectory)) {
+			return 0;
+		}
+		if (profiles.isEmpty()) {
+			logger.warn(String.format("No application profile for %1$s, not removing any bundles",
+					libDirectory));
+			return 0;
+		}
+		final Set<Path> referencedBundles = new HashSet<Path>();
+		for (ApplicationProfile profile : profiles) {
+			for (BundleInfo bundle : profile.getBundle()) {
+				Path bundleFile = libDirectory.resolve(bundle.getFileName()).normalize();
+				if (!Files.isRegularFile(bundleFile)) {
+					logger.warn(String.format("%1$s is missing, not removing any bundles from %2$s",
+							bundleFile, libDirectory));
+					return 0;
+				}
+				referencedBundles.add(bundleFile);
+			}
+		}
+		final List<Path> unreferencedBundles = new ArrayList<Path>();
+		Files.walkFileTree(libDirectory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (file.getFileName().toString().endsWith(".jar")
+						&& !referencedBundles.contains(file.normalize())) {
+					Path trashFile = trashDirectory.resolve(startupDirectory.relativize(file).toString());
+					logger.debug(String.format("Moving unreferenced bundle %1$s to %2$s", file, trashFile));
+					Files.createDirectories(trashFile.getParent());
+					Files.move(file, trashFile, StandardCopyOption.REPLACE_EXISTING);
+					unreferencedBundles.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				if (!directory.equals(libDirectory)) {
+					try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+						if (!entries.iterator().hasNext()) {
+							Files.delete(directory);
+						}
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		if (!unreferencedBundles.isEmpty()) {
+			logger.info(String.format("Moved %1$d unreferenced bundles from %2$s to %3$s",
+					unreferencedBundles.size(), libDirectory, trashDirectory));
+		}
+		return unreferencedBundles.size();
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Rebuilds a bundle file from an earlier version of the file and a binary delta.
+ * <p>
+ * A delta starts with the magic number <code>TDLT</code>, a format version byte and the length of
+ * the new file as a long. It is followed by a sequence of operations:
+ * <ul>
+ * <li><code>'C'</code>, offset (long), length (int): copy bytes from the old file</li>
+ * <li><code>'I'</code>, length (int), bytes: insert bytes from the delta</li>
+ * <li><code>'E'</code>: end of the delta</li>
+ * </ul>
+ * Deltas are created by the <code>profile-deploy</code> goal of the Taverna Maven plugin.
+ */
+class DeltaPatcher {
+
+	static final int MAGIC = 0x54444C54;
+	static final int VERSION = 1;
+
+	static final byte COPY = 'C';
+	static final byte INSERT = 'I';
+	static final byte END = 'E';
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Applies a delta to the old file, writing the new file.
+	 *
+	 * @return the hex encoded SHA-256 digest of the new file
+	 * @throws IOException
+	 *             if the files cannot be read or written, or the delta is invalid
+	 */
+	String patch(Path oldFile, Path delta, Path newFile) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (FileChannel in = FileChannel.open(oldFile, StandardOpenOption.READ);
+				DataInputStream deltaIn = new DataInputStream(new BufferedInputStream(
+						Files.newInputStream(delta)));
+				OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+						Files.newOutputStream(newFile)), md)) {
+			if (deltaIn.readInt() != MAGIC || deltaIn.readUnsignedByte() != VERSION) {
+				throw new IOException(delta + " is not a bundle delta");
+			}
+			long newLength = deltaIn.readLong();
+			long written = 0;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (byte operation = deltaIn.readByte(); operation != END; operation = deltaIn.readByte()) {
+				if (operation == COPY) {
+					long offset = deltaIn.readLong();
+					int length = deltaIn.readInt();
+					if (offset < 0 || length < 0 || offset + length > in.size()) {
+						throw new IOException(String.format(
+								"Delta copies bytes %1$d to %2$d from a file of %3$d bytes", offset,
+								offset + length, in.size()));
+					}
+					copy(in, offset, length, out, buffer);
+					written += length;
+				} else if (operation == INSERT) {
+					int length = deltaIn.readInt();
+					copy(deltaIn, length, out, buffer);
+					written += length;
+				} else {
+					throw new IOException("Invalid delta operation " + operation);
+				}
+			}
+			if (written != newLength) {
+				throw new IOException(String.format("Delta produced %1$d bytes instead of %2$d",
+						written, newLength));
+			}
+		}
+		return String.format("%064x", new BigInteger(1, md.digest()));
+	}
+
+	private void copy(FileChannel in, long offset, int length, OutputStream out, byte[] buffer)
+			throws IOException {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			byteBuffer.clear();
+			byteBuffer.limit((int) Math.min(buffer.length, end - position));
+			int read = in.read(byteBuffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			out.write(buffer, 0, read);
+			position += read;
+		}
+	}
+
+	private void copy(InputStream in, int length, OutputStream out, byte[] buffer)
+			throws IOException {
+		int remaining = length;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+			if (read < 0) {
+				throw new IOException("Unexpected end of delta");
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+	}
+
+}
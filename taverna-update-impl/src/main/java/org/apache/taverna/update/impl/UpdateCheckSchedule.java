@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates when to next check for updates.
+ * <p>
+ * Checks are at most once per check interval since the last successful check, including checks
+ * before a restart. Failed checks are retried with an exponential backoff up to the check
+ * interval. A random jitter of up to a tenth of the delay is added so that many installations
+ * don't check the update site at the same time.
+ */
+class UpdateCheckSchedule {
+
+	/** The earliest a check is made, so that checks don't slow down startup. */
+	static final long MIN_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+	/** The delay before retrying a failed check, doubled for each consecutive failure. */
+	static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+	private static final double JITTER = 0.1;
+
+	private final long checkInterval;
+	private final Random random;
+
+	UpdateCheckSchedule(long checkInterval, Random random) {
+		this.checkInterval = checkInterval;
+		this.random = random;
+	}
+
+	/**
+	 * Returns the delay in milliseconds until the next check.
+	 *
+	 * @param now
+	 *            the current time
+	 * @param lastCheckTime
+	 *            the time of the last successful check, or 0 if there hasn't been one
+	 * @param failures
+	 *            the number of consecutive failed checks
+	 * @return the delay in milliseconds until the next check
+	 */
+	long getDelay(long now, long lastCheckTime, int failures) {
+		long delay;
+		if (failures > 0) {
+			delay = Math.min(RETRY_DELAY << Math.min(failures - 1, 30), checkInterval);
+		} else {
+			delay = lastCheckTime + checkInterval - now;
+		}
+		delay = Math.max(delay, MIN_DELAY);
+		return delay + (long) (random.nextDouble() * delay * JITTER);
+	}
+
+}
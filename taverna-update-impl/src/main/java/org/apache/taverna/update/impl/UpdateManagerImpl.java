@@ -18,23 +18,39 @@ package org.apache.taverna.update.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
 import org.apache.taverna.configuration.app.ApplicationConfiguration;
 import org.apache.taverna.download.DownloadException;
 import org.apache.taverna.download.DownloadManager;
+import org.apache.taverna.download.DownloadPriority;
 import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
+import org.apache.taverna.profile.xml.jaxb.BundleDelta;
 import org.apache.taverna.profile.xml.jaxb.BundleInfo;
 import org.apache.taverna.profile.xml.jaxb.UpdateSite;
 import org.apache.taverna.profile.xml.jaxb.Updates;
@@ -42,17 +58,30 @@ import org.apache.taverna.update.UpdateException;
 import org.apache.taverna.update.UpdateManager;
 import org.apache.taverna.versions.xml.jaxb.Version;
 import org.apache.taverna.versions.xml.jaxb.Versions;
+import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
 
 /**
  * Implementation of the Taverna Update Manager.
- *
+ * <p>
+ * If a check interval is set, updates are checked for in the background and the files for a new
+ * version are downloaded to a staging directory, so that installing the update doesn't have to
+ * wait for downloads.
  */
 public class UpdateManagerImpl implements UpdateManager {
 
+	/** Algorithm of the digest files published next to files on the update site. */
 	private static final String DIGEST_ALGORITHM = "MD5";
+	/** Algorithm of the digests listed in the update site and application profile. */
+	private static final String INLINE_DIGEST_ALGORITHM = "SHA-256";
+
+	private static final String UPDATE_CHECK_FILE = "update-check.properties";
+	private static final String LAST_CHECK_TIME = "lastCheckTime";
+	private static final String COLLECTED_VERSION = "collectedVersion";
 
-	private EventAdmin eventAdmin;
+	private static final Logger logger = Logger.getLogger(UpdateManagerImpl.class);
+
+	private volatile EventAdmin eventAdmin;
 
 	private int checkIntervalSeconds;
 
@@ -60,12 +89,22 @@ public class UpdateManagerImpl implements UpdateManager {
 
 	private DownloadManager downloadManager;
 
-	private long lastCheckTime;
+	private long lastCheckTime = -1;
 	private boolean updateAvailable;
 	private Unmarshaller unmarshaller;
 
 	private Versions applicationVersions;
 	private Version latestVersion;
+	private org.osgi.framework.Version latestSemanticVersion;
+	private String installedVersionString;
+	private org.osgi.framework.Version installedSemanticVersion;
+	private String notifiedVersion;
+
+	private ScheduledExecutorService checkExecutor;
+	private UpdateCheckSchedule checkSchedule;
+	private int failedChecks;
+
+	private final DeltaPatcher deltaPatcher = new DeltaPatcher();
 
 	public UpdateManagerImpl() throws UpdateException {
 		try {
@@ -76,8 +115,78 @@ public class UpdateManagerImpl implements UpdateManager {
 		}
 	}
 
+	/**
+	 * Starts checking for updates in the background, if a check interval has been set.
+	 */
+	public void start() {
+		if (checkIntervalSeconds <= 0) {
+			return;
+		}
+		checkSchedule = new UpdateCheckSchedule(TimeUnit.SECONDS.toMillis(checkIntervalSeconds),
+				new Random());
+		checkExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Taverna update check");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		checkExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (isActiveVersionSwitched()) {
+					collectGarbage();
+				}
+			}
+		});
+		scheduleCheck();
+	}
+
+	/**
+	 * Stops checking for updates in the background.
+	 */
+	public synchronized void stop() {
+		if (checkExecutor != null) {
+			checkExecutor.shutdownNow();
+			checkExecutor = null;
+		}
+	}
+
+	private synchronized void scheduleCheck() {
+		if (checkExecutor == null) {
+			return;
+		}
+		long delay = checkSchedule.getDelay(System.currentTimeMillis(), getLastCheckTime(),
+				failedChecks);
+		logger.debug(String.format("Checking for updates in %1$d seconds",
+				TimeUnit.MILLISECONDS.toSeconds(delay)));
+		checkExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				backgroundCheck();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void backgroundCheck() {
+		try {
+			if (checkForUpdates()) {
+				stageUpdate();
+			}
+			failedChecks = 0;
+		} catch (UpdateException | RuntimeException e) {
+			failedChecks++;
+			logger.warn("Error checking for updates", e);
+			postEvent(UPDATE_CHECK_FAILED, null);
+		} finally {
+			scheduleCheck();
+		}
+	}
+
 	@Override
-	public boolean checkForUpdates() throws UpdateException {
+	public synchronized boolean checkForUpdates() throws UpdateException {
 		ApplicationProfile applicationProfile = applicationConfiguration.getApplicationProfile();
 		String version = applicationProfile.getVersion();
 		Updates updates = applicationProfile.getUpdates();
@@ -86,6 +195,7 @@ public class UpdateManagerImpl implements UpdateManager {
 		try {
 			URI updateSiteURI = new URI(updates.getUpdateSite());
 			updatesURL = updateSiteURI.resolve(updates.getUpdatesFile());
+			setMirrors(updateSiteURI, updates);
 		} catch (URISyntaxException e) {
 			throw new UpdateException(String.format("Update site URL (%s) is not a valid URL",
 					updates.getUpdateSite()), e);
@@ -93,103 +203,368 @@ public class UpdateManagerImpl implements UpdateManager {
 		File updateDirectory = applicationConfiguration.getApplicationHomeDir().resolve("updates").toFile();
 		updateDirectory.mkdirs();
 		File updatesFile = new File(updateDirectory, updates.getUpdatesFile());
+		boolean modified;
 		try {
-			downloadManager.download(updatesURL, updatesFile.toPath(), DIGEST_ALGORITHM);
+			modified = downloadManager.downloadIfModified(updatesURL, updatesFile.toPath(),
+					DIGEST_ALGORITHM, DownloadPriority.BACKGROUND);
 		} catch (DownloadException e) {
 			throw new UpdateException(String.format("Error downloading %1$s",
 					updatesURL), e);
 		}
 
-		try {
-			UpdateSite updateSite = (UpdateSite) unmarshaller
-					.unmarshal(updatesFile);
-			applicationVersions = updateSite.getVersions();
-			latestVersion = applicationVersions.getLatestVersion();
-			updateAvailable = isHigherVersion(latestVersion.getVersion(), version);
-		} catch (JAXBException e) {
-			throw new UpdateException(String.format("Error reading %s",
-					updatesFile.getName()), e);
+		if (modified || applicationVersions == null) {
+			try {
+				UpdateSite updateSite = (UpdateSite) unmarshaller
+						.unmarshal(updatesFile);
+				applicationVersions = updateSite.getVersions();
+				latestVersion = applicationVersions.getLatestVersion();
+				latestSemanticVersion = org.osgi.framework.Version.parseVersion(latestVersion
+						.getVersion());
+			} catch (JAXBException e) {
+				throw new UpdateException(String.format("Error reading %s",
+						updatesFile.getName()), e);
+			}
+		}
+		updateAvailable = isHigherVersion(latestSemanticVersion, version);
+		if (updateAvailable && isInstalledOrFailed(latestVersion.getVersion())) {
+			logger.debug(String.format(
+					"Not updating to version %1$s, which is already installed or failed to start",
+					latestVersion.getVersion()));
+			updateAvailable = false;
+		}
+		setLastCheckTime(System.currentTimeMillis());
+		if (updateAvailable && !latestVersion.getVersion().equals(notifiedVersion)) {
+			notifiedVersion = latestVersion.getVersion();
+			postEvent(UPDATE_AVAILABLE, notifiedVersion);
 		}
-		lastCheckTime = System.currentTimeMillis();
 		return updateAvailable;
 	}
 
+	/**
+	 * Downloads the latest application profile and the bundles it requires to the staging
+	 * directory, so that {@link #update()} doesn't have to wait for them to download.
+	 * <p>
+	 * Only the profile is downloaded while holding this manager's lock. The bundles are downloaded
+	 * one at a time without it, so that {@link #update()} and {@link #checkForUpdates()} don't
+	 * wait for background downloads, and staging stops once the version has been installed or is
+	 * no longer the latest version.
+	 */
+	private void stageUpdate() throws UpdateException {
+		Version version;
+		Path stagingDirectory;
+		ApplicationProfile currentProfile;
+		ApplicationProfile latestProfile;
+		synchronized (this) {
+			if (!updateAvailable) {
+				return;
+			}
+			version = latestVersion;
+			stagingDirectory = getStagingDirectory(version);
+			deleteOtherStagedUpdates(stagingDirectory);
+			currentProfile = applicationConfiguration.getApplicationProfile();
+			latestProfile = getLatestProfile(version, stagingDirectory, DownloadPriority.BACKGROUND);
+		}
+		File libDirectory = getLibDirectory();
+		File stagingLibDirectory = stagingDirectory.resolve("lib").toFile();
+		for (BundleInfo bundle : getRequiredBundles(currentProfile, latestProfile)) {
+			if (!continueStaging(version, stagingDirectory)) {
+				return;
+			}
+			if (new File(stagingLibDirectory, bundle.getFileName()).isFile()) {
+				continue;
+			}
+			try {
+				downloadBundles(currentProfile, latestProfile, Collections.singleton(bundle),
+						libDirectory, stagingLibDirectory, null, DownloadPriority.BACKGROUND);
+			} catch (UpdateException e) {
+				if (!continueStaging(version, stagingDirectory)) {
+					// the staging directory was deleted by update() during the download
+					return;
+				}
+				throw e;
+			}
+		}
+		if (continueStaging(version, stagingDirectory)) {
+			logger.info(String.format("Staged update to version %1$s", version.getVersion()));
+			postEvent(UPDATE_STAGED, version.getVersion());
+		}
+	}
+
+	/**
+	 * Returns true if the version being staged is still the update to install, otherwise deletes
+	 * its staging directory.
+	 */
+	private synchronized boolean continueStaging(Version version, Path stagingDirectory) {
+		if (updateAvailable && version.getVersion().equals(latestVersion.getVersion())) {
+			return true;
+		}
+		logger.debug(String.format("Stopped staging version %1$s", version.getVersion()));
+		deleteStagedUpdate(stagingDirectory);
+		return false;
+	}
+
 	@Override
-	public boolean update() throws UpdateException {
+	public synchronized boolean update() throws UpdateException {
 		if (updateAvailable) {
-			ApplicationProfile applicationProfile = applicationConfiguration.getApplicationProfile();
-			Updates updates = applicationProfile.getUpdates();
+			Path stagingDirectory = getStagingDirectory(latestVersion);
+			ApplicationProfile currentProfile = applicationConfiguration.getApplicationProfile();
+			ApplicationProfile latestProfile = getLatestProfile(latestVersion, stagingDirectory,
+					DownloadPriority.NORMAL);
+
+			// build the new version next to the current version, then switch to it
+			VersionSwitcher versionSwitcher = getVersionSwitcher();
+			String version = latestVersion.getVersion();
+			try {
+				File libDirectory = getLibDirectory();
+				Path versionDirectory = versionSwitcher.createTempVersionDirectory(version);
+				File versionLibDirectory = versionDirectory.resolve(VersionSwitcher.LIB_DIR).toFile();
+				Set<BundleInfo> requiredBundles = getRequiredBundles(currentProfile, latestProfile);
+				linkUnchangedBundles(currentProfile, latestProfile, requiredBundles, libDirectory,
+						versionLibDirectory);
+				downloadBundles(currentProfile, latestProfile, requiredBundles, libDirectory,
+						versionLibDirectory, stagingDirectory.resolve("lib").toFile(),
+						DownloadPriority.NORMAL);
+				Files.copy(getStagedProfileFile(stagingDirectory).toPath(),
+						versionDirectory.resolve(VersionSwitcher.APPLICATION_PROFILE));
+				versionSwitcher.install(version, versionDirectory);
+			} catch (IOException e) {
+				throw new UpdateException(String.format("Error installing version %1$s", version), e);
+			}
+			deleteStagedUpdate(stagingDirectory);
+			collectGarbage();
+			postEvent(UPDATED, latestVersion.getVersion());
+			updateAvailable = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the latest application profile, downloading it to the staging directory if it
+	 * hasn't already been downloaded.
+	 */
+	private ApplicationProfile getLatestProfile(Version version, Path stagingDirectory,
+			DownloadPriority priority) throws UpdateException {
+		File latestProfileFile = getStagedProfileFile(stagingDirectory);
+		if (!latestProfileFile.isFile()) {
+			Updates updates = applicationConfiguration.getApplicationProfile().getUpdates();
 			URI profileURL;
 			try {
 				URI updateSiteURI = new URI(updates.getUpdateSite());
-				profileURL = updateSiteURI.resolve(latestVersion.getFile());
+				profileURL = updateSiteURI.resolve(version.getFile());
 			} catch (URISyntaxException e) {
 				throw new UpdateException(String.format("Update site URL (%s) is not a valid URL",
 						updates.getUpdateSite()), e);
 			}
-
-			File updateDirectory = applicationConfiguration.getApplicationHomeDir().resolve(
-					"updates").toFile();
-			updateDirectory.mkdirs();
-			File latestProfileFile = new File(updateDirectory, "ApplicationProfile-"
-					+ latestVersion.getVersion() + ".xml");
 			try {
-				downloadManager.download(profileURL, latestProfileFile.toPath(), DIGEST_ALGORITHM);
+				download(profileURL, latestProfileFile.toPath(), version.getSha256(), priority);
 			} catch (DownloadException e) {
 				throw new UpdateException(String.format("Error downloading %1$s",
 						profileURL), e);
 			}
+		}
 
-			ApplicationProfile latestProfile;
-			try {
-				latestProfile = (ApplicationProfile) unmarshaller.unmarshal(latestProfileFile);
-			} catch (JAXBException e) {
-				throw new UpdateException(String.format("Error reading %s",
-						latestProfileFile.getName()), e);
+		try {
+			return (ApplicationProfile) unmarshaller.unmarshal(latestProfileFile);
+		} catch (JAXBException e) {
+			throw new UpdateException(String.format("Error reading %s",
+					latestProfileFile.getName()), e);
+		}
+	}
+
+	private Path getStagingDirectory(Version version) {
+		return applicationConfiguration.getApplicationHomeDir().resolve("updates").resolve("staging")
+				.resolve(version.getVersion());
+	}
+
+	private File getStagedProfileFile(Path stagingDirectory) {
+		return stagingDirectory.resolve("ApplicationProfile.xml").toFile();
+	}
+
+	/**
+	 * Returns the directory containing the bundles of the active version of the application.
+	 */
+	private File getLibDirectory() throws UpdateException {
+		try {
+			return getVersionSwitcher().getActiveLibDirectory().toFile();
+		} catch (IOException e) {
+			throw new UpdateException("Error reading the active application version", e);
+		}
+	}
+
+	/**
+	 * Returns true if the version has been installed and starts when the application is next
+	 * started, or if the launcher rolled back from the version because it failed to start.
+	 */
+	private boolean isInstalledOrFailed(String version) throws UpdateException {
+		VersionSwitcher versionSwitcher = getVersionSwitcher();
+		try {
+			return version.equals(versionSwitcher.getActiveVersion())
+					|| versionSwitcher.isFailedVersion(version);
+		} catch (IOException e) {
+			throw new UpdateException("Error reading the active application version", e);
+		}
+	}
+
+	private VersionSwitcher getVersionSwitcher() {
+		return new VersionSwitcher(applicationConfiguration.getStartupDir());
+	}
+
+	/**
+	 * Returns true if the active version has changed since garbage was last collected, which
+	 * happens when a new version is installed or the launcher rolls back a failed version.
+	 */
+	private boolean isActiveVersionSwitched() {
+		try {
+			String activeVersion = getVersionSwitcher().getActiveVersion();
+			String collectedVersion = loadUpdateCheckProperties().getProperty(COLLECTED_VERSION);
+			return !String.valueOf(activeVersion).equals(collectedVersion);
+		} catch (IOException e) {
+			logger.warn("Error reading the active application version", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the application versions that are no longer kept, and moves the jars in the lib
+	 * directories of the kept versions that their application profiles don't reference to the
+	 * trash, so that the launcher only finds the bundles that are in use.
+	 */
+	synchronized void collectGarbage() {
+		VersionSwitcher versionSwitcher = getVersionSwitcher();
+		BundleCollector bundleCollector = new BundleCollector(applicationConfiguration.getStartupDir(),
+				applicationConfiguration.getApplicationHomeDir().resolve("updates").resolve("trash"));
+		try {
+			versionSwitcher.deleteUnretainedVersions(applicationConfiguration.getActiveVersionDir());
+			bundleCollector.emptyTrash();
+			String activeVersion = versionSwitcher.getActiveVersion();
+			Path activeVersionDirectory = versionSwitcher.getVersionDirectory(activeVersion);
+			for (Path versionDirectory : versionSwitcher.getRetainedVersionDirectories()) {
+				Path profileFile = versionDirectory.resolve(VersionSwitcher.APPLICATION_PROFILE);
+				if (!Files.isRegularFile(profileFile)) {
+					logger.warn(String.format("%1$s is missing, not removing any bundles", profileFile));
+					continue;
+				}
+				List<ApplicationProfile> profiles = new ArrayList<ApplicationProfile>();
+				try {
+					profiles.add((ApplicationProfile) unmarshaller.unmarshal(profileFile.toFile()));
+				} catch (JAXBException e) {
+					logger.warn(String.format("Error reading %1$s, not removing any bundles",
+							profileFile), e);
+					continue;
+				}
+				if (versionDirectory.equals(activeVersionDirectory)) {
+					// may be a profile in the application home directory
+					profiles.add(applicationConfiguration.getApplicationProfile());
+				}
+				bundleCollector.collect(versionDirectory.resolve(VersionSwitcher.LIB_DIR), profiles);
+			}
+			Properties properties = loadUpdateCheckProperties();
+			properties.setProperty(COLLECTED_VERSION, String.valueOf(activeVersion));
+			storeUpdateCheckProperties(properties);
+		} catch (IOException e) {
+			logger.warn("Error removing superseded bundles", e);
+		}
+	}
+
+	/**
+	 * Links the bundles that are the same in both application profiles into the new lib
+	 * directory. Unchanged bundles that are missing from the current lib directory are added to
+	 * the required bundles.
+	 */
+	private void linkUnchangedBundles(ApplicationProfile currentProfile, ApplicationProfile profile,
+			Set<BundleInfo> requiredBundles, File libDirectory, File destinationDirectory)
+			throws IOException {
+		Map<String, BundleInfo> currentBundles = new HashMap<String, BundleInfo>();
+		for (BundleInfo bundle : currentProfile.getBundle()) {
+			currentBundles.put(bundle.getSymbolicName(), bundle);
+		}
+		for (BundleInfo bundle : profile.getBundle()) {
+			if (requiredBundles.contains(bundle)) {
+				continue;
 			}
+			BundleInfo currentBundle = currentBundles.get(bundle.getSymbolicName());
+			Path currentFile = new File(libDirectory, currentBundle.getFileName()).toPath();
+			if (Files.isRegularFile(currentFile)) {
+				getVersionSwitcher().linkBundle(currentFile,
+						new File(destinationDirectory, bundle.getFileName()).toPath());
+			} else {
+				logger.warn(String.format("%1$s is missing, downloading it", currentFile));
+				requiredBundles.add(bundle);
+			}
+		}
+	}
 
-			Set<BundleInfo> requiredBundles = getRequiredBundles(
-					applicationConfiguration.getApplicationProfile(), latestProfile);
-			downloadBundles(latestProfile, requiredBundles, applicationConfiguration.getStartupDir().resolve("lib").toFile());
-			File applicationProfileFile = applicationConfiguration.getStartupDir().resolve("ApplicationProfile.xml").toFile();
-			try {
-				FileUtils.copyFile(latestProfileFile, applicationProfileFile);
-			} catch (IOException e) {
-				throw new UpdateException(String.format("Error copying %1$s to %2$s",
-						latestProfileFile.getName(), applicationProfileFile.getName()), e);
+	private void deleteOtherStagedUpdates(Path stagingDirectory) {
+		File[] stagedUpdates = stagingDirectory.getParent().toFile().listFiles();
+		if (stagedUpdates != null) {
+			for (File stagedUpdate : stagedUpdates) {
+				if (!stagedUpdate.toPath().equals(stagingDirectory)) {
+					deleteStagedUpdate(stagedUpdate.toPath());
+				}
 			}
-//			eventAdmin.postEvent(new Event("UpdateManagerEvent", new HashMap()));
-			updateAvailable = false;
-			return true;
 		}
-		return false;
+	}
+
+	private void deleteStagedUpdate(Path stagingDirectory) {
+		try {
+			FileUtils.deleteDirectory(stagingDirectory.toFile());
+		} catch (IOException e) {
+			logger.warn("Error deleting staged update " + stagingDirectory, e);
+		}
 	}
 
 	/**
+	 * Downloads the required bundles to the destination directory, using bundles from the staging
+	 * directory or rebuilding them from the installed bundles where possible.
+	 *
+	 * @param currentProfile
 	 * @param requiredBundles
-	 * @param file
+	 * @param libDirectory
+	 *            the directory of the installed bundles
+	 * @param destinationDirectory
+	 * @param stagingDirectory
+	 *            the directory of bundles downloaded in the background, may be <code>null</code>
 	 * @throws UpdateException
 	 */
-	private void downloadBundles(ApplicationProfile profile, Set<BundleInfo> requiredBundles, File file) throws UpdateException {
+	private void downloadBundles(ApplicationProfile currentProfile, ApplicationProfile profile,
+			Set<BundleInfo> requiredBundles, File libDirectory, File destinationDirectory,
+			File stagingDirectory, DownloadPriority priority) throws UpdateException {
 		Updates updates = profile.getUpdates();
 		String updateSite = updates.getUpdateSite();
-		String libDirectory = updates.getLibDirectory();
-		if (!libDirectory.endsWith("/")) {
-			libDirectory = libDirectory + "/";
+		String updateSiteLibDirectory = updates.getLibDirectory();
+		if (!updateSiteLibDirectory.endsWith("/")) {
+			updateSiteLibDirectory = updateSiteLibDirectory + "/";
 		}
 
 		URI updateLibDirectory;
 		try {
-			updateLibDirectory = new URI(updateSite).resolve(libDirectory);
+			URI updateSiteURI = new URI(updateSite);
+			updateLibDirectory = updateSiteURI.resolve(updateSiteLibDirectory);
+			// the new profile may list different mirrors
+			setMirrors(updateSiteURI, updates);
 		} catch (URISyntaxException e) {
 			throw new UpdateException(String.format("Update site URL (%s) is not a valid URL",
 					updates.getUpdateSite()), e);
 		}
+		Map<String, BundleInfo> currentBundles = new HashMap<String, BundleInfo>();
+		for (BundleInfo bundle : currentProfile.getBundle()) {
+			currentBundles.put(bundle.getSymbolicName(), bundle);
+		}
 		for (BundleInfo bundle : requiredBundles) {
 			URI bundleURI = updateLibDirectory.resolve(bundle.getFileName());
-			Path bundleDestination = new File(file, bundle.getFileName()).toPath();
+			Path bundleDestination = new File(destinationDirectory, bundle.getFileName()).toPath();
+			if (stagingDirectory != null
+					&& moveStagedBundle(new File(stagingDirectory, bundle.getFileName()).toPath(),
+							bundleDestination)) {
+				continue;
+			}
+			if (patchBundle(updateLibDirectory, currentBundles.get(bundle.getSymbolicName()), bundle,
+					libDirectory, bundleDestination, priority)) {
+				continue;
+			}
 			try {
-				downloadManager.download(bundleURI, bundleDestination, DIGEST_ALGORITHM);
+				download(bundleURI, bundleDestination, bundle.getSha256(), priority);
 			} catch (DownloadException e) {
 				throw new UpdateException(String.format("Error downloading %1$s to %2$s",
 						bundleURI, bundleDestination), e);
@@ -197,6 +572,119 @@ public class UpdateManagerImpl implements UpdateManager {
 		}
 	}
 
+	/**
+	 * Moves a bundle that was downloaded, and checked, in the background to its destination.
+	 *
+	 * @return <code>true</code> if the bundle was moved, <code>false</code> if it must be
+	 *         downloaded
+	 */
+	private boolean moveStagedBundle(Path stagedBundle, Path destination) {
+		if (!Files.isRegularFile(stagedBundle)) {
+			return false;
+		}
+		try {
+			Files.createDirectories(destination.getParent());
+			Files.move(stagedBundle, destination, StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			logger.warn(String.format("Error moving %1$s to %2$s", stagedBundle, destination), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Rebuilds a bundle from the installed version of the bundle and a delta from the update site,
+	 * if the update site has a delta from the installed version. The rebuilt bundle must match the
+	 * SHA-256 digest in the application profile, so bundles without a digest are not patched.
+	 *
+	 * @return <code>true</code> if the bundle was rebuilt, <code>false</code> if it must be
+	 *         downloaded
+	 */
+	private boolean patchBundle(URI updateLibDirectory, BundleInfo currentBundle, BundleInfo bundle,
+			File libDirectory, Path destination, DownloadPriority priority) {
+		if (currentBundle == null || bundle.getSha256() == null) {
+			return false;
+		}
+		BundleDelta delta = null;
+		for (BundleDelta bundleDelta : bundle.getDelta()) {
+			if (bundleDelta.getFromVersion().equals(currentBundle.getVersion())) {
+				delta = bundleDelta;
+			}
+		}
+		Path currentFile = new File(libDirectory, currentBundle.getFileName()).toPath();
+		if (delta == null || !Files.isRegularFile(currentFile)) {
+			return false;
+		}
+		URI deltaURI = updateLibDirectory.resolve(delta.getFileName());
+		Path deltaFile = null;
+		Path patchedFile = null;
+		try {
+			deltaFile = Files.createTempFile("bundle", ".delta");
+			// the rebuilt bundle is checked against its digest, so the delta itself needn't be
+			downloadManager.download(deltaURI, deltaFile, null, priority);
+			Files.createDirectories(destination.getParent());
+			patchedFile = Files.createTempFile(destination.getParent(), ".bundle", ".tmp");
+			String sha256 = deltaPatcher.patch(currentFile, deltaFile, patchedFile);
+			if (!sha256.equalsIgnoreCase(bundle.getSha256().trim())) {
+				logger.warn(String.format("Bundle rebuilt from %1$s has the wrong digest (%2$s != %3$s)",
+						deltaURI, sha256, bundle.getSha256()));
+				return false;
+			}
+			Files.move(patchedFile, destination, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			logger.info(String.format("Updated %1$s from %2$s to %3$s using %4$s",
+					bundle.getSymbolicName(), currentBundle.getVersion(), bundle.getVersion(), deltaURI));
+			return true;
+		} catch (DownloadException | IOException e) {
+			logger.warn(String.format("Error updating %1$s using %2$s, downloading the whole bundle",
+					bundle.getSymbolicName(), deltaURI), e);
+			return false;
+		} finally {
+			deleteIfExists(deltaFile);
+			deleteIfExists(patchedFile);
+		}
+	}
+
+	private void deleteIfExists(Path file) {
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.debug("Error deleting " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the mirrors of the update site, so that downloads fail over to the mirrors.
+	 */
+	private void setMirrors(URI updateSiteURI, Updates updates) throws URISyntaxException {
+		List<URI> mirrors = new ArrayList<URI>();
+		for (String mirror : updates.getUpdateSiteMirror()) {
+			mirrors.add(new URI(mirror));
+		}
+		downloadManager.setMirrors(updateSiteURI, mirrors);
+	}
+
+	/**
+	 * Downloads a file, checking it against the SHA-256 digest if known or else against the
+	 * digest file on the update site.
+	 */
+	private void download(URI source, Path destination, String sha256, DownloadPriority priority)
+			throws DownloadException {
+		try {
+			Files.createDirectories(destination.getParent());
+		} catch (IOException e) {
+			throw new DownloadException("Error creating directory for " + destination, e);
+		}
+		if (sha256 != null) {
+			downloadManager.downloadWithDigest(source, destination, INLINE_DIGEST_ALGORITHM, sha256,
+					priority);
+		} else {
+			downloadManager.download(source, destination, DIGEST_ALGORITHM, priority);
+		}
+	}
+
 	/**
 	 * Returns the new bundles required for the new application profile.
 	 *
@@ -224,16 +712,110 @@ public class UpdateManagerImpl implements UpdateManager {
 		return requiredBundles;
 	}
 
-	private boolean isHigherVersion(String version1, String version2) {
-		org.osgi.framework.Version semanticVersion1 = org.osgi.framework.Version.parseVersion(version1);
-		org.osgi.framework.Version semanticVersion2 = org.osgi.framework.Version.parseVersion(version2);
-		return semanticVersion1.compareTo(semanticVersion2) > 0;
+	/**
+	 * Returns true if the version is higher than the installed version, which is only parsed when
+	 * it changes.
+	 */
+	private boolean isHigherVersion(org.osgi.framework.Version version, String installedVersion) {
+		if (!installedVersion.equals(installedVersionString)) {
+			installedSemanticVersion = org.osgi.framework.Version.parseVersion(installedVersion);
+			installedVersionString = installedVersion;
+		}
+		return version.compareTo(installedSemanticVersion) > 0;
+	}
+
+	/**
+	 * Returns the time of the last successful check for updates, which is saved so that restarts
+	 * don't cause extra checks.
+	 */
+	private synchronized long getLastCheckTime() {
+		if (lastCheckTime < 0) {
+			lastCheckTime = 0;
+			try {
+				lastCheckTime = Long.parseLong(loadUpdateCheckProperties().getProperty(LAST_CHECK_TIME,
+						"0"));
+			} catch (NumberFormatException e) {
+				logger.warn("Error reading " + getUpdateCheckFile(), e);
+			}
+		}
+		return lastCheckTime;
+	}
+
+	private synchronized void setLastCheckTime(long lastCheckTime) {
+		this.lastCheckTime = lastCheckTime;
+		Properties properties = loadUpdateCheckProperties();
+		properties.setProperty(LAST_CHECK_TIME, String.valueOf(lastCheckTime));
+		storeUpdateCheckProperties(properties);
 	}
 
+	/**
+	 * Returns the saved time of the last check for updates and the version whose garbage was last
+	 * collected.
+	 */
+	private synchronized Properties loadUpdateCheckProperties() {
+		Properties properties = new Properties();
+		Path file = getUpdateCheckFile();
+		if (Files.isRegularFile(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				properties.load(in);
+			} catch (IOException e) {
+				logger.warn("Error reading " + file, e);
+			}
+		}
+		return properties;
+	}
+
+	private synchronized void storeUpdateCheckProperties(Properties properties) {
+		Path file = getUpdateCheckFile();
+		try {
+			Files.createDirectories(file.getParent());
+			try (OutputStream out = Files.newOutputStream(file)) {
+				properties.store(out, "");
+			}
+		} catch (IOException e) {
+			logger.warn("Error writing " + file, e);
+		}
+	}
+
+	private Path getUpdateCheckFile() {
+		return applicationConfiguration.getApplicationHomeDir().resolve("updates")
+				.resolve(UPDATE_CHECK_FILE);
+	}
+
+	private void postEvent(String topic, String version) {
+		EventAdmin eventAdmin = this.eventAdmin;
+		if (eventAdmin != null) {
+			Map<String, Object> properties = new HashMap<String, Object>();
+			if (version != null) {
+				properties.put(VERSION, version);
+			}
+			try {
+				eventAdmin.postEvent(new Event(topic, properties));
+			} catch (RuntimeException e) {
+				// the event admin service may have been unregistered since it was bound
+				logger.debug("Unable to post event " + topic, e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the event admin that update events are posted to. Called by the reference listener
+	 * when an event admin service is bound, so no events are posted while there isn't one.
+	 *
+	 * @param eventAdmin
+	 *            the event admin
+	 */
 	public void setEventAdmin(EventAdmin eventAdmin) {
 		this.eventAdmin = eventAdmin;
 	}
 
+	/**
+	 * Stops posting events when the event admin service is unbound.
+	 */
+	public void unsetEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = null;
+	}
+
 	public void setCheckIntervalSeconds(int checkIntervalSeconds) {
 		this.checkIntervalSeconds = checkIntervalSeconds;
 	}
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Installs versions of the application side by side and switches between them.
+ * <p>
+ * Each version is installed in a <code>versions/&lt;version&gt;</code> directory of the startup
+ * directory, containing its <code>lib</code> directory and <code>ApplicationProfile.xml</code>.
+ * The directory is built under a temporary name and renamed once complete, and the active version
+ * is switched by atomically replacing the <code>versions/active.properties</code> pointer file,
+ * which the launcher reads to select the version to start and to roll back if the new version
+ * fails to start. Without a pointer file the version installed directly in the startup directory
+ * is active.
+ * <p>
+ * Only the active version, the previous version, which the launcher rolls back to, and the
+ * running version are kept. Older versions are deleted by {@link #deleteUnretainedVersions(Path)}.
+ * A version that failed to start is recorded in the pointer file by the launcher, and isn't
+ * installed again.
+ */
+class VersionSwitcher {
+
+	static final String VERSIONS_DIR = "versions";
+	static final String POINTER_FILE = "active.properties";
+	static final String LIB_DIR = "lib";
+	static final String APPLICATION_PROFILE = "ApplicationProfile.xml";
+
+	private static final String VERSION = "version";
+	private static final String PREVIOUS = "previous";
+	private static final String FAILED = "failed";
+	private static final String STATE = "state";
+	private static final String PENDING = "pending";
+
+	private static final Logger logger = Logger.getLogger(VersionSwitcher.class);
+
+	private final Path startupDirectory;
+	private final Path versionsDirectory;
+	private final Path pointerFile;
+
+	VersionSwitcher(Path startupDirectory) {
+		this.startupDirectory = startupDirectory;
+		versionsDirectory = startupDirectory.resolve(VERSIONS_DIR);
+		pointerFile = versionsDirectory.resolve(POINTER_FILE);
+	}
+
+	/**
+	 * Returns the active version, or <code>null</code> if the version installed in the startup
+	 * directory is active.
+	 */
+	String getActiveVersion() throws IOException {
+		return readPointer().getProperty(VERSION);
+	}
+
+	/**
+	 * Returns true if the launcher rolled back from the version because it failed to start.
+	 */
+	boolean isFailedVersion(String version) throws IOException {
+		return version.equals(readPointer().getProperty(FAILED));
+	}
+
+	/**
+	 * Returns the directories of the active version and of the previous version, if there is one.
+	 */
+	List<Path> getRetainedVersionDirectories() throws IOException {
+		Properties pointer = readPointer();
+		List<Path> versionDirectories = new ArrayList<Path>();
+		versionDirectories.add(getVersionDirectory(pointer.getProperty(VERSION)));
+		if (pointer.containsKey(PREVIOUS)) {
+			versionDirectories.add(getVersionDirectory(pointer.getProperty(PREVIOUS)));
+		}
+		return versionDirectories;
+	}
+
+	/**
+	 * Deletes the version directories, including incomplete ones, that are neither the active nor
+	 * the previous version, nor the version that is running. The version installed directly in the
+	 * startup directory is never deleted.
+	 *
+	 * @param runningVersionDirectory
+	 *            the directory of the version that is running, which the pointer file may no longer
+	 *            name once other versions have been installed
+	 */
+	void deleteUnretainedVersions(Path runningVersionDirectory) throws IOException {
+		if (!Files.isDirectory(versionsDirectory)) {
+			return;
+		}
+		Set<Path> retainedVersionDirectories = new HashSet<Path>();
+		for (Path versionDirectory : getRetainedVersionDirectories()) {
+			retainedVersionDirectories.add(versionDirectory.toAbsolutePath().normalize());
+		}
+		retainedVersionDirectories.add(runningVersionDirectory.toAbsolutePath().normalize());
+		try (DirectoryStream<Path> versionDirectories = Files.newDirectoryStream(versionsDirectory)) {
+			for (Path versionDirectory : versionDirectories) {
+				if (Files.isDirectory(versionDirectory)
+						&& !retainedVersionDirectories.contains(versionDirectory.toAbsolutePath()
+								.normalize())) {
+					logger.info("Deleting superseded version " + versionDirectory.getFileName());
+					FileUtils.deleteDirectory(versionDirectory.toFile());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the directory containing the bundles of the active version.
+	 */
+	Path getActiveLibDirectory() throws IOException {
+		return getVersionDirectory(getActiveVersion()).resolve(LIB_DIR);
+	}
+
+	/**
+	 * Returns the directory for a version, or the startup directory if the version is
+	 * <code>null</code>.
+	 */
+	Path getVersionDirectory(String version) {
+		return version == null ? startupDirectory : versionsDirectory.resolve(version);
+	}
+
+	/**
+	 * Creates an empty temporary directory to build a version in.
+	 */
+	Path createTempVersionDirectory(String version) throws IOException {
+		Path tempDirectory = versionsDirectory.resolve("." + version + ".tmp");
+		FileUtils.deleteDirectory(tempDirectory.toFile());
+		Files.createDirectories(tempDirectory.resolve(LIB_DIR));
+		return tempDirectory;
+	}
+
+	/**
+	 * Renames a completely built temporary version directory to the version directory, and makes
+	 * it the active version from the next start of the application. A version that failed to start
+	 * isn't installed again.
+	 * <p>
+	 * The active version becomes the version the launcher rolls back to, unless it is still
+	 * <code>pending</code> and has never been started, in which case the version it would have
+	 * rolled back to is kept.
+	 */
+	void install(String version, Path tempDirectory) throws IOException {
+		Path versionDirectory = getVersionDirectory(version);
+		Properties currentPointer = readPointer();
+		String activeVersion = currentPointer.getProperty(VERSION);
+		if (version.equals(activeVersion)) {
+			throw new IOException(String.format("Version %1$s is already active", version));
+		}
+		if (version.equals(currentPointer.getProperty(FAILED))) {
+			throw new IOException(String.format("Version %1$s failed to start", version));
+		}
+		String previousVersion = activeVersion;
+		if (PENDING.equals(currentPointer.getProperty(STATE))) {
+			previousVersion = currentPointer.getProperty(PREVIOUS);
+		}
+		// left over from an earlier update to the same version that was rolled back
+		FileUtils.deleteDirectory(versionDirectory.toFile());
+		Files.move(tempDirectory, versionDirectory, StandardCopyOption.ATOMIC_MOVE);
+
+		Properties pointer = new Properties();
+		pointer.setProperty(VERSION, version);
+		if (previousVersion != null) {
+			pointer.setProperty(PREVIOUS, previousVersion);
+		}
+		pointer.setProperty(STATE, PENDING);
+		Path tempFile = versionsDirectory.resolve("." + POINTER_FILE + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tempFile)) {
+			pointer.store(out, "Active application version");
+		}
+		Files.move(tempFile, pointerFile, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		logger.info(String.format("Switched from version %1$s to %2$s", activeVersion == null ? "installed"
+				: activeVersion, version));
+	}
+
+	/**
+	 * Links, or copies if links aren't supported, a bundle that is unchanged between versions.
+	 */
+	void linkBundle(Path bundle, Path destination) throws IOException {
+		Files.createDirectories(destination.getParent());
+		try {
+			Files.createLink(destination, bundle);
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.debug(String.format("Can't link %1$s to %2$s, copying instead", destination, bundle), e);
+			Files.copy(bundle, destination, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private Properties readPointer() throws IOException {
+		Properties pointer = new Properties();
+		if (Files.isRegularFile(pointerFile)) {
+			try (InputStream in = Files.newInputStream(pointerFile)) {
+				pointer.load(in);
+			}
+		}
+		return pointer;
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.taverna.profile.xml.jaxb.ApplicationProfile;
+import org.apache.taverna.profile.xml.jaxb.BundleInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BundleCollectorTest {
+
+	private Path startupDirectory;
+	private Path libDirectory;
+	private Path trashDirectory;
+
+	private BundleCollector bundleCollector;
+
+	@Before
+	public void setUp() throws Exception {
+		startupDirectory = Files.createTempDirectory("startup");
+		libDirectory = startupDirectory.resolve("lib");
+		trashDirectory = Files.createTempDirectory("updates").resolve("trash");
+		bundleCollector = new BundleCollector(startupDirectory, trashDirectory);
+	}
+
+	@Test
+	public void collectActiveLibDirectory() throws Exception {
+		writeJar(libDirectory.resolve("org.example/a-1.1.jar"));
+		writeJar(libDirectory.resolve("org.example/a-1.0.jar"));
+		writeJar(libDirectory.resolve("org.example.old/b-1.0.jar"));
+		writeJar(libDirectory.resolve("c-1.0.jar"));
+		Path otherVersion = startupDirectory.resolve("versions/1.1/lib/org.example/a-1.0.jar");
+		writeJar(otherVersion);
+
+		// the active version may have a profile in the startup and the application home directory
+		assertEquals(2, bundleCollector.collect(libDirectory,
+				Arrays.asList(profile("org.example/a-1.1.jar"), profile("c-1.0.jar"))));
+
+		assertTrue(Files.isRegularFile(libDirectory.resolve("org.example/a-1.1.jar")));
+		assertTrue(Files.isRegularFile(libDirectory.resolve("c-1.0.jar")));
+		assertFalse(Files.exists(libDirectory.resolve("org.example/a-1.0.jar")));
+		assertFalse(Files.exists(libDirectory.resolve("org.example.old")));
+		assertTrue(Files.isRegularFile(trashDirectory.resolve("lib/org.example/a-1.0.jar")));
+		assertTrue(Files.isRegularFile(trashDirectory.resolve("lib/org.example.old/b-1.0.jar")));
+		assertTrue(Files.isRegularFile(otherVersion));
+	}
+
+	@Test
+	public void foreignJarMovedToTrash() throws Exception {
+		writeJar(libDirectory.resolve("a-1.0.jar"));
+		Path foreignJar = libDirectory.resolve("driver.jar");
+		Files.write(foreignJar, "driver".getBytes(US_ASCII));
+		Path notJar = libDirectory.resolve("README.txt");
+		Files.write(notJar, "readme".getBytes(US_ASCII));
+
+		assertEquals(1, bundleCollector.collect(libDirectory,
+				Collections.singletonList(profile("a-1.0.jar"))));
+
+		assertFalse(Files.exists(foreignJar));
+		Path trashedJar = trashDirectory.resolve("lib/driver.jar");
+		assertEquals("driver", new String(Files.readAllBytes(trashedJar), US_ASCII));
+		assertTrue(Files.isRegularFile(notJar));
+
+		bundleCollector.emptyTrash();
+		assertFalse(Files.exists(trashedJar));
+	}
+
+	@Test
+	public void missingProfile() throws Exception {
+		writeJar(libDirectory.resolve("a-1.0.jar"));
+
+		assertEquals(0, bundleCollector.collect(libDirectory,
+				Collections.<ApplicationProfile> emptyList()));
+
+		assertTrue(Files.isRegularFile(libDirectory.resolve("a-1.0.jar")));
+	}
+
+	@Test
+	public void partialProfile() throws Exception {
+		writeJar(libDirectory.resolve("a-1.0.jar"));
+		writeJar(libDirectory.resolve("b-1.0.jar"));
+
+		// lists a bundle that isn't in the lib directory, so may be for another version
+		assertEquals(0, bundleCollector.collect(libDirectory,
+				Collections.singletonList(profile("a-1.0.jar", "b-1.1.jar"))));
+
+		assertTrue(Files.isRegularFile(libDirectory.resolve("a-1.0.jar")));
+		assertTrue(Files.isRegularFile(libDirectory.resolve("b-1.0.jar")));
+		assertFalse(Files.exists(trashDirectory));
+	}
+
+	@Test
+	public void missingLibDirectory() throws Exception {
+		assertEquals(0, bundleCollector.collect(libDirectory,
+				Collections.singletonList(profile("a-1.0.jar"))));
+	}
+
+	private ApplicationProfile profile(String... fileNames) {
+		ApplicationProfile profile = new ApplicationProfile();
+		List<BundleInfo> bundles = profile.getBundle();
+		for (String fileName : fileNames) {
+			BundleInfo bundle = new BundleInfo();
+			bundle.setFileName(fileName);
+			bundles.add(bundle);
+		}
+		return profile;
+	}
+
+	private void writeJar(Path jar) throws Exception {
+		Files.createDirectories(jar.getParent());
+		Files.write(jar, jar.getFileName().toString().getBytes(US_ASCII));
+	}
+
+}
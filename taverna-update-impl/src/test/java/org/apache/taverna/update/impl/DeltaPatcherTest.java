@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaPatcherTest {
+
+	private Path oldFile;
+	private Path delta;
+	private Path newFile;
+
+	@Before
+	public void setUp() throws Exception {
+		oldFile = Files.createTempFile("old", ".jar");
+		Files.write(oldFile, "Hello world".getBytes(US_ASCII));
+		delta = Files.createTempFile("bundle", ".delta");
+		newFile = Files.createTempFile("new", ".jar");
+	}
+
+	@Test
+	public void patch() throws Exception {
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(delta))) {
+			writeHeader(out, 11);
+			out.writeByte(DeltaPatcher.COPY);
+			out.writeLong(0);
+			out.writeInt(6);
+			out.writeByte(DeltaPatcher.INSERT);
+			out.writeInt(5);
+			out.write("wurld".getBytes(US_ASCII));
+			out.writeByte(DeltaPatcher.END);
+		}
+		String sha256 = new DeltaPatcher().patch(oldFile, delta, newFile);
+		assertEquals("Hello wurld", new String(Files.readAllBytes(newFile), US_ASCII));
+		// echo -n "Hello wurld" | sha256sum
+		assertEquals("279d17f13c815fa1a7712d53fb64b02f2d1f83de241a1b341589d555f7b286de", sha256);
+	}
+
+	@Test(expected = IOException.class)
+	public void copyBeyondOldFile() throws Exception {
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(delta))) {
+			writeHeader(out, 20);
+			out.writeByte(DeltaPatcher.COPY);
+			out.writeLong(0);
+			out.writeInt(20);
+			out.writeByte(DeltaPatcher.END);
+		}
+		new DeltaPatcher().patch(oldFile, delta, newFile);
+	}
+
+	@Test(expected = IOException.class)
+	public void wrongLength() throws Exception {
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(delta))) {
+			writeHeader(out, 12);
+			out.writeByte(DeltaPatcher.COPY);
+			out.writeLong(0);
+			out.writeInt(11);
+			out.writeByte(DeltaPatcher.END);
+		}
+		new DeltaPatcher().patch(oldFile, delta, newFile);
+	}
+
+	private void writeHeader(DataOutputStream out, long newLength) throws IOException {
+		out.writeInt(DeltaPatcher.MAGIC);
+		out.writeByte(DeltaPatcher.VERSION);
+		out.writeLong(newLength);
+	}
+
+}
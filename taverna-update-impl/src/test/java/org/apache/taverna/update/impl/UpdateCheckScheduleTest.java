@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import static org.apache.taverna.update.impl.UpdateCheckSchedule.MIN_DELAY;
+import static org.apache.taverna.update.impl.UpdateCheckSchedule.RETRY_DELAY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class UpdateCheckScheduleTest {
+
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	private static final long NOW = 1000 * DAY;
+
+	@Test
+	public void checkIntervalAfterLastCheck() {
+		UpdateCheckSchedule schedule = new UpdateCheckSchedule(DAY, new NoJitter());
+		assertEquals(DAY, schedule.getDelay(NOW, NOW, 0));
+		assertEquals(DAY / 4, schedule.getDelay(NOW, NOW - 3 * DAY / 4, 0));
+	}
+
+	@Test
+	public void minimumDelayIfCheckIsDue() {
+		UpdateCheckSchedule schedule = new UpdateCheckSchedule(DAY, new NoJitter());
+		assertEquals(MIN_DELAY, schedule.getDelay(NOW, 0, 0));
+		assertEquals(MIN_DELAY, schedule.getDelay(NOW, NOW - 2 * DAY, 0));
+	}
+
+	@Test
+	public void backoffAfterFailures() {
+		UpdateCheckSchedule schedule = new UpdateCheckSchedule(DAY, new NoJitter());
+		assertEquals(RETRY_DELAY, schedule.getDelay(NOW, NOW - DAY, 1));
+		assertEquals(2 * RETRY_DELAY, schedule.getDelay(NOW, NOW - DAY, 2));
+		assertEquals(4 * RETRY_DELAY, schedule.getDelay(NOW, NOW - DAY, 3));
+		assertEquals(DAY, schedule.getDelay(NOW, NOW - DAY, 20));
+		assertEquals(DAY, schedule.getDelay(NOW, NOW - DAY, 100));
+	}
+
+	@Test
+	public void jitter() {
+		UpdateCheckSchedule schedule = new UpdateCheckSchedule(DAY, new Random(42));
+		for (int i = 0; i < 100; i++) {
+			long delay = schedule.getDelay(NOW, NOW, 0);
+			assertTrue(delay >= DAY && delay <= DAY + DAY / 10);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class NoJitter extends Random {
+		@Override
+		public double nextDouble() {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.taverna.update.impl;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VersionSwitcherTest {
+
+	private Path startupDirectory;
+
+	private VersionSwitcher versionSwitcher;
+
+	@Before
+	public void setUp() throws Exception {
+		startupDirectory = Files.createTempDirectory("startup");
+		Files.createDirectories(startupDirectory.resolve("lib"));
+		Files.write(startupDirectory.resolve("lib").resolve("a-1.0.jar"), "a".getBytes(US_ASCII));
+		versionSwitcher = new VersionSwitcher(startupDirectory);
+	}
+
+	@Test
+	public void installedVersionActive() throws Exception {
+		assertNull(versionSwitcher.getActiveVersion());
+		assertEquals(startupDirectory.resolve("lib"), versionSwitcher.getActiveLibDirectory());
+	}
+
+	@Test
+	public void install() throws Exception {
+		Path tempDirectory = versionSwitcher.createTempVersionDirectory("1.1");
+		versionSwitcher.linkBundle(startupDirectory.resolve("lib").resolve("a-1.0.jar"),
+				tempDirectory.resolve("lib").resolve("a-1.0.jar"));
+		versionSwitcher.install("1.1", tempDirectory);
+
+		assertFalse(Files.exists(tempDirectory));
+		assertEquals("1.1", versionSwitcher.getActiveVersion());
+		Path libDirectory = versionSwitcher.getActiveLibDirectory();
+		assertEquals(startupDirectory.resolve("versions").resolve("1.1").resolve("lib"), libDirectory);
+		assertTrue(Files.isRegularFile(libDirectory.resolve("a-1.0.jar")));
+		Properties pointer = readPointer();
+		assertEquals("pending", pointer.getProperty("state"));
+		assertNull(pointer.getProperty("previous"));
+	}
+
+	@Test
+	public void installRecordsPreviousVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+
+		assertEquals("1.2", versionSwitcher.getActiveVersion());
+		assertEquals("1.1", readPointer().getProperty("previous"));
+	}
+
+	@Test
+	public void installOverPendingVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		// 1.2 is installed while 1.1 is running, then 1.3 before the application is restarted
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+		versionSwitcher.install("1.3", versionSwitcher.createTempVersionDirectory("1.3"));
+
+		assertEquals("1.3", versionSwitcher.getActiveVersion());
+		Properties pointer = readPointer();
+		assertEquals("pending", pointer.getProperty("state"));
+		// rolls back to the running version rather than the version that was never started
+		assertEquals("1.1", pointer.getProperty("previous"));
+	}
+
+	@Test
+	public void installOverPendingVersionOfInstalledVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+
+		assertEquals("1.2", versionSwitcher.getActiveVersion());
+		// rolls back to the version installed in the startup directory
+		assertNull(readPointer().getProperty("previous"));
+	}
+
+	@Test
+	public void deleteUnretainedVersions() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+		confirm();
+		versionSwitcher.install("1.3", versionSwitcher.createTempVersionDirectory("1.3"));
+		versionSwitcher.createTempVersionDirectory("1.4");
+		versionSwitcher.deleteUnretainedVersions(versionSwitcher.getVersionDirectory("1.3"));
+
+		Path versionsDirectory = startupDirectory.resolve("versions");
+		assertFalse(Files.exists(versionsDirectory.resolve("1.1")));
+		assertTrue(Files.isDirectory(versionsDirectory.resolve("1.2")));
+		assertTrue(Files.isDirectory(versionsDirectory.resolve("1.3")));
+		assertFalse(Files.exists(versionsDirectory.resolve(".1.4.tmp")));
+		assertTrue(Files.isRegularFile(versionsDirectory.resolve("active.properties")));
+		assertTrue(Files.isRegularFile(startupDirectory.resolve("lib").resolve("a-1.0.jar")));
+	}
+
+	@Test
+	public void deleteUnretainedVersionsKeepsRunningVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		Path runningVersionDirectory = versionSwitcher.getVersionDirectory("1.1");
+		// 1.2 and 1.3 are installed while 1.1 is running
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+		versionSwitcher.install("1.3", versionSwitcher.createTempVersionDirectory("1.3"));
+		versionSwitcher.deleteUnretainedVersions(runningVersionDirectory);
+
+		Path versionsDirectory = startupDirectory.resolve("versions");
+		assertTrue(Files.isDirectory(runningVersionDirectory));
+		assertFalse(Files.exists(versionsDirectory.resolve("1.2")));
+		assertTrue(Files.isDirectory(versionsDirectory.resolve("1.3")));
+	}
+
+	@Test
+	public void deleteUnretainedVersionsKeepsUnlistedRunningVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+		confirm();
+		// written before pending versions were skipped as the previous version
+		Properties pointer = new Properties();
+		pointer.setProperty("version", "1.3");
+		pointer.setProperty("previous", "1.2");
+		pointer.setProperty("state", "pending");
+		writePointer(pointer);
+		versionSwitcher.deleteUnretainedVersions(startupDirectory.resolve("versions/../versions/1.1"));
+
+		assertTrue(Files.isDirectory(startupDirectory.resolve("versions").resolve("1.1")));
+	}
+
+	@Test(expected = IOException.class)
+	public void installActiveVersion() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+	}
+
+	@Test
+	public void failedVersionNotReinstalled() throws Exception {
+		versionSwitcher.install("1.1", versionSwitcher.createTempVersionDirectory("1.1"));
+		confirm();
+		versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+		assertEquals("pending", readPointer().getProperty("state"));
+
+		// the launcher starts 1.2, which never completes, so rolls back to 1.1 on the next start
+		Properties pointer = readPointer();
+		pointer.setProperty("state", "booting");
+		writePointer(pointer);
+		pointer = new Properties();
+		pointer.setProperty("version", "1.1");
+		pointer.setProperty("failed", "1.2");
+		pointer.setProperty("state", "confirmed");
+		writePointer(pointer);
+
+		assertEquals("1.1", versionSwitcher.getActiveVersion());
+		assertTrue(versionSwitcher.isFailedVersion("1.2"));
+		assertFalse(versionSwitcher.isFailedVersion("1.3"));
+		try {
+			versionSwitcher.install("1.2", versionSwitcher.createTempVersionDirectory("1.2"));
+			fail("Reinstalled the failed version");
+		} catch (IOException e) {
+			assertEquals("1.1", versionSwitcher.getActiveVersion());
+		}
+
+		versionSwitcher.install("1.3", versionSwitcher.createTempVersionDirectory("1.3"));
+		assertEquals("1.3", versionSwitcher.getActiveVersion());
+		assertEquals("1.1", readPointer().getProperty("previous"));
+		assertFalse(versionSwitcher.isFailedVersion("1.2"));
+	}
+
+	/**
+	 * Records that the active version started, as the launcher does.
+	 */
+	private void confirm() throws IOException {
+		Properties pointer = readPointer();
+		pointer.setProperty("state", "confirmed");
+		writePointer(pointer);
+	}
+
+	private void writePointer(Properties pointer) throws IOException {
+		try (OutputStream out = Files.newOutputStream(startupDirectory.resolve("versions").resolve(
+				"active.properties"))) {
+			pointer.store(out, null);
+		}
+	}
+
+	private Properties readPointer() throws IOException {
+		Properties pointer = new Properties();
+		try (InputStream in = Files.newInputStream(startupDirectory.resolve("versions").resolve(
+				"active.properties"))) {
+			pointer.load(in);
+		}
+		return pointer;
+	}
+
+}